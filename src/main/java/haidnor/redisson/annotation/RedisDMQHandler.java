@@ -12,6 +12,8 @@ public @interface RedisDMQHandler {
 
     /**
      * The destination name for this listener, resolved through the container-wide
+     * <p>
+     * 延迟消息的 key 以队列名称作为 Redis Cluster hash tag, 因此队列名称不能包含 '{' 或 '}'
      */
     String destination();
 
@@ -24,4 +26,43 @@ public @interface RedisDMQHandler {
      * 消息队列消费者使用的线程池
      */
     String executorService() default "defaultRedisMQExecutorService";
+
+    /**
+     * 单个队列的最大并发消费数. 默认值 0 表示使用线程池的核心线程数,
+     * 线程池不是 ThreadPoolExecutor 时 (例如虚拟线程模式) 使用 redisson.mq.virtual-threads.concurrency 配置值
+     */
+    int concurrency() default 0;
+
+    /**
+     * 消息编解码器名称, 需与生产者保持一致. 默认值为空表示使用 redisson.mq.destinations.[队列名称].codec 或 redisson.mq.codec 配置值.
+     * 可选值见 {@link haidnor.redisson.util.RedisMQCodecResolver}
+     */
+    String codec() default "";
+
+    /**
+     * 最大投递次数 (含第一次消费). 默认值 1 表示不重试; 大于 1 时监听方法抛出异常的消息包装为信封 (投递次数加 1),
+     * 通过延迟消息在 retryBackoff 后重新投递到原队列, 消费线程不等待
+     */
+    int maxAttempts() default 1;
+
+    /**
+     * 第一次重试的延迟时间(毫秒), 之后每次重试的延迟时间为上一次的 retryMultiplier 倍
+     */
+    long retryBackoff() default 1000;
+
+    /**
+     * 重试延迟时间的增长倍数. 此参数值不可小于 1
+     */
+    double retryMultiplier() default 2;
+
+    /**
+     * 重试延迟时间的最大值(毫秒)
+     */
+    long maxRetryBackoff() default 60000;
+
+    /**
+     * 死信队列名称. 超过最大投递次数的消息转入死信队列, 默认值为空表示丢弃消息并记录错误日志.
+     * 死信队列是使用相同编解码器的普通消息队列, 可以使用 RedisMQHandler 监听, 或通过 RedisMQService#redrive 重新投递
+     */
+    String deadLetter() default "";
 }
@@ -0,0 +1,35 @@
+package haidnor.redisson.annotation;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis 分布式锁, 获取锁后执行方法, 方法返回或抛出异常后释放锁
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RedisLocked {
+
+    /**
+     * 分布式锁 key, SpEL 表达式. 可以使用参数名称 (#order) 或参数下标 (#p0, #a0) 引用方法参数, 例如 "'order:' + #order.id".
+     * 只由字符串常量与方法参数拼接的表达式不经过 SpEL 求值
+     */
+    String key();
+
+    /**
+     * 获取锁等待时间, 默认不等待
+     */
+    long waitTime() default 0;
+
+    /**
+     * 租约时间. 小于 1 时使用看门狗续约; 大于 0 时以固定租约上锁, 不使用看门狗, 方法执行时间应小于租约时间
+     */
+    long leaseTime() default -1;
+
+    /**
+     * 等待时间与租约时间的单位
+     */
+    TimeUnit timeUnit() default TimeUnit.SECONDS;
+
+}
@@ -25,4 +25,74 @@ public @interface RedisMQHandler {
      */
     String executorService() default "defaultRedisMQExecutorService";
 
+    /**
+     * 单个队列的最大并发消费数. 默认值 0 表示使用线程池的核心线程数,
+     * 线程池不是 ThreadPoolExecutor 时 (例如虚拟线程模式) 使用 redisson.mq.virtual-threads.concurrency 配置值
+     */
+    int concurrency() default 0;
+
+    /**
+     * 消息编解码器名称, 需与生产者保持一致. 默认值为空表示使用 redisson.mq.destinations.[队列名称].codec 或 redisson.mq.codec 配置值.
+     * 可选值见 {@link haidnor.redisson.util.RedisMQCodecResolver}
+     */
+    String codec() default "";
+
+    /**
+     * 单次从 Redis 拉取消息的最大数量. 默认值 1 表示逐条消费; 大于 1 时开启批量消费模式,
+     * 阻塞获取到第一条消息后再一次性拉取剩余消息, 减少 Redis 往返次数.
+     * 若监听方法参数类型为 {@link java.util.List}, 则整批消息一次性投递给监听方法, 否则逐条投递
+     */
+    int batchSize() default 1;
+
+    /**
+     * 批量消费模式下, 获取到第一条消息后凑满 batchSize 的最长等待时间(毫秒). 默认值 0 表示不等待
+     */
+    long maxWait() default 0;
+
+    /**
+     * 是否开启可靠消费模式 (需要 Redis 6.2 及以上版本). 开启后消息在消费成功后才从 Redis 中确认移除,
+     * 监听方法抛出异常时消息重新入队, 消费者进程崩溃时其处理中的消息由其它节点重新入队
+     */
+    boolean reliable() default false;
+
+    /**
+     * 可靠消费模式下消费者租约与单条消息的超时时间(毫秒). 消费者超过此时间未续约时, 其处理中的消息重新入队;
+     * 租约有效但取出超过此时间仍未消费结束的消息同样重新入队
+     */
+    long visibilityTimeout() default 30000;
+
+    /**
+     * 可靠消费模式下未开启重试且未配置死信队列时, 消费失败的消息放回队列尾部的最大次数. 消息包装为信封记录投递次数,
+     * 超过此次数的消息丢弃并记录错误日志, 避免无法消费成功的消息无限重新入队. 二进制编解码器的队列未开启消息信封时不限制次数
+     */
+    int maxRequeues() default 16;
+
+    /**
+     * 最大投递次数 (含第一次消费). 默认值 1 表示不重试; 大于 1 时监听方法抛出异常的消息包装为信封 (投递次数加 1),
+     * 通过延迟消息在 retryBackoff 后重新投递到原队列, 消费线程不等待. 开启重试时队列名称不能包含 '{' 或 '}',
+     * 二进制编解码器的队列需开启消息信封 (redisson.mq.envelope.enabled)
+     */
+    int maxAttempts() default 1;
+
+    /**
+     * 第一次重试的延迟时间(毫秒), 之后每次重试的延迟时间为上一次的 retryMultiplier 倍
+     */
+    long retryBackoff() default 1000;
+
+    /**
+     * 重试延迟时间的增长倍数. 此参数值不可小于 1
+     */
+    double retryMultiplier() default 2;
+
+    /**
+     * 重试延迟时间的最大值(毫秒)
+     */
+    long maxRetryBackoff() default 60000;
+
+    /**
+     * 死信队列名称. 超过最大投递次数的消息转入死信队列, 默认值为空表示丢弃消息并记录错误日志.
+     * 死信队列是使用相同编解码器的普通消息队列, 可以使用 RedisMQHandler 监听, 或通过 RedisMQService#redrive 重新投递
+     */
+    String deadLetter() default "";
+
 }
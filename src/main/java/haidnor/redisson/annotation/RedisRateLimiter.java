@@ -38,4 +38,10 @@ public @interface RedisRateLimiter {
      */
     RateIntervalUnit rateIntervalUnit();
 
+    /**
+     * 本地令牌桶每次从 Redis 限流器租用的许可数量占 rate 的比例, 取值 (0, 1], 例如 0.05.
+     * 默认 0 表示不使用本地令牌桶, 每次调用同步访问 Redis. 比例越大访问 Redis 越少, 全局放行数量与 rate 的偏差越大
+     */
+    double localRatio() default 0;
+
 }
@@ -0,0 +1,194 @@
+package haidnor.redisson.aop;
+
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link haidnor.redisson.annotation.RedisLocked} 的 key 解析器, 每个方法在第一次调用时解析一次表达式.
+ * <ul>
+ *     <li>只由字符串常量 ('order:') 与方法参数 (#orderId, #p0, #a0) 以 + 拼接的表达式直接拼接字符串, 不经过 SpEL 求值.
+ *     任一参数为 null 时抛出异常, 不会拼接为 "null" 使无关的调用竞争同一把锁</li>
+ *     <li>其它表达式使用 SpEL, 以 MIXED 模式在多次求值后编译为字节码</li>
+ * </ul>
+ */
+public abstract class RedisLockKeyResolver {
+
+    private static final SpelExpressionParser PARSER = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, RedisLockKeyResolver.class.getClassLoader()));
+
+    private static final ParameterNameDiscoverer PARAMETER_NAME_DISCOVERER = new DefaultParameterNameDiscoverer();
+
+    /**
+     * 解析方法上的 key 表达式
+     *
+     * @param method     方法, 参数名称需要以 -parameters 编译
+     * @param expression key 表达式
+     */
+    public static RedisLockKeyResolver compile(Method method, String expression) {
+        if (expression == null || expression.isBlank()) {
+            throw new IllegalArgumentException("the key cannot be empty !");
+        }
+        String[] names = PARAMETER_NAME_DISCOVERER.getParameterNames(method);
+        RedisLockKeyResolver concat = Concat.parse(expression, names, method.getParameterCount());
+        return concat != null ? concat : new Spel(PARSER.parseExpression(expression), names, method.getParameterCount());
+    }
+
+    /**
+     * 计算本次调用的 key
+     *
+     * @param target 被调用的对象
+     * @param args   方法参数
+     */
+    public abstract String resolve(Object target, Object[] args);
+
+    private static String notNull(Object key, String expression) {
+        if (key == null) {
+            throw new IllegalArgumentException("the lock key cannot be null ! Expression:" + expression);
+        }
+        return key.toString();
+    }
+
+    /**
+     * 字符串常量与方法参数的拼接
+     */
+    private static class Concat extends RedisLockKeyResolver {
+
+        private final String expression;
+
+        /**
+         * 字符串常量 (String) 或方法参数下标 (Integer)
+         */
+        private final Object[] parts;
+
+        /**
+         * 字符串常量的总长度
+         */
+        private final int literalLength;
+
+        private Concat(String expression, Object[] parts, int literalLength) {
+            this.expression = expression;
+            this.parts = parts;
+            this.literalLength = literalLength;
+        }
+
+        /**
+         * @return 表达式不是常量与方法参数的拼接时返回 null
+         */
+        private static Concat parse(String expression, String[] names, int parameterCount) {
+            List<Object> parts = new ArrayList<>();
+            int literalLength = 0;
+            int start = 0;
+            boolean quoted = false;
+            for (int i = 0; i <= expression.length(); i++) {
+                if (i < expression.length()) {
+                    char c = expression.charAt(i);
+                    if (c == '\'') {
+                        quoted = !quoted;
+                    }
+                    if (c != '+' || quoted) {
+                        continue;
+                    }
+                }
+                String token = expression.substring(start, i).trim();
+                start = i + 1;
+                if (token.length() >= 2 && token.charAt(0) == '\'' && token.charAt(token.length() - 1) == '\'') {
+                    String literal = token.substring(1, token.length() - 1);
+                    if (literal.indexOf('\'') >= 0) {
+                        return null;
+                    }
+                    parts.add(literal);
+                    literalLength += literal.length();
+                } else if (token.length() > 1 && token.charAt(0) == '#') {
+                    int index = indexOf(token.substring(1), names, parameterCount);
+                    if (index < 0) {
+                        return null;
+                    }
+                    parts.add(index);
+                } else {
+                    return null;
+                }
+            }
+            return quoted ? null : new Concat(expression, parts.toArray(), literalLength);
+        }
+
+        private static int indexOf(String variable, String[] names, int parameterCount) {
+            if (names != null) {
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i].equals(variable)) {
+                        return i;
+                    }
+                }
+            }
+            if (variable.length() > 1 && (variable.charAt(0) == 'p' || variable.charAt(0) == 'a')) {
+                for (int i = 1; i < variable.length(); i++) {
+                    if (!Character.isDigit(variable.charAt(i))) {
+                        return -1;
+                    }
+                }
+                int index = Integer.parseInt(variable.substring(1));
+                return index < parameterCount ? index : -1;
+            }
+            return -1;
+        }
+
+        @Override
+        public String resolve(Object target, Object[] args) {
+            if (parts.length == 1) {
+                return parts[0] instanceof Integer index ? notNull(args[index], expression) : (String) parts[0];
+            }
+            StringBuilder key = new StringBuilder(literalLength + 16 * parts.length);
+            for (Object part : parts) {
+                if (part instanceof Integer index) {
+                    key.append(notNull(args[index], expression));
+                } else {
+                    key.append((String) part);
+                }
+            }
+            return key.toString();
+        }
+
+    }
+
+    /**
+     * SpEL 表达式. 变量名称每个方法只计算一次, 每次调用创建一个求值上下文
+     */
+    private static class Spel extends RedisLockKeyResolver {
+
+        private final Expression expression;
+
+        /**
+         * 每个参数的变量名称: 参数名称 (可能没有), p 下标, a 下标
+         */
+        private final String[][] variables;
+
+        private Spel(Expression expression, String[] names, int parameterCount) {
+            this.expression = expression;
+            this.variables = new String[parameterCount][];
+            for (int i = 0; i < parameterCount; i++) {
+                variables[i] = names != null ? new String[]{names[i], "p" + i, "a" + i} : new String[]{"p" + i, "a" + i};
+            }
+        }
+
+        @Override
+        public String resolve(Object target, Object[] args) {
+            StandardEvaluationContext context = new StandardEvaluationContext(target);
+            for (int i = 0; i < variables.length; i++) {
+                for (String variable : variables[i]) {
+                    context.setVariable(variable, args[i]);
+                }
+            }
+            return notNull(expression.getValue(context), expression.getExpressionString());
+        }
+
+    }
+
+}
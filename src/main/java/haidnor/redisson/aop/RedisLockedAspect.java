@@ -0,0 +1,63 @@
+package haidnor.redisson.aop;
+
+import haidnor.redisson.annotation.RedisLocked;
+import haidnor.redisson.core.RedisLock;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * redisson 分布式锁的切面. 先于事务切面执行, 事务提交后才释放锁
+ */
+@Component
+@Aspect
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+public class RedisLockedAspect {
+
+    private final Map<Method, RedisLockKeyResolver> resolvers = new ConcurrentHashMap<>();
+
+    @Autowired
+    private RedisLock redisLock;
+
+    /**
+     * 获取分布式锁后执行方法
+     */
+    @Around("@annotation(redisLocked)")
+    public Object around(ProceedingJoinPoint joinPoint, RedisLocked redisLocked) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        RedisLockKeyResolver resolver = resolvers.get(method);
+        if (resolver == null) {
+            resolver = resolvers.computeIfAbsent(method, m -> RedisLockKeyResolver.compile(m, redisLocked.key()));
+        }
+        String key = resolver.resolve(joinPoint.getTarget(), joinPoint.getArgs());
+
+        // 方法抛出的受检异常在释放锁后原样抛出
+        Throwable[] failure = new Throwable[1];
+        Supplier<Object> proceed = () -> {
+            try {
+                return joinPoint.proceed();
+            } catch (Throwable throwable) {
+                failure[0] = throwable;
+                return null;
+            }
+        };
+        Object result = redisLocked.leaseTime() > 0
+                ? redisLock.lockFenced(key, redisLocked.waitTime(), redisLocked.leaseTime(), redisLocked.timeUnit(), token -> proceed.get())
+                : redisLock.lock(key, redisLocked.waitTime(), redisLocked.timeUnit(), proceed);
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return result;
+    }
+
+}
@@ -1,17 +1,19 @@
 package haidnor.redisson.aop;
 
 import haidnor.redisson.annotation.RedisRateLimiter;
+import haidnor.redisson.metrics.RedisMetrics;
+import haidnor.redisson.util.LocalTokenBucket;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Before;
 import org.redisson.api.RRateLimiter;
 import org.redisson.api.RateIntervalUnit;
-import org.redisson.api.RateType;
 import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * redisson 限流器的切面
@@ -20,31 +22,77 @@ import java.util.concurrent.CopyOnWriteArraySet;
 @Aspect
 public class RedisRateLimiterAspect {
 
-    private final Set<String> rateLimiterSet = new CopyOnWriteArraySet<>();
+    private final Map<String/*rate limiter name*/, Limiter> limiters = new ConcurrentHashMap<>();
+
     @Autowired
     private RedissonClient redissonClient;
 
+    @Autowired(required = false)
+    private RedisMetrics metrics = RedisMetrics.NOOP;
+
     /**
-     * 在指定接口前进行限流
+     * 在指定接口前进行限流. 开启本地令牌桶 (localRatio) 时优先使用本地令牌, 不访问 Redis
      */
     @Before("@annotation(redisRateLimiter)")
     public void before(RedisRateLimiter redisRateLimiter) {
         String name = redisRateLimiter.name();
-        RateType mode = redisRateLimiter.mode();
+        Limiter limiter = limiters.get(name);
+        if (limiter == null) {
+            limiter = limiters.computeIfAbsent(name, k -> createLimiter(redisRateLimiter));
+        }
+        if (limiter.invalid != null) {
+            throw new IllegalArgumentException(limiter.invalid);
+        }
+        boolean tryAcquire = limiter.bucket != null ? limiter.bucket.tryAcquire() : limiter.rateLimiter.tryAcquire(1);
+        metrics.recordRateLimit(name, tryAcquire);
+        if (!tryAcquire) {
+            throw new RuntimeException("Access limit exception");
+        }
+    }
+
+    /**
+     * 第一次使用限流器时校验注解并设置速率, 结果按名称缓存. 注解参数非法时之后的调用直接失败, 不再访问 Redis
+     */
+    private Limiter createLimiter(RedisRateLimiter redisRateLimiter) {
+        double localRatio = redisRateLimiter.localRatio();
+        if (localRatio < 0 || localRatio > 1) {
+            return new Limiter(null, null, "the localRatio must be greater than 0 and not greater than 1 ! RateLimiter:" + redisRateLimiter.name());
+        }
         long rate = redisRateLimiter.rate();
         long rateInterval = redisRateLimiter.rateInterval();
         RateIntervalUnit rateIntervalUnit = redisRateLimiter.rateIntervalUnit();
 
-        RRateLimiter rateLimiter = redissonClient.getRateLimiter(name);
-        if (!rateLimiterSet.contains(name)) {
-            rateLimiter.setRate(mode, rate, rateInterval, rateIntervalUnit);
-            rateLimiterSet.add(name);
-        }
+        RRateLimiter rateLimiter = redissonClient.getRateLimiter(redisRateLimiter.name());
+        rateLimiter.setRate(redisRateLimiter.mode(), rate, rateInterval, rateIntervalUnit);
+        LocalTokenBucket bucket = localRatio > 0
+                ? new LocalTokenBucket(rateLimiter, rate, TimeUnit.MILLISECONDS.toNanos(rateIntervalUnit.toMillis(rateInterval)), localRatio)
+                : null;
+        return new Limiter(rateLimiter, bucket, null);
+    }
 
-        boolean tryAcquire = rateLimiter.tryAcquire(1);
-        if (!tryAcquire) {
-            throw new RuntimeException("Access limit exception");
+    /**
+     * 已解析的限流器
+     */
+    private static final class Limiter {
+
+        private final RRateLimiter rateLimiter;
+
+        /**
+         * 本地令牌桶, 未开启时为 null
+         */
+        private final LocalTokenBucket bucket;
+
+        /**
+         * 注解参数非法的原因, 合法时为 null
+         */
+        private final String invalid;
+
+        private Limiter(RRateLimiter rateLimiter, LocalTokenBucket bucket, String invalid) {
+            this.rateLimiter = rateLimiter;
+            this.bucket = bucket;
+            this.invalid = invalid;
         }
+
     }
 
-}
\ No newline at end of file
+}
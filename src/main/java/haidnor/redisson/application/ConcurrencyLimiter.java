@@ -0,0 +1,270 @@
+package haidnor.redisson.application;
+
+import haidnor.redisson.metrics.ConsumerMetrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个队列的并发消费许可.
+ * <p>
+ * 未开启自适应时等同于固定许可数量的公平信号量. 开启自适应后按 AIMD 调整许可数量: 每个采样窗口结束时,
+ * 窗口内出现过载异常 (超时等配置的异常类型) 或窗口平均耗时超过基准耗时的 tolerance 倍时许可数量乘以 backoff; 否则在存在积压
+ * (监听线程等待过许可且队列中仍有消息) 且线程池未饱和时许可数量加 1. 其它消费异常 (例如业务校验失败) 不视为过载.
+ * 基准耗时为历史窗口平均耗时的最小值, 每个窗口缓慢上浮以适应消费耗时的长期变化
+ */
+class ConcurrencyLimiter {
+
+    /**
+     * 每个采样窗口的最小样本数量
+     */
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    /**
+     * 采样窗口的最长时间(纳秒), 超过后即使样本不足也结束窗口
+     */
+    private static final long MAX_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 基准耗时每个窗口上浮的比例
+     */
+    private static final double BASELINE_DRIFT = 1.01;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    private final Condition available = lock.newCondition();
+
+    private final boolean adaptive;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double tolerance;
+
+    private final double backoff;
+
+    private final List<Class<? extends Throwable>> backoffExceptions;
+
+    private final ExecutorService executor;
+
+    private volatile int limit;
+
+    private int inFlight;
+
+    /**
+     * 采样队列积压的消息数量, 未采样时为 -1
+     */
+    private volatile long backlog = -1;
+
+    private boolean waited;
+
+    private int samples;
+
+    private long latencySum;
+
+    private boolean overloaded;
+
+    private long windowStart = System.nanoTime();
+
+    private double baseline = Double.MAX_VALUE;
+
+    private ConsumerMetrics metrics = ConsumerMetrics.NOOP;
+
+    /**
+     * 创建固定许可数量的并发许可
+     *
+     * @param limit 许可数量
+     */
+    ConcurrencyLimiter(int limit) {
+        this(limit, limit, limit, 1, 1, Collections.emptyList(), null, false);
+    }
+
+    /**
+     * 创建自适应的并发许可
+     *
+     * @param initialLimit 初始许可数量
+     * @param minLimit     最小许可数量
+     * @param maxLimit     最大许可数量
+     * @param tolerance    窗口平均耗时超过基准耗时的此倍数时减少许可
+     * @param backoff           减少许可时乘以的系数
+     * @param backoffExceptions 视为过载而减少许可的消费异常类型
+     * @param executor          消费线程池, 用于判断是否饱和, 可以为 null
+     */
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoff,
+                       Collection<Class<? extends Throwable>> backoffExceptions, ExecutorService executor) {
+        this(initialLimit, minLimit, maxLimit, tolerance, backoff, backoffExceptions, executor, true);
+    }
+
+    private ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoff,
+                               Collection<Class<? extends Throwable>> backoffExceptions, ExecutorService executor, boolean adaptive) {
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("the concurrency cannot be less than 1 !");
+        }
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("the max concurrency cannot be less than the min concurrency !");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.min(Math.max(initialLimit, minLimit), maxLimit);
+        this.tolerance = tolerance;
+        this.backoff = backoff;
+        this.backoffExceptions = List.copyOf(backoffExceptions);
+        this.executor = executor;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * 获取一个许可, 没有可用许可时阻塞
+     */
+    void acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit) {
+                waited = true;
+                available.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        metrics.recordPermitWait(System.nanoTime() - start);
+    }
+
+    /**
+     * 归还未用于消费消息的许可, 不计入采样
+     */
+    void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 消息消费完成后归还许可并记录一个样本
+     *
+     * @param startNanos 消息提交到线程池时的 System.nanoTime()
+     * @param failure    消费异常, 消费成功时为 null
+     */
+    void release(long startNanos, Throwable failure) {
+        if (!adaptive) {
+            release();
+            return;
+        }
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            inFlight--;
+            samples++;
+            latencySum += now - startNanos;
+            overloaded |= failure != null && isOverload(failure);
+            if (samples >= Math.max(MIN_WINDOW_SAMPLES, limit) || now - windowStart >= MAX_WINDOW_NANOS) {
+                adjust(now);
+            }
+            if (inFlight < limit) {
+                available.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 更新采样的队列积压数量
+     */
+    void setBacklog(long backlog) {
+        this.backlog = backlog;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 队列的消费指标, 在注册监听器时设置
+     */
+    ConsumerMetrics getMetrics() {
+        return metrics;
+    }
+
+    void setMetrics(ConsumerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    private void adjust(long now) {
+        double average = (double) latencySum / samples;
+        baseline = Math.min(baseline * BASELINE_DRIFT, average);
+        limit = nextLimit(limit, overloaded || average > baseline * tolerance, waited && backlog != 0 && !isExecutorSaturated());
+        samples = 0;
+        latencySum = 0;
+        overloaded = false;
+        waited = false;
+        windowStart = now;
+    }
+
+    /**
+     * AIMD 计算下一个窗口的许可数量: 过载时乘以 backoff, 否则需要扩容时加 1, 结果不超出 [minLimit, maxLimit]
+     *
+     * @param current    当前许可数量
+     * @param overloaded 窗口内是否出现过载
+     * @param grow       是否存在积压且线程池未饱和
+     */
+    int nextLimit(int current, boolean overloaded, boolean grow) {
+        if (overloaded) {
+            return Math.max(minLimit, (int) (current * backoff));
+        }
+        if (grow) {
+            return Math.min(maxLimit, current + 1);
+        }
+        return current;
+    }
+
+    /**
+     * 消费异常或其 cause 属于 backoffExceptions 时视为过载
+     */
+    boolean isOverload(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            for (Class<? extends Throwable> type : backoffExceptions) {
+                if (type.isInstance(cause)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 线程池所有线程均在执行任务且有任务排队时视为饱和, 此时增加许可只会增加排队时间
+     */
+    private boolean isExecutorSaturated() {
+        if (executor instanceof ThreadPoolExecutor threadPoolExecutor) {
+            return threadPoolExecutor.getActiveCount() >= threadPoolExecutor.getMaximumPoolSize() && !threadPoolExecutor.getQueue().isEmpty();
+        }
+        return false;
+    }
+
+}
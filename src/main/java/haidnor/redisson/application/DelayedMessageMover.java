@@ -0,0 +1,251 @@
+package haidnor.redisson.application;
+
+import haidnor.redisson.core.RedisDelayedMessageStore;
+import org.redisson.api.RDelayedQueue;
+import org.redisson.api.RScript;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 延迟消息转移者.
+ * <p>
+ * 同一队列的所有节点通过 SET NX PX 租约选举出唯一的转移者, 只有转移者执行到期消息的转移, 避免每个监听线程各自轮询同一个 ZSET.
+ * 转移者每次转移后按脚本返回的下一条消息剩余延迟时间设置唤醒任务, 收到新消息成为最早到期消息的通知时提前唤醒.
+ * 只有持有租约期间才订阅唤醒通知. 租约续约时也会执行一次转移, 作为丢失 Pub/Sub 通知时的兜底.
+ * <p>
+ * 所有队列的转移者共享监听器的转移线程池, 与可靠队列租约续约等其它后台任务隔离, 不为每个队列单独创建线程. 转移者的状态只在持有对象锁时读写.
+ * 每次转移只执行一批, 还有到期消息时重新提交转移任务, 批次之间释放线程与对象锁, 租约续约与其它队列的转移不会被长时间阻塞
+ * <p>
+ * 成为转移者时若存在旧版本 RDelayedQueue 写入的延迟消息, 同时开启 Redisson 转移任务直至旧消息全部转移完成
+ */
+class DelayedMessageMover {
+
+    private static final Logger log = LoggerFactory.getLogger(DelayedMessageMover.class);
+
+    /**
+     * 转移者租约时间(毫秒)
+     */
+    private static final long LEASE_TIME = 9000;
+
+    /**
+     * 租约续约间隔(毫秒)
+     */
+    private static final long RENEW_INTERVAL = LEASE_TIME / 3;
+
+    /**
+     * 单次 Lua 脚本转移的最大消息数量
+     */
+    static final int MOVE_BATCH = 1000;
+
+    private static final String ACQUIRE_SCRIPT =
+            "if redis.call('set', KEYS[1], ARGV[1], 'nx', 'px', ARGV[2]) then return 1; end; " +
+            "if redis.call('get', KEYS[1]) == ARGV[1] then redis.call('pexpire', KEYS[1], ARGV[2]); return 1; end; " +
+            "return 0;";
+
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]); end; " +
+            "return 0;";
+
+    private final RedissonClient redisson;
+
+    private final RedisDelayedMessageStore store;
+
+    private final String destination;
+
+    private final String moverId = UUID.randomUUID().toString();
+
+    private final ScheduledExecutorService scheduler;
+
+    private final RTopic topic;
+
+    /**
+     * 唤醒通知的订阅 id, 未订阅时为 -1
+     */
+    private int listenerId = -1;
+
+    private volatile boolean leader;
+
+    private boolean stopped;
+
+    private ScheduledFuture<?> renewTask;
+
+    /**
+     * 下一次唤醒任务及其触发时间
+     */
+    private ScheduledFuture<?> wakeUp;
+
+    private long wakeUpAt = Long.MAX_VALUE;
+
+    /**
+     * 上一批转移已满, 已提交继续转移的任务
+     */
+    private boolean draining;
+
+    /**
+     * 旧版本 RDelayedQueue 的转移任务, 没有旧消息时为 null
+     */
+    private RDelayedQueue<Object> legacyQueue;
+
+    /**
+     * @param redisson    Redisson 客户端
+     * @param store       延迟消息存储
+     * @param destination 修饰后的队列名称
+     * @param scheduler   执行租约续约, 唤醒与转移任务的调度线程池, 由所有队列的转移者共享
+     */
+    DelayedMessageMover(RedissonClient redisson, RedisDelayedMessageStore store, String destination, ScheduledExecutorService scheduler) {
+        this.redisson = redisson;
+        this.store = store;
+        this.destination = destination;
+        this.scheduler = scheduler;
+        this.topic = redisson.getTopic(RedisDelayedMessageStore.channel(destination), StringCodec.INSTANCE);
+    }
+
+    /**
+     * 开始参与转移者选举
+     */
+    synchronized void start() {
+        renewTask = scheduler.scheduleWithFixedDelay(this::renewLease, 0, RENEW_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止转移并释放租约, 由其它节点接替
+     */
+    synchronized void shutdown() {
+        stopped = true;
+        if (renewTask != null) {
+            renewTask.cancel(false);
+        }
+        cancelWakeUp();
+        unsubscribe();
+        if (legacyQueue != null) {
+            legacyQueue.destroy();
+            legacyQueue = null;
+        }
+        if (leader) {
+            leader = false;
+            redisson.getScript(StringCodec.INSTANCE).eval(destination, RScript.Mode.READ_WRITE, RELEASE_SCRIPT, RScript.ReturnType.INTEGER,
+                    Collections.singletonList(RedisDelayedMessageStore.moverKey(destination)), moverId);
+        }
+    }
+
+    private synchronized void renewLease() {
+        if (stopped) {
+            return;
+        }
+        try {
+            Boolean acquired = redisson.getScript(StringCodec.INSTANCE).eval(destination, RScript.Mode.READ_WRITE, ACQUIRE_SCRIPT, RScript.ReturnType.BOOLEAN,
+                    Collections.singletonList(RedisDelayedMessageStore.moverKey(destination)), moverId, String.valueOf(LEASE_TIME));
+            boolean wasLeader = leader;
+            leader = Boolean.TRUE.equals(acquired);
+            if (leader && !wasLeader) {
+                log.info("Become redis delayed message mover. Destination:{}", destination);
+            }
+            if (!leader && wasLeader) {
+                log.info("Lose redis delayed message mover lease. Destination:{}", destination);
+                cancelWakeUp();
+            }
+            if (leader) {
+                subscribe();
+            } else {
+                unsubscribe();
+            }
+            transferLegacyMessages();
+            if (leader && !draining) {
+                move();
+            }
+        } catch (Exception exception) {
+            log.error("Renew redis delayed message mover lease exception. Destination:{}", destination, exception);
+        }
+    }
+
+    /**
+     * 订阅新消息成为最早到期消息的通知, 已订阅时不做处理
+     */
+    private void subscribe() {
+        if (listenerId == -1) {
+            listenerId = topic.addListener(String.class, (channel, delay) -> scheduler.execute(() -> onNotify(Long.parseLong(delay))));
+        }
+    }
+
+    private void unsubscribe() {
+        if (listenerId != -1) {
+            topic.removeListener(listenerId);
+            listenerId = -1;
+        }
+    }
+
+    private synchronized void onNotify(long delay) {
+        if (leader && !stopped && !draining) {
+            scheduleWakeUp(delay);
+        }
+    }
+
+    /**
+     * 转移一批到期消息. 本批已满时重新提交转移任务继续转移, 否则按下一条消息的剩余延迟时间设置唤醒任务.
+     * 转移失败时清除唤醒时间, 不影响之后的通知设置唤醒任务
+     */
+    private synchronized void move() {
+        draining = false;
+        if (!leader || stopped) {
+            return;
+        }
+        try {
+            long[] result = store.move(destination, MOVE_BATCH);
+            cancelWakeUp();
+            if (result[0] == MOVE_BATCH) {
+                draining = true;
+                scheduler.execute(this::move);
+            } else if (result[1] >= 0) {
+                scheduleWakeUp(result[1]);
+            }
+        } catch (Exception exception) {
+            cancelWakeUp();
+            log.error("Move redis delayed message exception. Destination:{}", destination, exception);
+        }
+    }
+
+    /**
+     * 设置唤醒任务, 只有比已有唤醒任务更早时才替换
+     */
+    private void scheduleWakeUp(long delay) {
+        long at = System.currentTimeMillis() + delay;
+        if (at >= wakeUpAt) {
+            return;
+        }
+        cancelWakeUp();
+        wakeUpAt = at;
+        wakeUp = scheduler.schedule(this::move, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelWakeUp() {
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+        }
+        wakeUpAt = Long.MAX_VALUE;
+    }
+
+    /**
+     * 转移旧版本 RDelayedQueue 写入的延迟消息, 只由转移者执行
+     */
+    private void transferLegacyMessages() {
+        if (leader && legacyQueue == null && redisson.getKeys().countExists("redisson_delay_queue_timeout:{" + destination + "}") > 0) {
+            legacyQueue = redisson.getDelayedQueue(redisson.getBlockingQueue(destination, ByteArrayCodec.INSTANCE));
+            log.info("Transfer legacy redisson delayed messages. Destination:{}", destination);
+        } else if (legacyQueue != null && (!leader || legacyQueue.size() == 0)) {
+            legacyQueue.destroy();
+            legacyQueue = null;
+        }
+    }
+
+}
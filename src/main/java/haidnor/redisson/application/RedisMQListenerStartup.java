@@ -3,46 +3,180 @@ package haidnor.redisson.application;
 import haidnor.redisson.annotation.RedisDMQHandler;
 import haidnor.redisson.annotation.RedisMQListener;
 import haidnor.redisson.annotation.RedisMQHandler;
+import haidnor.redisson.config.RedisMQProperties;
+import haidnor.redisson.core.RedisDelayedMessageStore;
+import haidnor.redisson.core.RedisMQContext;
+import haidnor.redisson.core.RedisMQEnvelope;
+import haidnor.redisson.metrics.ConsumerMetrics;
+import haidnor.redisson.metrics.RedisMetrics;
 import haidnor.redisson.util.DefaultRedisMQExecutorService;
+import haidnor.redisson.util.HandlerInvokers;
 import haidnor.redisson.util.QueueUtil;
-import org.redisson.api.RBlockingQueue;
+import haidnor.redisson.util.RedisMQCodecResolver;
+import haidnor.redisson.util.RedisMQEnvelopeCodec;
+import haidnor.redisson.util.RedisMQPartitions;
+import haidnor.redisson.util.VirtualThreads;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBlockingDeque;
+import org.redisson.api.RFuture;
 import org.redisson.api.RedissonClient;
-import org.redisson.codec.JsonJacksonCodec;
+import org.redisson.api.StreamMessageId;
+import org.redisson.client.RedisException;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.handler.State;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.ApplicationArguments;
-import org.springframework.boot.ApplicationRunner;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.ResolvableType;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.stereotype.Component;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.concurrent.Semaphore;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
- * Redis 消息队列监听器自动注册
+ * Redis 消息队列监听器自动注册.
+ * <p>
+ * 监听器随 Spring 容器启动与停止. 停止时监听线程不再获取新消息, 并在 redisson.mq.shutdown-timeout 内等待已开始消费的消息消费完成;
+ * 已取出但尚未开始消费的消息放回队列头部 (可靠队列与 Stream 传输的消息仍由 Redis 保留, 不会丢失)
  */
 @Component
-public class RedisMQListenerStartup implements ApplicationRunner {
+public class RedisMQListenerStartup implements SmartLifecycle {
 
     private static final Logger log = LoggerFactory.getLogger(RedisMQListenerStartup.class);
 
+    /**
+     * 批量消费模式下凑批轮询的间隔时间(毫秒)
+     */
+    private static final long BATCH_POLL_INTERVAL = 5;
+
+    /**
+     * 监听线程单次阻塞获取消息的最长时间(秒), 停止监听器时监听线程最迟在此时间后退出
+     */
+    private static final long POLL_TIMEOUT = 1;
+
+    /**
+     * 停止监听器时检查消费任务是否执行完成的间隔(毫秒)
+     */
+    private static final long DRAIN_CHECK_INTERVAL = 10;
+
+    /**
+     * 读取 Redis Stream 失败后的重试间隔(毫秒)
+     */
+    private static final long STREAM_READ_RETRY_INTERVAL = 1000;
+
+    /**
+     * 自适应并发模式下采样队列积压消息数量的间隔(毫秒)
+     */
+    private static final long BACKLOG_SAMPLE_INTERVAL = 1000;
+
+    /**
+     * 消费者默认线程池 bean 名称
+     */
+    private static final String DEFAULT_EXECUTOR_SERVICE = "defaultRedisMQExecutorService";
+
     @Autowired
     private ApplicationContext applicationContext;
 
     @Autowired
     private RedissonClient redisson;
 
+    @Autowired
+    private RedisMQProperties properties;
+
+    @Autowired
+    private RedisMQCodecResolver codecResolver;
+
+    @Autowired
+    private RedisDelayedMessageStore delayedMessageStore;
+
+    @Autowired(required = false)
+    private RedisMetrics metrics = RedisMetrics.NOOP;
+
+    /**
+     * 延迟消息转移者, 每个延迟队列一个
+     */
+    private final Map<String/*destination*/, DelayedMessageMover> movers = new ConcurrentHashMap<>();
+
+    /**
+     * 监听器线程工厂. 虚拟线程模式下创建虚拟线程, 否则创建平台线程
+     */
+    private ThreadFactory listenerThreadFactory = Thread::new;
+
+    /**
+     * 虚拟线程模式下替换默认线程池的虚拟线程池, 未开启时为 null
+     */
+    private ExecutorService virtualThreadExecutor;
+
+    /**
+     * 执行可靠队列租约续约, 批量确认, Stream 待确认消息认领, 积压采样等后台任务的调度线程池
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 执行延迟消息转移的调度线程池, 与其它后台任务隔离
+     */
+    private ScheduledExecutorService moverScheduler;
+
+    private final List<Thread> listeners = new CopyOnWriteArrayList<>();
+
+    private final List<ReliableMessageQueue> reliableQueues = new CopyOnWriteArrayList<>();
+
+    private final List<StreamMessageQueue> streamQueues = new CopyOnWriteArrayList<>();
+
+    private final List<ScheduledFuture<?>> backlogSamplers = new CopyOnWriteArrayList<>();
+
+    /**
+     * 已提交到线程池尚未执行结束的消费任务数量
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile boolean running;
 
     /**
      * 扫描 RedisMSConfiguration 注解标记的 Bean 类, 发现 RedisDMSListener, RedisMSListener 注解标记的方法, 并将其注册为 Redis MQ 监听器
      */
     @Override
-    public void run(ApplicationArguments applicationArguments) {
+    public void start() {
+        running = true;
+        if (scheduler == null) {
+            if (properties.getSchedulerThreads() < 1 || properties.getMoverThreads() < 1) {
+                throw new IllegalArgumentException("the schedulerThreads and moverThreads cannot be less than 1 !");
+            }
+            scheduler = newScheduler(properties.getSchedulerThreads(), "RedisMQScheduler-");
+            moverScheduler = newScheduler(properties.getMoverThreads(), "RedisMQMover-");
+        }
+        if (properties.getVirtualThreads().isEnabled()) {
+            if (VirtualThreads.isSupported()) {
+                listenerThreadFactory = VirtualThreads.factory("RedisMQListener-");
+                virtualThreadExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor("RedisMQVirtualWorker-");
+                log.info("RedisMQ listeners run on virtual threads");
+            } else {
+                log.warn("Virtual threads are not supported by the current JVM, RedisMQ listeners fall back to platform threads");
+            }
+        }
         String[] beanNames = applicationContext.getBeanNamesForAnnotation(RedisMQListener.class);
         for (String beanName : beanNames) {
             Object bean = applicationContext.getBean(beanName);
@@ -52,129 +186,746 @@ public class RedisMQListenerStartup implements ApplicationRunner {
                 // 注册延迟队列监听器 (使用 AnnotationUtils.findAnnotation(Method method, Class<A> annotationType) 是为了避免 cglib 代理后无法从方法上获取自定义注解)
                 RedisDMQHandler dmsAnnotation = AnnotationUtils.findAnnotation(method, RedisDMQHandler.class);
                 if (dmsAnnotation != null) {
-                    startDelayedMessageQueueListener(dmsAnnotation.destination(), dmsAnnotation.listenerNum(), dmsAnnotation.executorService(), msg -> {
-                        try {
-                            method.invoke(bean, msg);
-                        } catch (IllegalAccessException | InvocationTargetException exception) {
-                            log.error("Redis message queue listener invoke consumer method error", exception);
-                        }
-                    });
+                    Codec codec = codecResolver.resolve(dmsAnnotation.destination(), dmsAnnotation.codec(), getMessageType(method, false));
+                    RetryPolicy retry = createRetryPolicy(QueueUtil.modifyQueueName(dmsAnnotation.destination()), codec, dmsAnnotation.maxAttempts(),
+                            dmsAnnotation.retryBackoff(), dmsAnnotation.retryMultiplier(), dmsAnnotation.maxRetryBackoff(), dmsAnnotation.deadLetter());
+                    startDelayedMessageQueueListener(dmsAnnotation.destination(), dmsAnnotation.listenerNum(), dmsAnnotation.executorService(), dmsAnnotation.concurrency(), codec, retry, HandlerInvokers.create(bean, method));
                     log.info("Register redis delayed message queue listener. Class:{} Method:{} Destination:{}", clazz.getName(), method.getName(), QueueUtil.modifyQueueName(dmsAnnotation.destination()));
                 }
                 // 注册普通消息队列监听器
                 RedisMQHandler msAnnotation = AnnotationUtils.findAnnotation(method, RedisMQHandler.class);
                 if (msAnnotation != null) {
-                    startMessageQueueListener(msAnnotation.destination(), msAnnotation.listenerNum(), msAnnotation.executorService(), msg -> {
-                        try {
-                            method.invoke(bean, msg);
-                        } catch (IllegalAccessException | InvocationTargetException exception) {
-                            log.error("RedisMQ listener invoke consumer method error", exception);
-                        }
-                    });
+                    boolean batchConsume = msAnnotation.batchSize() > 1 && method.getParameterCount() == 1 && List.class.isAssignableFrom(method.getParameterTypes()[0]);
+                    Codec codec = codecResolver.resolve(msAnnotation.destination(), msAnnotation.codec(), getMessageType(method, batchConsume));
+                    startMessageQueueListeners(msAnnotation, codec, batchConsume, HandlerInvokers.create(bean, method));
                     log.info("Register redis message queue listener. Class:{} Method:{} Destination:{}", clazz.getName(), method.getName(), QueueUtil.modifyQueueName(msAnnotation.destination()));
                 }
             }
         }
     }
 
+    /**
+     * 停止监听器: 监听线程最迟在 {@value #POLL_TIMEOUT} 秒后退出阻塞获取, 之后在 shutdown-timeout 内等待消费任务执行完成,
+     * 超时后中断仍在等待许可的监听线程. 最后停止延迟消息转移者与可靠队列, Stream 队列的后台任务
+     */
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        long deadline = System.currentTimeMillis() + properties.getShutdownTimeout();
+        try {
+            for (Thread listener : listeners) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining > 0) {
+                    listener.join(remaining);
+                }
+            }
+            while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(DRAIN_CHECK_INTERVAL);
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        if (inFlight.get() > 0) {
+            log.warn("RedisMQ listeners stopped with {} messages still being consumed", inFlight.get());
+        }
+        listeners.forEach(Thread::interrupt);
+        listeners.clear();
+        backlogSamplers.forEach(sampler -> sampler.cancel(false));
+        backlogSamplers.clear();
+        movers.values().forEach(DelayedMessageMover::shutdown);
+        movers.clear();
+        reliableQueues.forEach(ReliableMessageQueue::shutdown);
+        reliableQueues.clear();
+        streamQueues.forEach(StreamMessageQueue::shutdown);
+        streamQueues.clear();
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+            virtualThreadExecutor = null;
+        }
+        log.info("RedisMQ listeners stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 获取监听方法的消息类型, 在注册时解析一次供 typed-json 编解码器直接反序列化
+     *
+     * @param method       监听方法
+     * @param batchConsume 是否批量消费, 批量消费时消息类型为 List 参数的元素类型
+     */
+    private Type getMessageType(Method method, boolean batchConsume) {
+        if (method.getParameterCount() != 1) {
+            return Object.class;
+        }
+        ResolvableType parameterType = ResolvableType.forMethodParameter(method, 0);
+        if (batchConsume) {
+            parameterType = parameterType.asCollection().getGeneric(0);
+        }
+        return parameterType.getType();
+    }
+
     /**
      * 开启延迟队列监听器
      *
      * @param queueName       队列名称
      * @param listenerNum     监听器线程数
      * @param executorService 处理消息的线程池 bean 名称
+     * @param concurrency     最大并发消费数
+     * @param codec           消息编解码器
+     * @param retry           消费失败的重试策略
      * @param consumer        消费接口
      */
-    private <T> void startDelayedMessageQueueListener(String queueName, int listenerNum, String executorService, Consumer<T> consumer) {
+    private void startDelayedMessageQueueListener(String queueName, int listenerNum, String executorService, int concurrency, Codec codec, RetryPolicy retry, Consumer<Object> consumer) {
         String destination = QueueUtil.modifyQueueName(queueName);
         if (listenerNum < 1) {
             throw new IllegalArgumentException("the concurrency cannot be less than 1 !");
         }
-        ThreadPoolExecutor executor = getExecutorService(executorService);
-        Semaphore semaphore = new Semaphore(executor.getCorePoolSize());
+        RedisDelayedMessageStore.checkDestination(destination);
+        ExecutorService executor = getExecutorService(executorService);
+        ConcurrencyLimiter limiter = createLimiter(queueName, getConcurrency(concurrency, executor), executor);
+        Consumer<Object> handler = unwrap(consumer, limiter.getMetrics(), false);
+        sampleBacklog(limiter, Collections.singletonList(destination));
+        startMover(destination);
 
         for (int i = 0; i < listenerNum; i++) {
-            Thread listener = new Thread(() -> {
-                RBlockingQueue<T> blockingFairQueue = redisson.getBlockingQueue(destination, JsonJacksonCodec.INSTANCE);
-                redisson.getDelayedQueue(blockingFairQueue);
-                while (!Thread.currentThread().isInterrupted()) {
-                    try {
-                        semaphore.acquire();
-                        T msg = blockingFairQueue.take();
-                        executor.execute(() -> {
-                            try {
-                                consumer.accept(msg);
-                            } catch (Exception exception) {
-                                log.error("consume delayed queue exception", exception);
-                            } finally {
-                                semaphore.release();
-                            }
-                        });
-                    } catch (InterruptedException exception) {
-                        log.error("consume delayed queue exception", exception);
+            startListener("RedisDelayedMessageQueueListener_" + destination + "_" + i, () -> {
+                RBlockingDeque<Object> blockingFairQueue = redisson.getBlockingDeque(destination, codec);
+                while (running) {
+                    limiter.acquire();
+                    Object msg = blockingFairQueue.poll(POLL_TIMEOUT, TimeUnit.SECONDS);
+                    if (msg == null) {
+                        limiter.release();
+                        continue;
                     }
+                    execute(executor, limiter, handler, retry, msg, false, () -> blockingFairQueue.addFirst(msg));
                 }
             });
-            listener.setName("RedisDelayedMessageQueueListener_" + destination + "_" + i);
-            listener.start();
         }
     }
 
 
     /**
-     * 开启队列监听器
+     * 开启普通消息队列监听器. 队列分区时为每个分区开启监听器, 所有分区共享线程池与公平的并发许可, 按获取许可的先后顺序轮流消费
      *
-     * @param queueName       队列名称
-     * @param listenerNum     监听器线程数
-     * @param executorService 处理消息的线程池 bean 名称
-     * @param consumer        消费接口
+     * @param annotation   监听器注解
+     * @param codec        消息编解码器
+     * @param batchConsume 是否将整批消息以 List 形式投递给消费接口
+     * @param consumer     消费接口
      */
-    private <T> void startMessageQueueListener(String queueName, int listenerNum, String executorService, Consumer<T> consumer) {
-        String destination = QueueUtil.modifyQueueName(queueName);
-        if (listenerNum < 1) {
+    private void startMessageQueueListeners(RedisMQHandler annotation, Codec codec, boolean batchConsume, Consumer<Object> consumer) {
+        if (annotation.listenerNum() < 1) {
             throw new IllegalArgumentException("the concurrency cannot be less than 1 !");
         }
-        ThreadPoolExecutor executor = getExecutorService(executorService);
-        Semaphore semaphore = new Semaphore(executor.getCorePoolSize());
+        if (annotation.batchSize() < 1) {
+            throw new IllegalArgumentException("the batchSize cannot be less than 1 !");
+        }
+        String queueName = annotation.destination();
+        List<String> partitions = RedisMQPartitions.keys(QueueUtil.modifyQueueName(queueName), properties.getPartitions(queueName));
+        ExecutorService executor = getExecutorService(annotation.executorService());
+        ConcurrencyLimiter limiter = createLimiter(queueName, getConcurrency(annotation.concurrency(), executor), executor);
+        Consumer<Object> handler = unwrap(consumer, limiter.getMetrics(), batchConsume);
+        RedisMQProperties.Stream stream = properties.findStream(queueName);
+        if (stream == null) {
+            sampleBacklog(limiter, partitions);
+        }
+        if (stream != null && annotation.maxAttempts() > 1) {
+            log.warn("Redis stream transport does not support retry backoff, failed messages are claimed after claimIdle until maxAttempts deliveries. Destination:{}", queueName);
+        }
+        for (String destination : partitions) {
+            if (stream != null) {
+                startStreamMessageQueueListener(annotation, destination, executor, limiter, stream, codec, batchConsume, handler);
+                continue;
+            }
+            RetryPolicy retry = createRetryPolicy(destination, codec, annotation.maxAttempts(), annotation.retryBackoff(),
+                    annotation.retryMultiplier(), annotation.maxRetryBackoff(), annotation.deadLetter());
+            if (retry.isRetryEnabled()) {
+                startMover(destination);
+            }
+            if (annotation.reliable()) {
+                startReliableMessageQueueListener(annotation, destination, executor, limiter, codec, batchConsume, retry, handler);
+            } else {
+                startMessageQueueListener(annotation, destination, executor, limiter, codec, batchConsume, retry, handler);
+            }
+        }
+    }
 
-        for (int i = 0; i < listenerNum; i++) {
-            Thread listener = new Thread(() -> {
-                RBlockingQueue<T> blockingFairQueue = redisson.getBlockingQueue(destination, JsonJacksonCodec.INSTANCE);
+    /**
+     * 包装消费接口: 拆开消息信封, 记录消息从可消费到开始消费的延迟, 并在信封的上下文 (RedisMQContext, MDC traceId) 中执行消费接口.
+     * 批量消费时逐条拆开信封, 不设置消费上下文
+     *
+     * @param consumer     消费接口
+     * @param metrics      队列的消费指标
+     * @param batchConsume 是否将整批消息以 List 形式投递给消费接口
+     */
+    private Consumer<Object> unwrap(Consumer<Object> consumer, ConsumerMetrics metrics, boolean batchConsume) {
+        if (batchConsume) {
+            return msgs -> {
+                List<?> batch = (List<?>) msgs;
+                List<Object> bodies = new ArrayList<>(batch.size());
+                for (Object msg : batch) {
+                    if (msg instanceof RedisMQEnvelope envelope) {
+                        metrics.recordLag(System.currentTimeMillis() - envelope.getTimestamp());
+                        bodies.add(envelope.getBody());
+                    } else {
+                        bodies.add(msg);
+                    }
+                }
+                consumer.accept(bodies);
+            };
+        }
+        return msg -> {
+            if (msg instanceof RedisMQEnvelope envelope) {
+                metrics.recordLag(System.currentTimeMillis() - envelope.getTimestamp());
+                RedisMQContext.run(envelope, () -> consumer.accept(envelope.getBody()));
+            } else {
+                consumer.accept(msg);
+            }
+        };
+    }
+
+    /**
+     * 开启队列监听器
+     *
+     * @param annotation   监听器注解
+     * @param destination  队列 (分区) 的 Redis key
+     * @param executor     处理消息的线程池
+     * @param limiter      并发消费许可
+     * @param codec        消息编解码器
+     * @param batchConsume 是否将整批消息以 List 形式投递给消费接口
+     * @param retry        消费失败的重试策略
+     * @param consumer     消费接口
+     */
+    private void startMessageQueueListener(RedisMQHandler annotation, String destination, ExecutorService executor, ConcurrencyLimiter limiter, Codec codec, boolean batchConsume, RetryPolicy retry, Consumer<Object> consumer) {
+        int batchSize = annotation.batchSize();
+        long maxWait = annotation.maxWait();
+
+        for (int i = 0; i < annotation.listenerNum(); i++) {
+            startListener("RedissonMessageQueueListener_" + destination + "_" + i, () -> {
+                RBlockingDeque<Object> blockingFairQueue = redisson.getBlockingDeque(destination, codec);
+
+                while (running) {
+                    limiter.acquire();
+                    Object task = blockingFairQueue.poll(POLL_TIMEOUT, TimeUnit.SECONDS);
+                    if (task == null) {
+                        limiter.release();
+                        continue;
+                    }
+                    if (batchSize == 1) {
+                        execute(executor, limiter, consumer, retry, task, false, () -> blockingFairQueue.addFirst(task));
+                        continue;
+                    }
+                    List<Object> batch = drainBatch(task, batchSize, maxWait, blockingFairQueue::drainTo);
+                    if (batchConsume) {
+                        execute(executor, limiter, consumer, retry, batch, true, () -> requeueFirst(blockingFairQueue, batch));
+                        continue;
+                    }
+                    executeEach(limiter, batch, msg -> execute(executor, limiter, consumer, retry, msg, false, () -> blockingFairQueue.addFirst(msg)),
+                            remaining -> requeueFirst(blockingFairQueue, remaining));
+                }
+            });
+        }
+    }
+
+    /**
+     * 开启可靠队列监听器. 消息消费成功后才从 Redis 中确认移除, 消费失败或消费者崩溃时消息重新入队.
+     * 开启重试或配置死信队列时, 消费失败的消息写入延迟消息存储或死信队列后确认移除
+     *
+     * @param annotation   监听器注解
+     * @param destination  队列 (分区) 的 Redis key
+     * @param executor     处理消息的线程池
+     * @param limiter      并发消费许可
+     * @param codec        消息编解码器
+     * @param batchConsume 是否将整批消息以 List 形式投递给消费接口
+     * @param retry        消费失败的重试策略
+     * @param consumer     消费接口
+     */
+    private void startReliableMessageQueueListener(RedisMQHandler annotation, String destination, ExecutorService executor, ConcurrencyLimiter limiter, Codec codec, boolean batchConsume, RetryPolicy retry, Consumer<Object> consumer) {
+        if (annotation.maxRequeues() < 0) {
+            throw new IllegalArgumentException("the maxRequeues cannot be less than 0 !");
+        }
+        int batchSize = annotation.batchSize();
+        long maxWait = annotation.maxWait();
+        int maxRequeues = annotation.maxRequeues();
+        if (!(codec instanceof RedisMQEnvelopeCodec) && maxRequeues > 0) {
+            log.warn("Redis reliable queue maxRequeues requires the message envelope, failed messages are requeued without limit. Destination:{}", destination);
+        }
+        ReliableMessageQueue reliableQueue = new ReliableMessageQueue(redisson, destination, annotation.visibilityTimeout(), scheduler);
+        reliableQueue.start();
+        reliableQueues.add(reliableQueue);
+
+        for (int i = 0; i < annotation.listenerNum(); i++) {
+            startListener("RedisReliableMessageQueueListener_" + destination + "_" + i, () -> {
+                while (running) {
+                    limiter.acquire();
+                    byte[] payload = reliableQueue.take();
+                    if (payload == null) {
+                        limiter.release();
+                        continue;
+                    }
+                    if (batchSize == 1) {
+                        executeReliable(executor, limiter, consumer, retry, codec, reliableQueue, maxRequeues, payload);
+                        continue;
+                    }
+                    List<byte[]> batch = drainBatch(payload, batchSize, maxWait, (list, limit) -> list.addAll(reliableQueue.poll(limit)));
+                    if (batchConsume) {
+                        executeAcknowledged(executor, limiter, consumer, retry, codec, batch, () -> reliableQueue.ack(batch),
+                                () -> batch.forEach(msg -> requeueReliable(reliableQueue, codec, maxRequeues, msg)));
+                        continue;
+                    }
+                    // 未提交的消息仍在处理中列表, 停止可靠队列时放回队列头部
+                    executeEach(limiter, batch, msg -> executeReliable(executor, limiter, consumer, retry, codec, reliableQueue, maxRequeues, msg), null);
+                }
+            });
+        }
+    }
 
-                while (!Thread.currentThread().isInterrupted()) {
+    /**
+     * 开启 Redis Stream 消费者组监听器. 消费成功后批量确认, 消费失败的消息在 claimIdle 后重新消费, 投递次数达到上限后转入死信队列
+     *
+     * @param annotation   监听器注解
+     * @param destination  队列 (分区) 的 Redis key
+     * @param executor     处理消息的线程池
+     * @param limiter      并发消费许可
+     * @param config       Stream 配置
+     * @param codec        消息编解码器
+     * @param batchConsume 是否将整批消息以 List 形式投递给消费接口
+     * @param consumer     消费接口
+     */
+    private void startStreamMessageQueueListener(RedisMQHandler annotation, String destination, ExecutorService executor, ConcurrencyLimiter limiter, RedisMQProperties.Stream config, Codec codec, boolean batchConsume, Consumer<Object> consumer) {
+        if (config.getReadCount() < 1) {
+            throw new IllegalArgumentException("the stream readCount cannot be less than 1 !");
+        }
+        int readCount = annotation.batchSize() > 1 ? annotation.batchSize() : config.getReadCount();
+        int maxDeliveries = annotation.maxAttempts() > 1 ? annotation.maxAttempts() : config.getMaxDeliveries();
+        String deadLetter = annotation.deadLetter().isEmpty() ? null : QueueUtil.modifyQueueName(annotation.deadLetter());
+        StreamMessageQueue streamQueue = new StreamMessageQueue(redisson, destination, config, maxDeliveries, deadLetter, scheduler);
+        streamQueue.start();
+        streamQueues.add(streamQueue);
+
+        for (int i = 0; i < annotation.listenerNum(); i++) {
+            startListener("RedisStreamMessageQueueListener_" + destination + "_" + i, () -> {
+                while (running) {
+                    limiter.acquire();
+                    Map<StreamMessageId, byte[]> messages;
                     try {
-                        semaphore.acquire();
-                        T task = blockingFairQueue.take();
-                        executor.execute(() -> {
-                            try {
-                                consumer.accept(task);
-                            } catch (Exception exception) {
-                                log.error("consume queue exception", exception);
-                            } finally {
-                                semaphore.release();
-                            }
-                        });
-                    } catch (InterruptedException exception) {
-                        log.error("consume queue exception", exception);
+                        messages = streamQueue.read(readCount);
+                    } catch (RedisException exception) {
+                        log.error("read stream queue exception. Destination:{}", destination, exception);
+                        messages = Collections.emptyMap();
+                        Thread.sleep(STREAM_READ_RETRY_INTERVAL);
+                    }
+                    if (messages.isEmpty()) {
+                        limiter.release();
+                        continue;
                     }
+                    if (batchConsume) {
+                        List<StreamMessageId> ids = new ArrayList<>(messages.keySet());
+                        executeAcknowledged(executor, limiter, consumer, RetryPolicy.NONE, codec, new ArrayList<>(messages.values()), () -> ids.forEach(streamQueue::ack), null);
+                        continue;
+                    }
+                    // 未提交的消息保留在消费者组的待确认列表中, 由其它消费者在 claimIdle 后认领
+                    executeEach(limiter, new ArrayList<>(messages.entrySet()),
+                            entry -> executeAcknowledged(executor, limiter, consumer, RetryPolicy.NONE, codec, entry.getValue(), () -> streamQueue.ack(entry.getKey()), null), null);
                 }
             });
-            listener.setName("RedissonMessageQueueListener_" + destination + "_" + i);
-            listener.start();
         }
     }
 
     /**
-     * 获取消息队列消费者线程池
+     * 以阻塞获取的第一条消息为起点, 批量拉取队列中剩余的消息
+     *
+     * @param first     阻塞获取到的第一条消息
+     * @param batchSize 单次拉取消息的最大数量
+     * @param maxWait   凑满 batchSize 的最长等待时间(毫秒)
+     * @param drainer   非阻塞拉取函数, 参数为存放消息的集合与本次最多拉取的数量
+     */
+    private <T> List<T> drainBatch(T first, int batchSize, long maxWait, BiConsumer<List<T>, Integer> drainer) {
+        List<T> batch = new ArrayList<>(batchSize);
+        batch.add(first);
+        drainer.accept(batch, batchSize - 1);
+        if (maxWait > 0) {
+            // BLPOP 的超时精度为秒, 因此凑批等待采用短间隔轮询的方式
+            long deadline = System.currentTimeMillis() + maxWait;
+            long remaining;
+            while (batch.size() < batchSize && running && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    Thread.sleep(Math.min(remaining, BATCH_POLL_INTERVAL));
+                } catch (InterruptedException exception) {
+                    // 保留中断状态, 已拉取的消息照常提交, 由消费任务放回队列
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                drainer.accept(batch, batchSize - batch.size());
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * 逐条提交一批消息: 第一条消息使用已获取的许可, 其余消息逐个获取许可后提交. 等待许可时被中断则交由 requeue 处理未提交的消息
+     *
+     * @param submit  提交单条消息
+     * @param requeue 处理未提交的消息, 为 null 时不做处理
+     */
+    private <T> void executeEach(ConcurrencyLimiter limiter, List<T> batch, Consumer<T> submit, Consumer<List<T>> requeue) throws InterruptedException {
+        submit.accept(batch.get(0));
+        for (int j = 1; j < batch.size(); j++) {
+            try {
+                limiter.acquire();
+            } catch (InterruptedException exception) {
+                if (requeue != null) {
+                    requeue.accept(batch.subList(j, batch.size()));
+                }
+                throw exception;
+            }
+            submit.accept(batch.get(j));
+        }
+    }
+
+    /**
+     * 将已取出但未消费的消息按原顺序放回队列头部
+     */
+    private void requeueFirst(RBlockingDeque<Object> queue, List<Object> msgs) {
+        List<Object> reversed = new ArrayList<>(msgs);
+        Collections.reverse(reversed);
+        queue.addFirst(reversed.toArray());
+    }
+
+    private void executeReliable(ExecutorService executor, ConcurrencyLimiter limiter, Consumer<Object> consumer, RetryPolicy retry, Codec codec, ReliableMessageQueue queue, int maxRequeues, byte[] payload) {
+        executeAcknowledged(executor, limiter, consumer, retry, codec, payload, () -> queue.ack(payload), () -> requeueReliable(queue, codec, maxRequeues, payload));
+    }
+
+    /**
+     * 可靠队列中消费失败且未被重试策略处理的消息投递次数加 1 后放回队列尾部. 已放回 maxRequeues 次的消息丢弃并记录错误日志.
+     * 编解码器不支持消息信封时无法记录投递次数, 消息原样放回队列尾部
+     *
+     * @param maxRequeues 消息放回队列的最大次数
+     * @param payload     取出的消息
+     */
+    private void requeueReliable(ReliableMessageQueue queue, Codec codec, int maxRequeues, byte[] payload) {
+        if (!(codec instanceof RedisMQEnvelopeCodec)) {
+            queue.requeue(payload, payload);
+            return;
+        }
+        Object msg = decode(codec, payload);
+        if (msg == null) {
+            queue.ack(payload);
+            return;
+        }
+        RedisMQEnvelope envelope = msg instanceof RedisMQEnvelope e ? e : RedisMQEnvelope.of(msg);
+        if (envelope.getAttempt() > maxRequeues) {
+            log.error("RedisMQ reliable queue message discarded after {} requeues. Destination:{}", maxRequeues, queue.getDestination());
+            queue.ack(payload);
+            return;
+        }
+        queue.requeue(payload, RedisMQCodecResolver.encode(codec, envelope.retry(0)));
+    }
+
+    /**
+     * 提交需要确认的单条消息到线程池执行. 消费成功或消息无法解码时执行 ack, 消费失败时由重试策略处理后执行 ack, 未处理时执行 nack
+     *
+     * @param retry 消费失败的重试策略
+     * @param ack   确认消息
+     * @param nack  消费失败处理, 为 null 时不做处理
+     */
+    private void executeAcknowledged(ExecutorService executor, ConcurrencyLimiter limiter, Consumer<Object> consumer, RetryPolicy retry, Codec codec, byte[] payload, Runnable ack, Runnable nack) {
+        long start = System.nanoTime();
+        submit(executor, limiter, () -> {
+            long began = System.nanoTime();
+            Exception failure = null;
+            Object msg = null;
+            try {
+                msg = decode(codec, payload);
+                if (msg != null) {
+                    consumer.accept(msg);
+                }
+                ack.run();
+            } catch (Exception exception) {
+                failure = exception;
+                log.error("consume acknowledged queue exception", exception);
+                if (retry.onFailure(msg, false, exception)) {
+                    ack.run();
+                } else if (nack != null) {
+                    nack.run();
+                }
+            } finally {
+                limiter.getMetrics().recordConsume(1, System.nanoTime() - began, failure == null);
+                limiter.release(start, failure);
+            }
+        }, null);
+    }
+
+    /**
+     * 提交需要确认的一批消息到线程池, 以 List 形式一次性投递. 消费成功后整批执行 ack, 消费失败后由重试策略整批处理后执行 ack, 未处理时整批执行 nack
+     *
+     * @param retry 消费失败的重试策略
+     * @param ack   确认整批消息
+     * @param nack  消费失败处理, 为 null 时不做处理
+     */
+    private void executeAcknowledged(ExecutorService executor, ConcurrencyLimiter limiter, Consumer<Object> consumer, RetryPolicy retry, Codec codec, List<byte[]> payloads, Runnable ack, Runnable nack) {
+        long start = System.nanoTime();
+        submit(executor, limiter, () -> {
+            long began = System.nanoTime();
+            Exception failure = null;
+            List<Object> msgs = new ArrayList<>(payloads.size());
+            try {
+                for (byte[] payload : payloads) {
+                    Object msg = decode(codec, payload);
+                    if (msg != null) {
+                        msgs.add(msg);
+                    }
+                }
+                consumer.accept(msgs);
+                ack.run();
+            } catch (Exception exception) {
+                failure = exception;
+                log.error("consume acknowledged queue exception", exception);
+                if (retry.onFailure(msgs, true, exception)) {
+                    ack.run();
+                } else if (nack != null) {
+                    nack.run();
+                }
+            } finally {
+                limiter.getMetrics().recordConsume(payloads.size(), System.nanoTime() - began, failure == null);
+                limiter.release(start, failure);
+            }
+        }, null);
+    }
+
+    /**
+     * 解码消息. 无法解码的消息重新入队也无法消费成功, 记录日志后返回 null 由调用方直接确认
+     */
+    private Object decode(Codec codec, byte[] payload) {
+        ByteBuf buf = Unpooled.wrappedBuffer(payload);
+        try {
+            return codec.getValueDecoder().decode(buf, new State());
+        } catch (Exception exception) {
+            log.error("decode redis message queue message exception, message discarded", exception);
+            return null;
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * 提交消息到线程池执行, 执行结束后释放信号量许可. 消费失败的消息交由重试策略处理
+     *
+     * @param retry   消费失败的重试策略
+     * @param batch   msg 是否为整批消息的 List
+     * @param requeue 监听器已停止时将消息放回队列
+     */
+    private void execute(ExecutorService executor, ConcurrencyLimiter limiter, Consumer<Object> consumer, RetryPolicy retry, Object msg, boolean batch, Runnable requeue) {
+        long start = System.nanoTime();
+        int messages = batch ? ((List<?>) msg).size() : 1;
+        submit(executor, limiter, () -> {
+            long began = System.nanoTime();
+            Exception failure = null;
+            try {
+                consumer.accept(msg);
+            } catch (Exception exception) {
+                failure = exception;
+                log.error("consume queue exception", exception);
+                retry.onFailure(msg, batch, exception);
+            } finally {
+                limiter.getMetrics().recordConsume(messages, System.nanoTime() - began, failure == null);
+                limiter.release(start, failure);
+            }
+        }, requeue);
+    }
+
+    /**
+     * 提交消费任务到线程池并记录执行中的任务数量. 任务开始执行时监听器已停止则不再消费, 执行 requeue 后归还许可
+     *
+     * @param task    消费任务, 负责归还许可
+     * @param requeue 放回消息, 为 null 时不做处理 (消息仍保留在可靠队列的处理中列表或 Stream 消费者组的待确认列表中)
+     */
+    private void submit(ExecutorService executor, ConcurrencyLimiter limiter, Runnable task, Runnable requeue) {
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    if (running) {
+                        task.run();
+                        return;
+                    }
+                    if (requeue != null) {
+                        requeue.run();
+                    }
+                    limiter.release();
+                } catch (Exception exception) {
+                    log.error("requeue redis message queue message exception", exception);
+                    limiter.release();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            inFlight.decrementAndGet();
+            throw exception;
+        }
+    }
+
+    /**
+     * 创建并启动监听线程. 监听线程为守护线程, 停止监听器时正常退出循环, 等待许可时被中断则直接退出
+     *
+     * @param name     线程名称
+     * @param listener 监听循环
+     */
+    private void startListener(String name, ListenerLoop listener) {
+        Thread thread = listenerThreadFactory.newThread(() -> {
+            try {
+                listener.run();
+            } catch (InterruptedException exception) {
+                log.debug("RedisMQ listener interrupted. Listener:{}", name);
+            }
+        });
+        thread.setName(name);
+        thread.setDaemon(true);
+        listeners.add(thread);
+        thread.start();
+    }
+
+    /**
+     * 监听循环
+     */
+    @FunctionalInterface
+    private interface ListenerLoop {
+        void run() throws InterruptedException;
+    }
+
+    /**
+     * 启动队列的延迟消息转移者. 同一队列只启动一个转移者, 由所有节点选举出唯一的转移者转移到期消息
+     *
+     * @param destination 队列 (分区) 的 Redis key
+     */
+    private void startMover(String destination) {
+        movers.computeIfAbsent(destination, key -> {
+            DelayedMessageMover mover = new DelayedMessageMover(redisson, delayedMessageStore, destination, moverScheduler);
+            mover.start();
+            return mover;
+        });
+    }
+
+    /**
+     * 创建消费失败的重试策略
+     *
+     * @param destination 重新投递的队列 (分区) 的 Redis key
+     * @param codec       消息编解码器
+     * @param maxAttempts 最大投递次数
+     * @param backoff     第一次重试的延迟时间(毫秒)
+     * @param multiplier  重试延迟时间的增长倍数
+     * @param maxBackoff  重试延迟时间的最大值(毫秒)
+     * @param deadLetter  死信队列名称, 为空表示不转入死信队列
+     */
+    private RetryPolicy createRetryPolicy(String destination, Codec codec, int maxAttempts, long backoff, double multiplier, long maxBackoff, String deadLetter) {
+        return new RetryPolicy(redisson, delayedMessageStore, destination, codec, maxAttempts, backoff, multiplier, maxBackoff,
+                deadLetter.isEmpty() ? null : QueueUtil.modifyQueueName(deadLetter));
+    }
+
+    /**
+     * 创建队列的并发消费许可, 并注册队列的消费指标. 开启自适应并发 (redisson.mq.adaptive.enabled) 时以 concurrency 为初始值在配置范围内自动调整
+     *
+     * @param queueName   队列名称
+     * @param concurrency 初始并发消费数
+     * @param executor    处理消息的线程池
+     */
+    private ConcurrencyLimiter createLimiter(String queueName, int concurrency, ExecutorService executor) {
+        RedisMQProperties.Adaptive adaptive = properties.getAdaptive();
+        ConcurrencyLimiter limiter;
+        if (adaptive.isEnabled()) {
+            limiter = new ConcurrencyLimiter(concurrency, adaptive.getMinConcurrency(), adaptive.getMaxConcurrency(), adaptive.getTolerance(), adaptive.getBackoff(),
+                    adaptive.getBackoffExceptions(), executor);
+        } else {
+            limiter = new ConcurrencyLimiter(concurrency);
+        }
+        limiter.setMetrics(metrics.consumer(queueName, limiter::getInFlight, limiter::getLimit));
+        return limiter;
+    }
+
+    /**
+     * 自适应并发模式或开启指标采集时定时采样队列 (所有分区) 中积压的消息数量 (LLEN), 队列没有积压时不增加并发许可
+     *
+     * @param limiter      并发消费许可
+     * @param destinations 队列 (分区) 的 Redis key
+     */
+    private void sampleBacklog(ConcurrencyLimiter limiter, List<String> destinations) {
+        if (!limiter.isAdaptive() && !limiter.getMetrics().isEnabled()) {
+            return;
+        }
+        backlogSamplers.add(scheduler.scheduleWithFixedDelay(() -> {
+            RBatch batch = redisson.createBatch(BatchOptions.defaults());
+            List<RFuture<Integer>> sizes = new ArrayList<>(destinations.size());
+            for (String destination : destinations) {
+                sizes.add(batch.getQueue(destination).sizeAsync());
+            }
+            batch.executeAsync().whenComplete((result, exception) -> {
+                if (exception != null) {
+                    log.debug("sample redis message queue backlog exception", exception);
+                    return;
+                }
+                long backlog = 0;
+                for (RFuture<Integer> size : sizes) {
+                    backlog += size.toCompletableFuture().join();
+                }
+                limiter.setBacklog(backlog);
+                limiter.getMetrics().setDepth(backlog);
+            });
+        }, 0, BACKLOG_SAMPLE_INTERVAL, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 创建固定线程数的后台任务调度线程池. 线程池随进程退出, 停止监听器后仍可执行迟到的确认
+     *
+     * @param threads    线程数
+     * @param namePrefix 线程名称前缀
+     */
+    private static ScheduledExecutorService newScheduler(int threads, String namePrefix) {
+        AtomicInteger index = new AtomicInteger();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * 获取消息队列消费者线程池. 虚拟线程模式下默认线程池替换为每个任务一个虚拟线程的线程池
      *
      * @param executorServiceName 线程池 bean 名称
      */
-    private ThreadPoolExecutor getExecutorService(String executorServiceName) {
+    private ExecutorService getExecutorService(String executorServiceName) {
+        if (virtualThreadExecutor != null && DEFAULT_EXECUTOR_SERVICE.equals(executorServiceName)) {
+            return virtualThreadExecutor;
+        }
         if (applicationContext.containsBean(executorServiceName)) {
-            return applicationContext.getBean(executorServiceName, ThreadPoolExecutor.class);
+            return applicationContext.getBean(executorServiceName, ExecutorService.class);
         } else {
             return DefaultRedisMQExecutorService.get();
         }
     }
 
+    /**
+     * 获取单个队列的最大并发消费数
+     *
+     * @param concurrency 注解上配置的最大并发消费数, 小于 1 表示未配置
+     * @param executor    消费者使用的线程池
+     */
+    private int getConcurrency(int concurrency, ExecutorService executor) {
+        if (concurrency > 0) {
+            return concurrency;
+        }
+        if (executor instanceof ThreadPoolExecutor threadPoolExecutor) {
+            return threadPoolExecutor.getCorePoolSize();
+        }
+        return properties.getVirtualThreads().getConcurrency();
+    }
+
 }
@@ -0,0 +1,317 @@
+package haidnor.redisson.application;
+
+import org.redisson.api.RBlockingDeque;
+import org.redisson.api.RScoredSortedSet;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.queue.DequeMoveArgs;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 可靠消息队列.
+ * <p>
+ * 消息通过 BLMOVE 原子地从队列转移到当前消费者的处理中列表, 消费成功后批量确认 (LREM), 消费失败时放回队列尾部.
+ * 每个消费者定期续约租约, 租约超过 visibilityTimeout 未续约 (例如进程崩溃) 的消费者的处理中消息由任意节点的后台任务按原顺序放回队列头部.
+ * 租约仍有效时, 取出超过 visibilityTimeout 仍未确认 (例如监听方法阻塞) 的消息由当前消费者的后台任务放回队列尾部, 之后到达的确认或失败处理不再生效.
+ * <p>
+ * 处理中列表与租约集合使用 {destination} 作为 hash tag, 与队列位于同一个 Redis Cluster slot, 因此队列名称不能包含 '{' 或 '}'. 需要 Redis 6.2 及以上版本
+ */
+class ReliableMessageQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(ReliableMessageQueue.class);
+
+    /**
+     * BLMOVE 单次阻塞的最长时间(秒)
+     */
+    private static final long TAKE_TIMEOUT = 1;
+
+    /**
+     * 确认缓冲区刷新间隔(毫秒)
+     */
+    private static final long ACK_INTERVAL = 10;
+
+    /**
+     * 确认缓冲区累计达到此数量时立即刷新, 同时也是单次确认脚本包含的最大消息数量
+     */
+    private static final int ACK_BATCH = 200;
+
+    private static final String POLL_SCRIPT =
+            "local result = {}; " +
+            "for i = 1, tonumber(ARGV[1]) do " +
+            "    local value = redis.call('lmove', KEYS[1], KEYS[2], 'LEFT', 'RIGHT'); " +
+            "    if not value then break; end; " +
+            "    table.insert(result, value); " +
+            "end; " +
+            "return result;";
+
+    private static final String ACK_SCRIPT =
+            "for i = 1, #ARGV do redis.call('lrem', KEYS[1], 1, ARGV[i]); end; " +
+            "return #ARGV;";
+
+    /**
+     * 从处理中列表移除 ARGV[1], 并将 ARGV[2] (例如投递次数加 1 后的消息) 放回队列尾部
+     */
+    private static final String REQUEUE_SCRIPT =
+            "if redis.call('lrem', KEYS[1], 1, ARGV[1]) > 0 then " +
+            "    redis.call('rpush', KEYS[2], ARGV[2]); " +
+            "    return 1; " +
+            "end; " +
+            "return 0;";
+
+    /**
+     * 回收租约到期时间不晚于 ARGV[2] 的消费者: 处理中消息按原顺序放回队列头部, 并移除其租约
+     */
+    private static final String RECOVER_SCRIPT =
+            "local expireAt = redis.call('zscore', KEYS[1], ARGV[1]); " +
+            "if expireAt == false or tonumber(expireAt) > tonumber(ARGV[2]) then return -1; end; " +
+            "local count = 0; " +
+            "while redis.call('lmove', KEYS[2], KEYS[3], 'RIGHT', 'LEFT') do count = count + 1; end; " +
+            "redis.call('zrem', KEYS[1], ARGV[1]); " +
+            "return count;";
+
+    private final RedissonClient redisson;
+
+    private final String destination;
+
+    private final String consumerId = UUID.randomUUID().toString();
+
+    private final String processingKey;
+
+    private final String consumersKey;
+
+    private final long visibilityTimeout;
+
+    private final RBlockingDeque<byte[]> queue;
+
+    private final RScript script;
+
+    /**
+     * 当前消费者处理中的消息及其超时时间 (System.currentTimeMillis). 以消息数组实例为 key, 内容相同的消息互不影响
+     */
+    private final Map<byte[], Long> inFlight = new ConcurrentHashMap<>();
+
+    private final Queue<byte[]> acks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger ackSize = new AtomicInteger();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final ScheduledExecutorService scheduler;
+
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+
+    /**
+     * @param redisson          Redisson 客户端
+     * @param destination       修饰后的队列名称
+     * @param visibilityTimeout 消费者租约超时时间(毫秒)
+     * @param scheduler         执行租约续约, 过期回收与批量确认的调度线程池
+     */
+    ReliableMessageQueue(RedissonClient redisson, String destination, long visibilityTimeout, ScheduledExecutorService scheduler) {
+        if (visibilityTimeout < 1000) {
+            throw new IllegalArgumentException("the visibilityTimeout cannot be less than 1000 ms !");
+        }
+        if (destination.indexOf('{') >= 0 || destination.indexOf('}') >= 0) {
+            throw new IllegalArgumentException("the reliable queue name cannot contain '{' or '}' !");
+        }
+        this.redisson = redisson;
+        this.destination = destination;
+        this.processingKey = processingKey(consumerId);
+        this.consumersKey = "{" + destination + "}:consumers";
+        this.visibilityTimeout = visibilityTimeout;
+        this.queue = redisson.getBlockingDeque(destination, ByteArrayCodec.INSTANCE);
+        this.script = redisson.getScript(ByteArrayCodec.INSTANCE);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 注册消费者租约并启动后台任务
+     */
+    void start() {
+        renewLease();
+        long leaseInterval = visibilityTimeout / 3;
+        tasks.add(scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                renewLease();
+                recoverExpiredConsumers();
+                recoverExpiredMessages();
+            } catch (Exception exception) {
+                log.error("RedisMQ reliable queue lease exception. Destination:{}", destination, exception);
+            }
+        }, leaseInterval, leaseInterval, TimeUnit.MILLISECONDS));
+        tasks.add(scheduler.scheduleWithFixedDelay(this::flushAcks, ACK_INTERVAL, ACK_INTERVAL, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 停止后台任务并刷新剩余的确认, 之后将仍未确认的消息按原顺序放回队列头部并移除租约, 无需等待租约过期由其它节点回收
+     */
+    void shutdown() {
+        for (ScheduledFuture<?> task : tasks) {
+            task.cancel(false);
+        }
+        flushAcks();
+        try {
+            Long count = redisson.getScript(StringCodec.INSTANCE).eval(destination, RScript.Mode.READ_WRITE, RECOVER_SCRIPT, RScript.ReturnType.INTEGER,
+                    List.of(consumersKey, processingKey, destination), consumerId, String.valueOf(Long.MAX_VALUE));
+            if (count != null && count > 0) {
+                log.info("RedisMQ reliable queue requeue {} unacknowledged messages on shutdown. Destination:{}", count, destination);
+            }
+        } catch (Exception exception) {
+            log.error("RedisMQ reliable queue release exception. Destination:{}", destination, exception);
+        }
+    }
+
+    /**
+     * 阻塞获取一条消息并转移到处理中列表, 超时返回 null
+     */
+    byte[] take() {
+        byte[] payload = queue.move(Duration.ofSeconds(TAKE_TIMEOUT), DequeMoveArgs.pollFirst().addLastTo(processingKey));
+        if (payload != null) {
+            inFlight.put(payload, System.currentTimeMillis() + visibilityTimeout);
+        }
+        return payload;
+    }
+
+    /**
+     * 非阻塞地获取最多 limit 条消息并转移到处理中列表
+     */
+    List<byte[]> poll(int limit) {
+        if (limit < 1) {
+            return Collections.emptyList();
+        }
+        List<byte[]> result = script.eval(destination, RScript.Mode.READ_WRITE, POLL_SCRIPT, RScript.ReturnType.MULTI,
+                List.of(destination, processingKey), String.valueOf(limit).getBytes());
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        long expireAt = System.currentTimeMillis() + visibilityTimeout;
+        for (byte[] payload : result) {
+            inFlight.put(payload, expireAt);
+        }
+        return result;
+    }
+
+    /**
+     * 确认消息消费成功. 确认先进入缓冲区, 由后台任务批量从处理中列表移除. 已超时放回队列的消息不再确认
+     */
+    void ack(byte[] payload) {
+        if (inFlight.remove(payload) == null) {
+            return;
+        }
+        acks.offer(payload);
+        if (ackSize.incrementAndGet() >= ACK_BATCH && flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::flushAcks);
+        }
+    }
+
+    /**
+     * 确认一批消息消费成功
+     */
+    void ack(Collection<byte[]> payloads) {
+        for (byte[] payload : payloads) {
+            ack(payload);
+        }
+    }
+
+    /**
+     * 消息消费失败, 从处理中列表移除并放回队列尾部. 已超时放回队列的消息不再处理
+     *
+     * @param payload  take 或 poll 取出的消息
+     * @param requeued 放回队列的消息, 例如投递次数加 1 后重新编码的消息
+     */
+    void requeue(byte[] payload, byte[] requeued) {
+        if (inFlight.remove(payload) == null) {
+            return;
+        }
+        script.eval(destination, RScript.Mode.READ_WRITE, REQUEUE_SCRIPT, RScript.ReturnType.INTEGER,
+                List.of(processingKey, destination), payload, requeued);
+    }
+
+    /**
+     * 修饰后的队列名称
+     */
+    String getDestination() {
+        return destination;
+    }
+
+    private synchronized void flushAcks() {
+        flushRequested.set(false);
+        while (!acks.isEmpty()) {
+            List<Object> payloads = new ArrayList<>(Math.min(ackSize.get(), ACK_BATCH));
+            byte[] payload;
+            while (payloads.size() < ACK_BATCH && (payload = acks.poll()) != null) {
+                ackSize.decrementAndGet();
+                payloads.add(payload);
+            }
+            try {
+                script.eval(destination, RScript.Mode.READ_WRITE, ACK_SCRIPT, RScript.ReturnType.INTEGER,
+                        List.of(processingKey), payloads.toArray());
+            } catch (Exception exception) {
+                // 确认失败的消息仍在处理中列表, 进程退出后由其它节点回收, 可能被重复消费
+                log.error("RedisMQ reliable queue ack exception. Destination:{}", destination, exception);
+            }
+        }
+    }
+
+    private void renewLease() {
+        RScoredSortedSet<String> consumers = redisson.getScoredSortedSet(consumersKey, StringCodec.INSTANCE);
+        consumers.add(System.currentTimeMillis() + visibilityTimeout, consumerId);
+    }
+
+    private void recoverExpiredConsumers() {
+        RScoredSortedSet<String> consumers = redisson.getScoredSortedSet(consumersKey, StringCodec.INSTANCE);
+        long now = System.currentTimeMillis();
+        for (String expiredConsumerId : consumers.valueRange(Double.NEGATIVE_INFINITY, true, now, true)) {
+            if (consumerId.equals(expiredConsumerId)) {
+                continue;
+            }
+            Long count = redisson.getScript(StringCodec.INSTANCE).eval(destination, RScript.Mode.READ_WRITE, RECOVER_SCRIPT, RScript.ReturnType.INTEGER,
+                    List.of(consumersKey, processingKey(expiredConsumerId), destination), expiredConsumerId, String.valueOf(now));
+            if (count != null && count > 0) {
+                log.warn("RedisMQ reliable queue requeue {} in-flight messages of expired consumer. Destination:{} Consumer:{}", count, destination, expiredConsumerId);
+            }
+        }
+    }
+
+    /**
+     * 将当前消费者取出超过 visibilityTimeout 仍未确认的消息放回队列尾部
+     */
+    private void recoverExpiredMessages() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Map.Entry<byte[], Long> entry : inFlight.entrySet()) {
+            byte[] payload = entry.getKey();
+            if (entry.getValue() <= now && inFlight.remove(payload, entry.getValue())) {
+                script.eval(destination, RScript.Mode.READ_WRITE, REQUEUE_SCRIPT, RScript.ReturnType.INTEGER,
+                        List.of(processingKey, destination), payload, payload);
+                count++;
+            }
+        }
+        if (count > 0) {
+            log.warn("RedisMQ reliable queue requeue {} messages not acknowledged within visibilityTimeout. Destination:{}", count, destination);
+        }
+    }
+
+    private String processingKey(String consumerId) {
+        return "{" + destination + "}:processing:" + consumerId;
+    }
+
+}
@@ -0,0 +1,173 @@
+package haidnor.redisson.application;
+
+import haidnor.redisson.core.RedisDelayedMessageStore;
+import haidnor.redisson.core.RedisMQEnvelope;
+import haidnor.redisson.util.RedisMQCodecResolver;
+import haidnor.redisson.util.RedisMQEnvelopeCodec;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RBatch;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 消费失败的重试策略.
+ * <p>
+ * 监听方法抛出异常时, 未达到最大投递次数的消息包装为信封 (投递次数加 1) 写入延迟消息存储, 按指数退避的延迟时间到期后由转移者重新投递到原队列 (分区),
+ * 消费线程不等待. 超过最大投递次数的消息转入死信队列, 未配置死信队列时丢弃. 批量消费失败时整批消息逐条重试, 所有写操作通过一次管道发送.
+ * 投递次数与异常记录在信封中, 因此队列的编解码器需要支持消息信封 (JSON 编解码器或开启消息信封的队列)
+ */
+class RetryPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+
+    /**
+     * 死信消息中记录最后一次消费异常的消息头
+     */
+    static final String EXCEPTION_HEADER = "exception";
+
+    /**
+     * 异常消息头的最大长度
+     */
+    private static final int MAX_EXCEPTION_LENGTH = 1024;
+
+    /**
+     * 不重试, 不转入死信队列
+     */
+    static final RetryPolicy NONE = new RetryPolicy(null, null, null, null, 1, 0, 1, 0, null);
+
+    private final RedissonClient redisson;
+
+    private final RedisDelayedMessageStore delayedMessageStore;
+
+    private final String destination;
+
+    private final Codec codec;
+
+    private final int maxAttempts;
+
+    private final long backoff;
+
+    private final double multiplier;
+
+    private final long maxBackoff;
+
+    private final String deadLetter;
+
+    /**
+     * @param redisson            Redisson 客户端
+     * @param delayedMessageStore 延迟消息存储
+     * @param destination         重新投递的队列 (分区) 的 Redis key
+     * @param codec               队列使用的编解码器
+     * @param maxAttempts         最大投递次数 (含第一次消费)
+     * @param backoff             第一次重试的延迟时间(毫秒)
+     * @param multiplier          重试延迟时间的增长倍数
+     * @param maxBackoff          重试延迟时间的最大值(毫秒)
+     * @param deadLetter          修饰后的死信队列名称, 为 null 时丢弃超过最大投递次数的消息
+     */
+    RetryPolicy(RedissonClient redisson, RedisDelayedMessageStore delayedMessageStore, String destination, Codec codec,
+                int maxAttempts, long backoff, double multiplier, long maxBackoff, String deadLetter) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("the maxAttempts cannot be less than 1 !");
+        }
+        if (backoff < 0) {
+            throw new IllegalArgumentException("the retryBackoff cannot be less than 0 !");
+        }
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("the retryMultiplier cannot be less than 1 !");
+        }
+        if (maxAttempts > 1) {
+            RedisDelayedMessageStore.checkDestination(destination);
+        }
+        if ((maxAttempts > 1 || deadLetter != null) && !(codec instanceof RedisMQEnvelopeCodec)) {
+            throw new IllegalArgumentException("the maxAttempts and deadLetter require the message envelope, enable redisson.mq.envelope.enabled for binary codecs !");
+        }
+        this.redisson = redisson;
+        this.delayedMessageStore = delayedMessageStore;
+        this.destination = destination;
+        this.codec = codec;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.multiplier = multiplier;
+        this.maxBackoff = Math.max(maxBackoff, backoff);
+        this.deadLetter = deadLetter;
+    }
+
+    /**
+     * 是否处理消费失败的消息. 未开启重试且未配置死信队列时消费失败的消息按传输方式原有的方式处理
+     */
+    boolean isEnabled() {
+        return maxAttempts > 1 || deadLetter != null;
+    }
+
+    /**
+     * 是否需要延迟消息转移者重新投递消息
+     */
+    boolean isRetryEnabled() {
+        return maxAttempts > 1;
+    }
+
+    /**
+     * 处理消费失败的消息: 重新投递, 转入死信队列或丢弃
+     *
+     * @param msg       消费失败的消息, 未拆开信封
+     * @param batch     msg 是否为整批消息的 List
+     * @param exception 消费异常
+     * @return 消息已被处理 (可以从原队列确认移除) 时返回 true, 未开启或写入 Redis 失败时返回 false
+     */
+    boolean onFailure(Object msg, boolean batch, Exception exception) {
+        if (!isEnabled()) {
+            return false;
+        }
+        List<?> msgs = batch ? (List<?>) msg : Collections.singletonList(msg);
+        try {
+            RBatch redisBatch = redisson.createBatch(BatchOptions.defaults());
+            int retried = 0;
+            int deadLettered = 0;
+            for (Object element : msgs) {
+                RedisMQEnvelope envelope = element instanceof RedisMQEnvelope e ? e : RedisMQEnvelope.of(element);
+                if (envelope.getAttempt() < maxAttempts) {
+                    long delay = getDelay(envelope.getAttempt());
+                    byte[] payload = RedisMQCodecResolver.encode(codec, envelope.retry(delay));
+                    delayedMessageStore.schedule(redisBatch, destination, delayedMessageStore.newId(), payload, delay);
+                    retried++;
+                } else if (deadLetter != null) {
+                    redisBatch.getQueue(deadLetter, codec).addAsync(envelope.header(EXCEPTION_HEADER, describe(exception)));
+                    deadLettered++;
+                }
+            }
+            if (retried > 0 || deadLettered > 0) {
+                redisBatch.execute();
+            }
+            if (deadLettered > 0) {
+                log.warn("RedisMQ {} messages moved to dead letter queue after {} attempts. Destination:{} DeadLetter:{}", deadLettered, maxAttempts, destination, deadLetter);
+            }
+            int discarded = msgs.size() - retried - deadLettered;
+            if (discarded > 0) {
+                log.error("RedisMQ {} messages discarded after {} attempts. Destination:{}", discarded, maxAttempts, destination);
+            }
+            return true;
+        } catch (Exception retryException) {
+            log.error("RedisMQ retry message exception. Destination:{}", destination, retryException);
+            return false;
+        }
+    }
+
+    /**
+     * 第 attempt 次投递失败后的重试延迟时间(毫秒): backoff * multiplier ^ (attempt - 1), 不超过 maxBackoff
+     */
+    long getDelay(int attempt) {
+        double delay = backoff * Math.pow(multiplier, Math.max(attempt - 1, 0));
+        return (long) Math.min(delay, maxBackoff);
+    }
+
+    private static String describe(Exception exception) {
+        String description = exception.toString();
+        return description.length() > MAX_EXCEPTION_LENGTH ? description.substring(0, MAX_EXCEPTION_LENGTH) : description;
+    }
+
+}
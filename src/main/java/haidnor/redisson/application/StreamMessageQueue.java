@@ -0,0 +1,291 @@
+package haidnor.redisson.application;
+
+import haidnor.redisson.config.RedisMQProperties;
+import haidnor.redisson.util.RedisMQStreams;
+import org.redisson.api.PendingEntry;
+import org.redisson.api.RStream;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.StreamConsumer;
+import org.redisson.api.StreamMessageId;
+import org.redisson.api.stream.StreamCreateGroupArgs;
+import org.redisson.api.stream.StreamReadGroupArgs;
+import org.redisson.client.RedisException;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于 Redis Stream 消费者组的消息队列.
+ * <p>
+ * 通过 XREADGROUP COUNT 批量读取消息, 消费成功后批量 XACK 确认. 消费失败的消息保留在消费者组的待确认列表中,
+ * 未确认超过 claimIdle 后由后台任务通过 XPENDING IDLE 与 XCLAIM 认领并重新消费, 消费者进程崩溃时其待确认消息同样由其它节点认领.
+ * 投递次数达到 maxDeliveries 的消息不再重新消费, 转入死信队列 (未配置时丢弃) 后确认. 需要 Redis 6.2 及以上版本
+ * <p>
+ * 停止时没有待确认消息的消费者从消费者组中移除; 进程崩溃遗留的消费者在其待确认消息被认领后, 空闲超过 claimIdle 时由其它节点移除
+ */
+class StreamMessageQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamMessageQueue.class);
+
+    /**
+     * XREADGROUP 单次阻塞的最长时间(秒)
+     */
+    private static final long READ_TIMEOUT = 1;
+
+    /**
+     * 确认缓冲区刷新间隔(毫秒)
+     */
+    private static final long ACK_INTERVAL = 10;
+
+    /**
+     * 确认缓冲区累计达到此数量时立即刷新, 同时也是单次 XACK 包含的最大消息数量
+     */
+    private static final int ACK_BATCH = 200;
+
+    /**
+     * 单次 XPENDING 查询与 XCLAIM 认领的最大消息数量
+     */
+    private static final int CLAIM_COUNT = 100;
+
+    private final RedissonClient redisson;
+
+    private final String destination;
+
+    private final String group;
+
+    private final String consumerName = UUID.randomUUID().toString();
+
+    private final long claimIdle;
+
+    private final int maxDeliveries;
+
+    /**
+     * 修饰后的死信队列名称, 为 null 时丢弃投递次数达到 maxDeliveries 的消息
+     */
+    private final String deadLetter;
+
+    private final RStream<String, byte[]> stream;
+
+    /**
+     * 后台任务认领的待重新消费的消息
+     */
+    private final Queue<Map.Entry<StreamMessageId, byte[]>> claimed = new ConcurrentLinkedQueue<>();
+
+    private final Queue<StreamMessageId> acks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger ackSize = new AtomicInteger();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final ScheduledExecutorService scheduler;
+
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+
+    /**
+     * @param redisson      Redisson 客户端
+     * @param destination   修饰后的队列名称
+     * @param config        Stream 配置
+     * @param maxDeliveries 最大投递次数, 达到后不再认领重新消费
+     * @param deadLetter    修饰后的死信队列名称, 为 null 时丢弃投递次数达到 maxDeliveries 的消息
+     * @param scheduler     执行待确认消息认领与批量确认的调度线程池
+     */
+    StreamMessageQueue(RedissonClient redisson, String destination, RedisMQProperties.Stream config, int maxDeliveries, String deadLetter, ScheduledExecutorService scheduler) {
+        if (config.getClaimIdle() < 1000) {
+            throw new IllegalArgumentException("the stream claimIdle cannot be less than 1000 ms !");
+        }
+        if (maxDeliveries < 1) {
+            throw new IllegalArgumentException("the stream maxDeliveries cannot be less than 1 !");
+        }
+        this.redisson = redisson;
+        this.destination = destination;
+        this.group = config.getGroup();
+        this.claimIdle = config.getClaimIdle();
+        this.maxDeliveries = maxDeliveries;
+        this.deadLetter = deadLetter;
+        this.stream = redisson.getStream(RedisMQStreams.key(destination), RedisMQStreams.CODEC);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 创建消费者组并启动后台任务
+     */
+    void start() {
+        try {
+            stream.createGroup(StreamCreateGroupArgs.name(group).makeStream());
+        } catch (RedisException exception) {
+            if (exception.getMessage() == null || !exception.getMessage().contains("BUSYGROUP")) {
+                throw exception;
+            }
+        }
+        long claimInterval = claimIdle / 2;
+        tasks.add(scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                claimIdleMessages();
+            } catch (Exception exception) {
+                log.error("RedisMQ stream claim exception. Destination:{}", destination, exception);
+            }
+        }, claimInterval, claimInterval, TimeUnit.MILLISECONDS));
+        tasks.add(scheduler.scheduleWithFixedDelay(this::flushAcks, ACK_INTERVAL, ACK_INTERVAL, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 停止后台任务并刷新剩余的确认. 当前消费者没有待确认消息时从消费者组中移除, 否则保留由其它消费者认领
+     */
+    void shutdown() {
+        for (ScheduledFuture<?> task : tasks) {
+            task.cancel(false);
+        }
+        flushAcks();
+        try {
+            if (stream.listPending(group, consumerName, StreamMessageId.MIN, StreamMessageId.MAX, 1).isEmpty()) {
+                stream.removeConsumer(group, consumerName);
+            }
+        } catch (Exception exception) {
+            log.error("RedisMQ stream remove consumer exception. Destination:{} Consumer:{}", destination, consumerName, exception);
+        }
+    }
+
+    /**
+     * 读取最多 count 条消息, 优先返回认领的待重新消费消息. 没有新消息时阻塞等待, 超时返回空集合
+     */
+    Map<StreamMessageId, byte[]> read(int count) {
+        Map<StreamMessageId, byte[]> result = new LinkedHashMap<>();
+        Map.Entry<StreamMessageId, byte[]> entry;
+        while (result.size() < count && (entry = claimed.poll()) != null) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        if (!result.isEmpty()) {
+            return result;
+        }
+        Map<StreamMessageId, Map<String, byte[]>> messages = stream.readGroup(group, consumerName,
+                StreamReadGroupArgs.neverDelivered().count(count).timeout(Duration.ofSeconds(READ_TIMEOUT)));
+        if (messages != null) {
+            messages.forEach((id, fields) -> putPayload(result, id, fields));
+        }
+        return result;
+    }
+
+    /**
+     * 确认消息消费成功. 确认先进入缓冲区, 由后台任务批量 XACK
+     */
+    void ack(StreamMessageId id) {
+        acks.offer(id);
+        if (ackSize.incrementAndGet() >= ACK_BATCH && flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::flushAcks);
+        }
+    }
+
+    private synchronized void flushAcks() {
+        flushRequested.set(false);
+        while (!acks.isEmpty()) {
+            List<StreamMessageId> ids = new ArrayList<>(Math.min(ackSize.get(), ACK_BATCH));
+            StreamMessageId id;
+            while (ids.size() < ACK_BATCH && (id = acks.poll()) != null) {
+                ackSize.decrementAndGet();
+                ids.add(id);
+            }
+            try {
+                stream.ack(group, ids.toArray(new StreamMessageId[0]));
+            } catch (Exception exception) {
+                // 确认失败的消息仍在待确认列表中, 超过 claimIdle 后被重新消费
+                log.error("RedisMQ stream ack exception. Destination:{}", destination, exception);
+            }
+        }
+    }
+
+    /**
+     * 认领消费者组中未确认超过 claimIdle 的消息, 投递次数达到 maxDeliveries 的消息转入死信队列后确认.
+     * 本地尚有未消费的认领消息时跳过, 避免认领的消息在本地堆积
+     */
+    private void claimIdleMessages() {
+        if (!claimed.isEmpty()) {
+            return;
+        }
+        StreamMessageId startId = StreamMessageId.MIN;
+        List<PendingEntry> entries;
+        do {
+            entries = stream.listPending(group, startId, StreamMessageId.MAX, claimIdle, TimeUnit.MILLISECONDS, CLAIM_COUNT);
+            if (entries.isEmpty()) {
+                break;
+            }
+            Map<StreamMessageId, Long> deliveries = new LinkedHashMap<>();
+            for (PendingEntry entry : entries) {
+                deliveries.put(entry.getId(), entry.getLastTimeDelivered());
+            }
+            // XCLAIM 同样要求空闲时间超过 claimIdle, 多个节点同时认领时每条消息只由一个节点认领
+            Map<StreamMessageId, Map<String, byte[]>> messages = stream.claim(group, consumerName, claimIdle, TimeUnit.MILLISECONDS,
+                    deliveries.keySet().toArray(new StreamMessageId[0]));
+            Map<StreamMessageId, byte[]> payloads = new LinkedHashMap<>();
+            messages.forEach((id, fields) -> putPayload(payloads, id, fields));
+            Map<StreamMessageId, byte[]> exhausted = new LinkedHashMap<>();
+            payloads.entrySet().removeIf(entry -> {
+                if (deliveries.get(entry.getKey()) < maxDeliveries) {
+                    return false;
+                }
+                exhausted.put(entry.getKey(), entry.getValue());
+                return true;
+            });
+            claimed.addAll(payloads.entrySet());
+            if (!payloads.isEmpty()) {
+                log.warn("RedisMQ stream claim {} idle messages. Destination:{} Group:{}", payloads.size(), destination, group);
+            }
+            if (!exhausted.isEmpty()) {
+                deadLetter(exhausted);
+            }
+            StreamMessageId lastId = entries.get(entries.size() - 1).getId();
+            startId = new StreamMessageId(lastId.getId0(), lastId.getId1() + 1);
+        } while (entries.size() == CLAIM_COUNT);
+        removeIdleConsumers();
+    }
+
+    /**
+     * 投递次数达到 maxDeliveries 的消息以原编码写入死信队列 (未配置时丢弃) 后确认
+     */
+    private void deadLetter(Map<StreamMessageId, byte[]> exhausted) {
+        if (deadLetter != null) {
+            redisson.getQueue(deadLetter, ByteArrayCodec.INSTANCE).addAll(exhausted.values());
+            log.warn("RedisMQ stream {} messages moved to dead letter queue after {} deliveries. Destination:{} DeadLetter:{}", exhausted.size(), maxDeliveries, destination, deadLetter);
+        } else {
+            log.error("RedisMQ stream {} messages discarded after {} deliveries. Destination:{}", exhausted.size(), maxDeliveries, destination);
+        }
+        exhausted.keySet().forEach(this::ack);
+    }
+
+    /**
+     * 移除没有待确认消息且空闲超过 claimIdle 的其它消费者, 例如进程崩溃遗留的消费者. 仍在运行的消费者下次读取时自动重新创建
+     */
+    private void removeIdleConsumers() {
+        for (StreamConsumer consumer : stream.listConsumers(group)) {
+            if (consumer.getPending() == 0 && consumer.getIdleTime() > claimIdle && !consumerName.equals(consumer.getName())) {
+                stream.removeConsumer(group, consumer.getName());
+            }
+        }
+    }
+
+    /**
+     * 取出 Stream 条目中的消息字段. 已被裁剪删除的条目没有字段, 直接确认
+     */
+    private void putPayload(Map<StreamMessageId, byte[]> result, StreamMessageId id, Map<String, byte[]> fields) {
+        byte[] payload = fields == null ? null : fields.get(RedisMQStreams.FIELD);
+        if (payload == null) {
+            ack(id);
+            return;
+        }
+        result.put(id, payload);
+    }
+
+}
@@ -2,12 +2,15 @@ package haidnor.redisson.config;
 
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.boot.autoconfigure.AutoConfigurationExcludeFilter;
 import org.springframework.context.annotation.AnnotationBeanNameGenerator;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
 
 @Configuration
-@ComponentScan(basePackages = {"haidnor.redisson"}, nameGenerator = HFConfig.UniqueNameGenerator.class)
+@ComponentScan(basePackages = {"haidnor.redisson"}, nameGenerator = HFConfig.UniqueNameGenerator.class,
+        excludeFilters = @ComponentScan.Filter(type = FilterType.CUSTOM, classes = AutoConfigurationExcludeFilter.class))
 public class HFConfig {
 
     static class UniqueNameGenerator extends AnnotationBeanNameGenerator {
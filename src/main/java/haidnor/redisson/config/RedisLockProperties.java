@@ -0,0 +1,85 @@
+package haidnor.redisson.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Redis 分布式锁配置, 配置前缀 redisson.lock
+ */
+@Component
+@ConfigurationProperties(prefix = "redisson.lock")
+public class RedisLockProperties {
+
+    /**
+     * 本地锁分段数量. 默认值 0 表示每个 key 使用独立的引用计数本地锁;
+     * 大于 0 时所有 key 按哈希值共享固定数量 (向上取整为 2 的幂) 的本地锁, 不同 key 可能在本地互相等待.
+     * 分段模式下在一把锁的代码块内嵌套获取其它 key 的锁时, 即使 key 本身的加锁顺序一致, 也可能因分段顺序相反而在本地死锁直至等待时间耗尽;
+     * 需要同时锁定多个 key 时应使用 RedisLock#lockAll
+     */
+    private int localStripes = 0;
+
+    /**
+     * 本地交接租约配置
+     */
+    private Handoff handoff = new Handoff();
+
+    public int getLocalStripes() {
+        return localStripes;
+    }
+
+    public void setLocalStripes(int localStripes) {
+        this.localStripes = localStripes;
+    }
+
+    public Handoff getHandoff() {
+        return handoff;
+    }
+
+    public void setHandoff(Handoff handoff) {
+        this.handoff = handoff;
+    }
+
+    public static class Handoff {
+
+        /**
+         * 是否开启本地交接租约. 开启后同步方式获取的分布式锁使用 leaseTime 租约 (不使用看门狗续约),
+         * 释放时若有同一进程内的线程在等待同一 key 且租约剩余时间超过一半, 则不释放分布式锁, 直接交给本地等待的线程
+         */
+        private boolean enabled = false;
+
+        /**
+         * 分布式锁租约时间(毫秒). 交接后的代码块执行时间需小于租约时间的一半
+         */
+        private long leaseTime = 30000;
+
+        /**
+         * 连续本地交接的最大次数, 超过后释放分布式锁, 使其它节点有机会获取锁
+         */
+        private int maxHandoffs = 16;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getLeaseTime() {
+            return leaseTime;
+        }
+
+        public void setLeaseTime(long leaseTime) {
+            this.leaseTime = leaseTime;
+        }
+
+        public int getMaxHandoffs() {
+            return maxHandoffs;
+        }
+
+        public void setMaxHandoffs(int maxHandoffs) {
+            this.maxHandoffs = maxHandoffs;
+        }
+    }
+
+}
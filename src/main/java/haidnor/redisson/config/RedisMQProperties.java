@@ -0,0 +1,489 @@
+package haidnor.redisson.config;
+
+import org.redisson.client.RedisTimeoutException;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Redis 消息队列配置, 配置前缀 redisson.mq
+ */
+@Component
+@ConfigurationProperties(prefix = "redisson.mq")
+public class RedisMQProperties {
+
+    /**
+     * 消息队列默认使用的编解码器, 可选值见 RedisMQCodecResolver
+     */
+    private String codec = "json";
+
+    /**
+     * 单个队列的配置, key 为队列名称 (不含 redisson.queuePrefix 前缀)
+     */
+    private Map<String, Destination> destinations = new HashMap<>();
+
+    /**
+     * 异步发送消息的合并缓冲区配置
+     */
+    private Coalesce coalesce = new Coalesce();
+
+    /**
+     * 虚拟线程模式配置
+     */
+    private VirtualThreads virtualThreads = new VirtualThreads();
+
+    /**
+     * 自适应并发配置
+     */
+    private Adaptive adaptive = new Adaptive();
+
+    /**
+     * 停止监听器时等待消费中的消息消费完成的最长时间(毫秒)
+     */
+    private long shutdownTimeout = 10000;
+
+    /**
+     * 执行可靠队列租约续约与回收, 批量确认, Stream 待确认消息认领, 队列积压采样等后台任务的线程数
+     */
+    private int schedulerThreads = 2;
+
+    /**
+     * 执行延迟消息转移的线程数, 与其它后台任务隔离, 大量延迟消息同时到期时不会延误可靠队列的租约续约
+     */
+    private int moverThreads = 2;
+
+    /**
+     * 消息信封配置
+     */
+    private Envelope envelope = new Envelope();
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    public Map<String, Destination> getDestinations() {
+        return destinations;
+    }
+
+    public void setDestinations(Map<String, Destination> destinations) {
+        this.destinations = destinations;
+    }
+
+    public Coalesce getCoalesce() {
+        return coalesce;
+    }
+
+    public void setCoalesce(Coalesce coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    public VirtualThreads getVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(VirtualThreads virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public Adaptive getAdaptive() {
+        return adaptive;
+    }
+
+    public void setAdaptive(Adaptive adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    public int getSchedulerThreads() {
+        return schedulerThreads;
+    }
+
+    public void setSchedulerThreads(int schedulerThreads) {
+        this.schedulerThreads = schedulerThreads;
+    }
+
+    public int getMoverThreads() {
+        return moverThreads;
+    }
+
+    public void setMoverThreads(int moverThreads) {
+        this.moverThreads = moverThreads;
+    }
+
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    public void setEnvelope(Envelope envelope) {
+        this.envelope = envelope;
+    }
+
+    /**
+     * 获取使用 Redis Stream 传输的队列的 Stream 配置
+     *
+     * @param queueName 队列名称
+     * @return 队列未使用 Redis Stream 传输时返回 null
+     */
+    public Stream findStream(String queueName) {
+        Destination destination = destinations.get(queueName);
+        if (destination == null || !Destination.STREAM.equals(destination.getTransport())) {
+            return null;
+        }
+        return destination.getStream();
+    }
+
+    /**
+     * 获取普通消息队列的分区数量
+     *
+     * @param queueName 队列名称
+     */
+    public int getPartitions(String queueName) {
+        Destination destination = destinations.get(queueName);
+        return destination == null ? 1 : destination.getPartitions();
+    }
+
+    /**
+     * 队列是否使用消息信封: 优先使用队列配置 redisson.mq.destinations.[队列名称].envelope, 未配置时使用 redisson.mq.envelope.enabled
+     *
+     * @param queueName 队列名称
+     */
+    public boolean isEnvelopeEnabled(String queueName) {
+        Destination destination = destinations.get(queueName);
+        if (destination != null && destination.getEnvelope() != null) {
+            return destination.getEnvelope();
+        }
+        return envelope.isEnabled();
+    }
+
+    public static class Destination {
+
+        /**
+         * 基于 Redis List 的传输方式
+         */
+        public static final String LIST = "list";
+
+        /**
+         * 基于 Redis Stream 消费者组的传输方式
+         */
+        public static final String STREAM = "stream";
+
+        /**
+         * 队列使用的编解码器, 生产者与消费者需保持一致
+         */
+        private String codec;
+
+        /**
+         * 普通消息队列的传输方式, 可选值 list, stream. 生产者与消费者需保持一致
+         */
+        private String transport = LIST;
+
+        /**
+         * transport 为 stream 时的 Redis Stream 配置
+         */
+        private Stream stream = new Stream();
+
+        /**
+         * 普通消息队列的分区数量. 大于 1 时消息分散到位于不同 Redis Cluster slot 的多个 key 上, 生产者与消费者需保持一致
+         */
+        private int partitions = 1;
+
+        /**
+         * 队列是否使用消息信封, 为 null 时使用 redisson.mq.envelope.enabled 配置值. 生产者与消费者需保持一致
+         */
+        private Boolean envelope;
+
+        public String getCodec() {
+            return codec;
+        }
+
+        public void setCodec(String codec) {
+            this.codec = codec;
+        }
+
+        public String getTransport() {
+            return transport;
+        }
+
+        public void setTransport(String transport) {
+            this.transport = transport;
+        }
+
+        public Stream getStream() {
+            return stream;
+        }
+
+        public void setStream(Stream stream) {
+            this.stream = stream;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public void setPartitions(int partitions) {
+            this.partitions = partitions;
+        }
+
+        public Boolean getEnvelope() {
+            return envelope;
+        }
+
+        public void setEnvelope(Boolean envelope) {
+            this.envelope = envelope;
+        }
+    }
+
+    public static class Stream {
+
+        /**
+         * 消费者组名称. 同一消费者组内的消费者竞争消费, 不同消费者组各自消费全部消息
+         */
+        private String group = "redis-mq";
+
+        /**
+         * Stream 保留的最大消息数量 (近似裁剪), 小于 1 时不裁剪
+         */
+        private int maxLen = 100000;
+
+        /**
+         * 单次 XREADGROUP 读取的最大消息数量. 批量消费模式下使用注解 batchSize 参数
+         */
+        private int readCount = 16;
+
+        /**
+         * 消息未确认超过此时间(毫秒)后由其它消费者认领并重新消费
+         */
+        private long claimIdle = 60000;
+
+        /**
+         * 消息的最大投递次数 (含认领后的重新消费), 达到后转入注解 deadLetter 配置的死信队列 (未配置时丢弃) 并确认. 注解 maxAttempts 大于 1 时使用注解参数
+         */
+        private int maxDeliveries = 16;
+
+        public String getGroup() {
+            return group;
+        }
+
+        public void setGroup(String group) {
+            this.group = group;
+        }
+
+        public int getMaxLen() {
+            return maxLen;
+        }
+
+        public void setMaxLen(int maxLen) {
+            this.maxLen = maxLen;
+        }
+
+        public int getReadCount() {
+            return readCount;
+        }
+
+        public void setReadCount(int readCount) {
+            this.readCount = readCount;
+        }
+
+        public long getClaimIdle() {
+            return claimIdle;
+        }
+
+        public void setClaimIdle(long claimIdle) {
+            this.claimIdle = claimIdle;
+        }
+
+        public int getMaxDeliveries() {
+            return maxDeliveries;
+        }
+
+        public void setMaxDeliveries(int maxDeliveries) {
+            this.maxDeliveries = maxDeliveries;
+        }
+    }
+
+    public static class Coalesce {
+
+        /**
+         * 是否开启合并缓冲区. 开启后 sendAsync 发送的普通消息先进入进程内缓冲区, 再通过一次管道批量写入 Redis
+         */
+        private boolean enabled = false;
+
+        /**
+         * 缓冲区刷新间隔(毫秒)
+         */
+        private long interval = 5;
+
+        /**
+         * 缓冲区累计达到此数量时立即刷新, 同时也是单个管道包含的最大消息数量
+         */
+        private int maxBatch = 500;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getInterval() {
+            return interval;
+        }
+
+        public void setInterval(long interval) {
+            this.interval = interval;
+        }
+
+        public int getMaxBatch() {
+            return maxBatch;
+        }
+
+        public void setMaxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+        }
+    }
+
+    public static class VirtualThreads {
+
+        /**
+         * 是否开启虚拟线程模式 (需要 JDK 21). 开启后监听器线程与默认线程池中的消费任务均运行在虚拟线程上
+         */
+        private boolean enabled = false;
+
+        /**
+         * 虚拟线程模式下单个队列默认的最大并发消费数, 可通过注解 concurrency 参数单独指定
+         */
+        private int concurrency = 64;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
+    }
+
+    public static class Adaptive {
+
+        /**
+         * 是否开启自适应并发. 开启后每个队列的并发消费数以注解 concurrency (或线程池核心线程数) 为初始值, 按消费耗时, 过载异常, 队列积压与线程池饱和度自动调整
+         */
+        private boolean enabled = false;
+
+        /**
+         * 单个队列的最小并发消费数
+         */
+        private int minConcurrency = 1;
+
+        /**
+         * 单个队列的最大并发消费数
+         */
+        private int maxConcurrency = 256;
+
+        /**
+         * 消费耗时超过基准耗时的此倍数时减少并发
+         */
+        private double tolerance = 2.0;
+
+        /**
+         * 减少并发时乘以的系数
+         */
+        private double backoff = 0.9;
+
+        /**
+         * 视为下游过载而减少并发的消费异常类型 (含异常的 cause). 其它异常 (例如业务校验失败) 只记录耗时, 不减少并发
+         */
+        private List<Class<? extends Throwable>> backoffExceptions = new ArrayList<>(List.of(TimeoutException.class, SocketTimeoutException.class, RedisTimeoutException.class));
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMinConcurrency() {
+            return minConcurrency;
+        }
+
+        public void setMinConcurrency(int minConcurrency) {
+            this.minConcurrency = minConcurrency;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public void setMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        public void setTolerance(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        public double getBackoff() {
+            return backoff;
+        }
+
+        public void setBackoff(double backoff) {
+            this.backoff = backoff;
+        }
+
+        public List<Class<? extends Throwable>> getBackoffExceptions() {
+            return backoffExceptions;
+        }
+
+        public void setBackoffExceptions(List<Class<? extends Throwable>> backoffExceptions) {
+            this.backoffExceptions = backoffExceptions;
+        }
+    }
+
+    public static class Envelope {
+
+        /**
+         * 是否将发送的消息包装为携带消息头 (链路追踪 ID, 可消费时间, 投递次数) 的信封. 消费者总是能够读取信封消息, 开启前需先升级所有消费者
+         */
+        private boolean enabled = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package haidnor.redisson.core;
+
+import haidnor.redisson.config.RedisMQProperties;
+import haidnor.redisson.util.RedisMQStreams;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RBatch;
+import org.redisson.api.RFuture;
+import org.redisson.api.RStreamAsync;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步发送消息的合并缓冲区.
+ * <p>
+ * 消息先进入进程内缓冲区, 每隔 interval 毫秒或累计 maxBatch 条消息后, 由单个刷新线程通过一次管道批量写入 Redis.
+ * 刷新线程同步等待每个管道执行完成, 以保证同一队列的消息顺序. 关闭后发送的消息以 IllegalStateException 异常完成
+ */
+class CoalescingSender {
+
+    private static final Logger log = LoggerFactory.getLogger(CoalescingSender.class);
+
+    private final RedissonClient redisson;
+
+    private final int maxBatch;
+
+    private final Queue<PendingMessage> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pendingSize = new AtomicInteger();
+
+    /**
+     * 是否已提交一次立即刷新, 避免缓冲区满后每次发送都提交刷新任务
+     */
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean closed;
+
+    CoalescingSender(RedissonClient redisson, long interval, int maxBatch) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("the coalesce interval cannot be less than 1 !");
+        }
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("the coalesce maxBatch cannot be less than 1 !");
+        }
+        this.redisson = redisson;
+        this.maxBatch = maxBatch;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RedisMQCoalescingSender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 将消息放入缓冲区
+     *
+     * @param destination 修饰后的队列名称
+     * @param codec       队列使用的编解码器
+     * @param stream      队列使用 Redis Stream 传输时的 Stream 配置, 否则为 null
+     * @param msg         任务对象
+     * @return 消息写入 Redis 后完成的 Future
+     */
+    CompletableFuture<Boolean> send(String destination, Codec codec, RedisMQProperties.Stream stream, Object msg) {
+        if (closed) {
+            return CompletableFuture.failedFuture(closedException());
+        }
+        PendingMessage message = new PendingMessage(destination, codec, stream, msg);
+        pending.offer(message);
+        if (pendingSize.incrementAndGet() >= maxBatch && flushRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flush);
+            } catch (RejectedExecutionException exception) {
+                // 刷新线程已停止, 由下方的检查处理
+            }
+        }
+        // 与 shutdown 并发时, 消息可能在最后一次刷新之后才进入缓冲区
+        if (closed) {
+            failPending();
+        }
+        return message.future;
+    }
+
+    /**
+     * 停止接收消息, 刷新缓冲区中剩余的消息并停止刷新线程. 之后仍在缓冲区中的消息以异常完成
+     */
+    void shutdown() {
+        closed = true;
+        scheduler.shutdown();
+        flush();
+        failPending();
+    }
+
+    private void failPending() {
+        PendingMessage message;
+        while ((message = pending.poll()) != null) {
+            pendingSize.decrementAndGet();
+            message.future.completeExceptionally(closedException());
+        }
+    }
+
+    private static IllegalStateException closedException() {
+        return new IllegalStateException("RedisMQ coalescing sender has been shut down");
+    }
+
+    private synchronized void flush() {
+        flushRequested.set(false);
+        while (!pending.isEmpty()) {
+            RBatch batch = redisson.createBatch(BatchOptions.defaults());
+            List<PendingMessage> messages = new ArrayList<>(Math.min(pendingSize.get(), maxBatch));
+            PendingMessage message;
+            while (messages.size() < maxBatch && (message = pending.poll()) != null) {
+                pendingSize.decrementAndGet();
+                RFuture<?> future;
+                if (message.stream != null) {
+                    RStreamAsync<String, byte[]> stream = batch.getStream(RedisMQStreams.key(message.destination), RedisMQStreams.CODEC);
+                    try {
+                        future = stream.addAsync(RedisMQStreams.addArgs(message.codec, message.msg, message.stream));
+                    } catch (IllegalArgumentException exception) {
+                        message.future.completeExceptionally(exception);
+                        continue;
+                    }
+                } else {
+                    future = batch.getBlockingQueue(message.destination, message.codec).offerAsync(message.msg);
+                }
+                CompletableFuture<Boolean> result = message.future;
+                future.whenComplete((success, exception) -> {
+                    if (exception != null) {
+                        result.completeExceptionally(exception);
+                    } else {
+                        result.complete(!Boolean.FALSE.equals(success));
+                    }
+                });
+                messages.add(message);
+            }
+            try {
+                batch.execute();
+            } catch (Exception exception) {
+                log.error("RedisMQ coalescing sender flush exception", exception);
+                for (PendingMessage failed : messages) {
+                    failed.future.completeExceptionally(exception);
+                }
+            }
+        }
+    }
+
+    private static class PendingMessage {
+
+        private final String destination;
+
+        private final Codec codec;
+
+        private final RedisMQProperties.Stream stream;
+
+        private final Object msg;
+
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private PendingMessage(String destination, Codec codec, RedisMQProperties.Stream stream, Object msg) {
+            this.destination = destination;
+            this.codec = codec;
+            this.stream = stream;
+            this.msg = msg;
+        }
+    }
+
+}
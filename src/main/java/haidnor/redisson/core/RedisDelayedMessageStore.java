@@ -0,0 +1,234 @@
+package haidnor.redisson.core;
+
+import org.redisson.api.RBatch;
+import org.redisson.api.RFuture;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 延迟消息存储.
+ * <p>
+ * 延迟消息以消息 ID 为成员, 到期时间为分数写入 ZSET, 消息内容 (队列编解码器编码后的字节) 写入 HASH. 到期消息由每个队列唯一的转移者通过一次 Lua 脚本批量转移到普通队列.
+ * 到期时间使用 Redis 服务端时间计算, 不受各节点时钟偏差影响. 新消息成为最早到期的消息时通过 Pub/Sub 通知转移者提前唤醒.
+ * <p>
+ * 所有 key 使用 {队列名称} 作为 hash tag, 与普通队列位于同一个 Redis Cluster slot, 因此延迟消息的队列名称不能包含 '{' 或 '}'
+ */
+@Component
+public class RedisDelayedMessageStore {
+
+    /**
+     * 获取 Redis 服务端当前时间(毫秒)
+     */
+    private static final String NOW =
+            "local time = redis.call('time'); " +
+            "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000); ";
+
+    /**
+     * 写入延迟消息, 新消息成为最早到期的消息时发布其延迟时间
+     */
+    private static final String SCHEDULE_SCRIPT = NOW +
+            "redis.call('hset', KEYS[2], ARGV[1], ARGV[3]); " +
+            "redis.call('zadd', KEYS[1], now + tonumber(ARGV[2]), ARGV[1]); " +
+            "local head = redis.call('zrange', KEYS[1], 0, 0); " +
+            "if head[1] == ARGV[1] then redis.call('publish', ARGV[4], ARGV[2]); end; " +
+            "return 1;";
+
+    /**
+     * 转移最多 ARGV[1] 条到期消息到普通队列, 返回 {转移数量, 下一条消息的剩余延迟时间(毫秒), 没有消息时为 -1}
+     */
+    private static final String MOVE_SCRIPT = NOW +
+            "local ids = redis.call('zrangebyscore', KEYS[1], '-inf', now, 'limit', 0, tonumber(ARGV[1])); " +
+            "local moved = 0; " +
+            "if #ids > 0 then " +
+            "    local payloads = redis.call('hmget', KEYS[2], unpack(ids)); " +
+            "    local values = {}; " +
+            "    for i = 1, #payloads do " +
+            "        if payloads[i] then table.insert(values, payloads[i]); end; " +
+            "    end; " +
+            "    if #values > 0 then redis.call('rpush', KEYS[3], unpack(values)); end; " +
+            "    redis.call('hdel', KEYS[2], unpack(ids)); " +
+            "    redis.call('zrem', KEYS[1], unpack(ids)); " +
+            "    moved = #values; " +
+            "end; " +
+            "local head = redis.call('zrange', KEYS[1], 0, 0, 'withscores'); " +
+            "if head[2] == nil then return {moved, -1}; end; " +
+            "return {moved, math.max(tonumber(head[2]) - now, 0)};";
+
+    /**
+     * 取消尚未到期的延迟消息
+     */
+    private static final String CANCEL_SCRIPT =
+            "if redis.call('zrem', KEYS[1], ARGV[1]) == 1 then " +
+            "    redis.call('hdel', KEYS[2], ARGV[1]); " +
+            "    return 1; " +
+            "end; " +
+            "return 0;";
+
+    /**
+     * 修改尚未到期的延迟消息的到期时间, 成为最早到期的消息时发布其延迟时间
+     */
+    private static final String RESCHEDULE_SCRIPT = NOW +
+            "if redis.call('zscore', KEYS[1], ARGV[1]) == false then return 0; end; " +
+            "redis.call('zadd', KEYS[1], now + tonumber(ARGV[2]), ARGV[1]); " +
+            "local head = redis.call('zrange', KEYS[1], 0, 0); " +
+            "if head[1] == ARGV[1] then redis.call('publish', ARGV[3], ARGV[2]); end; " +
+            "return 1;";
+
+    @Autowired
+    private RedissonClient redisson;
+
+    /**
+     * 写入延迟消息
+     *
+     * @param destination 修饰后的队列名称
+     * @param payload     队列编解码器编码后的消息
+     * @param delayMillis 延迟时间(毫秒)
+     * @return 消息 ID
+     */
+    public String schedule(String destination, byte[] payload, long delayMillis) {
+        String id = newId();
+        redisson.getScript(ByteArrayCodec.INSTANCE).eval(destination, RScript.Mode.READ_WRITE, SCHEDULE_SCRIPT, RScript.ReturnType.INTEGER,
+                keys(destination), scheduleArgs(destination, id, payload, delayMillis));
+        return id;
+    }
+
+    /**
+     * 异步写入延迟消息
+     *
+     * @param destination 修饰后的队列名称
+     * @param id          消息 ID
+     * @param payload     队列编解码器编码后的消息
+     * @param delayMillis 延迟时间(毫秒)
+     * @return 写入完成后完成的 Future
+     */
+    public RFuture<Long> scheduleAsync(String destination, String id, byte[] payload, long delayMillis) {
+        return redisson.getScript(ByteArrayCodec.INSTANCE).evalAsync(destination, RScript.Mode.READ_WRITE, SCHEDULE_SCRIPT, RScript.ReturnType.INTEGER,
+                keys(destination), scheduleArgs(destination, id, payload, delayMillis));
+    }
+
+    /**
+     * 在管道批处理中写入延迟消息
+     *
+     * @param batch       管道批处理
+     * @param destination 修饰后的队列名称
+     * @param id          消息 ID
+     * @param payload     队列编解码器编码后的消息
+     * @param delayMillis 延迟时间(毫秒)
+     */
+    public RFuture<Long> schedule(RBatch batch, String destination, String id, byte[] payload, long delayMillis) {
+        return batch.getScript(ByteArrayCodec.INSTANCE).evalAsync(destination, RScript.Mode.READ_WRITE, SCHEDULE_SCRIPT, RScript.ReturnType.INTEGER,
+                keys(destination), scheduleArgs(destination, id, payload, delayMillis));
+    }
+
+    /**
+     * 取消尚未到期的延迟消息. ZSET 以消息 ID 为成员, 时间复杂度 O(log n)
+     *
+     * @param destination 修饰后的队列名称
+     * @param id          消息 ID
+     * @return 消息已到期转移或不存在时返回 false
+     */
+    public boolean cancel(String destination, String id) {
+        Long result = redisson.getScript(ByteArrayCodec.INSTANCE).eval(destination, RScript.Mode.READ_WRITE, CANCEL_SCRIPT, RScript.ReturnType.INTEGER,
+                keys(destination), (Object) id.getBytes(StandardCharsets.UTF_8));
+        return result != null && result == 1;
+    }
+
+    /**
+     * 修改尚未到期的延迟消息的到期时间为当前时间之后 delayMillis 毫秒, 时间复杂度 O(log n)
+     *
+     * @param destination 修饰后的队列名称
+     * @param id          消息 ID
+     * @param delayMillis 新的延迟时间(毫秒)
+     * @return 消息已到期转移或不存在时返回 false
+     */
+    public boolean reschedule(String destination, String id, long delayMillis) {
+        Long result = redisson.getScript(ByteArrayCodec.INSTANCE).eval(destination, RScript.Mode.READ_WRITE, RESCHEDULE_SCRIPT, RScript.ReturnType.INTEGER,
+                keys(destination), id.getBytes(StandardCharsets.UTF_8),
+                String.valueOf(Math.max(delayMillis, 0)).getBytes(StandardCharsets.UTF_8),
+                channel(destination).getBytes(StandardCharsets.UTF_8));
+        return result != null && result == 1;
+    }
+
+    /**
+     * 转移到期消息到普通队列
+     *
+     * @param destination 修饰后的队列名称
+     * @param limit       单次转移的最大消息数量
+     * @return {转移数量, 下一条消息的剩余延迟时间(毫秒), 没有消息时为 -1}
+     */
+    public long[] move(String destination, int limit) {
+        checkDestination(destination);
+        List<Long> result = redisson.getScript(ByteArrayCodec.INSTANCE).eval(destination, RScript.Mode.READ_WRITE, MOVE_SCRIPT, RScript.ReturnType.MULTI,
+                List.of(delayedKey(destination), payloadsKey(destination), destination), String.valueOf(limit).getBytes(StandardCharsets.UTF_8));
+        return new long[]{result.get(0), result.get(1)};
+    }
+
+    /**
+     * 生成消息 ID
+     */
+    public String newId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * 校验延迟消息的队列名称. 名称包含 '{' 或 '}' 时 {队列名称} 不再是完整的 hash tag, 延迟消息的 key 与普通队列位于不同的 slot,
+     * Redis Cluster 执行转移脚本时返回 CROSSSLOT 错误
+     *
+     * @param destination 修饰后的队列名称
+     */
+    public static void checkDestination(String destination) {
+        if (destination.indexOf('{') >= 0 || destination.indexOf('}') >= 0) {
+            throw new IllegalArgumentException("the delayed queue name cannot contain '{' or '}' !");
+        }
+    }
+
+    /**
+     * 延迟消息 ZSET 的 key
+     */
+    public static String delayedKey(String destination) {
+        return "{" + destination + "}:delayed";
+    }
+
+    /**
+     * 延迟消息内容 HASH 的 key
+     */
+    public static String payloadsKey(String destination) {
+        return "{" + destination + "}:delayed:payloads";
+    }
+
+    /**
+     * 转移者租约的 key
+     */
+    public static String moverKey(String destination) {
+        return "{" + destination + "}:delayed:mover";
+    }
+
+    /**
+     * 通知转移者提前唤醒的 Pub/Sub 频道
+     */
+    public static String channel(String destination) {
+        return "{" + destination + "}:delayed:channel";
+    }
+
+    private List<Object> keys(String destination) {
+        checkDestination(destination);
+        return List.of(delayedKey(destination), payloadsKey(destination));
+    }
+
+    private Object[] scheduleArgs(String destination, String id, byte[] payload, long delayMillis) {
+        return new Object[]{
+                id.getBytes(StandardCharsets.UTF_8),
+                String.valueOf(Math.max(delayMillis, 0)).getBytes(StandardCharsets.UTF_8),
+                payload,
+                channel(destination).getBytes(StandardCharsets.UTF_8)
+        };
+    }
+
+}
@@ -1,226 +1,1490 @@
 package haidnor.redisson.core;
 
+import haidnor.redisson.config.RedisLockProperties;
 import haidnor.redisson.lambda.Param0Function;
+import haidnor.redisson.metrics.RedisMetrics;
+import haidnor.redisson.util.LocalAsyncLocks;
+import haidnor.redisson.util.LocalHandoffQueues;
+import haidnor.redisson.util.LocalLockTable;
+import haidnor.redisson.util.LocalReadWriteLocks;
+import haidnor.redisson.util.RedisMQPartitions;
+import org.redisson.Redisson;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.BatchResult;
+import org.redisson.api.RBatch;
+import org.redisson.api.RFuture;
 import org.redisson.api.RLock;
+import org.redisson.api.RPermitExpirableSemaphore;
+import org.redisson.api.RScript;
+import org.redisson.api.RScriptAsync;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongFunction;
 import java.util.function.Supplier;
 
 /**
  * Redisson 锁工具,简化 try catch 代码
+ * <p>
+ * 先获取同一 key 的本地锁, 再获取分布式锁, 同一进程内的线程在本地排队, 不会同时向 Redis 竞争同一把锁.
+ * 本地锁由 {@link LocalLockTable} 管理, 通过 redisson.lock.local-stripes 选择引用计数或分段方式.
+ * <p>
+ * 开启本地交接租约 (redisson.lock.handoff.enabled) 后, 同步方式获取的分布式锁使用固定租约时间, 租约作为本地锁的附加对象:
+ * 释放时若有本地线程在等待且租约仍然充足, 则保留分布式锁直接交给下一个获取本地锁的线程, 热点 key 连续多次上锁只需一次加锁与一次解锁的 Redis 往返.
+ * <p>
+ * 隔离令牌方式 (lockFenced) 使用固定租约时间, 不使用看门狗续约, 一次 Lua 脚本同时获取锁并生成单调递增的隔离令牌 (fencing token),
+ * 下游存储记录令牌并拒绝令牌更小的写入, 即使持有者因 GC 停顿等原因在租约到期后继续执行, 其写入也会被拒绝.
+ * <p>
+ * 批量方式 (lockAll) 按 key 排序后依次获取本地锁, 再按 Redis Cluster slot 分组, 每个 slot 执行一次加锁脚本, 所有脚本通过一次管道发送 (每个节点一次往返),
+ * 任一 slot 加锁失败时释放已获取的锁后重试, 不会持有部分锁等待其它锁, 因此不会与其它批量上锁的调用死锁.
+ * <p>
+ * 读写锁 (readLock, writeLock) 先获取同一 key 的本地读写锁: 同一进程内的读者共享一次分布式读锁, 第一个读者获取, 最后一个读者释放,
+ * 并发的读者不再各自访问 Redis. 信号量 (semaphore) 的许可在租约仍然充足时直接交给同一进程内等待的线程, 不归还 Redis.
+ * <p>
+ * 异步与 Reactor 方式 (lockAsync, lockReactive) 不阻塞调用线程: 先在 {@link LocalAsyncLocks} 上异步排队, 再以独立的持有者 ID 异步获取分布式锁,
+ * 代码块返回的 CompletionStage 完成后在任意线程释放锁. 每次调用的持有者 ID 不同, 因此异步方式的锁不可重入
  */
 @Service
-public class RedisLock {
+public class RedisLock implements InitializingBean {
 
-    private final Map<String/*lock key*/, ReentrantLock> reentrantLockMap = new ConcurrentHashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(RedisLock.class);
 
     @Autowired
     private RedissonClient redisson;
 
+    @Autowired
+    private RedisLockProperties properties;
+
+    @Autowired(required = false)
+    private RedisMetrics metrics = RedisMetrics.NOOP;
+
+    /**
+     * 获取固定租约的分布式锁并生成隔离令牌. 锁的格式与 Redisson RLock 相同 (HASH, 字段为 Redisson ID:持有者 ID), 可以由 RLock 释放, 与其它方式上锁互斥.
+     * 隔离令牌计数器不设置过期时间, 返回 {1, 令牌} 或 {0, 锁的剩余租约时间(毫秒)}
+     */
+    private static final String FENCED_LOCK_SCRIPT =
+            "if redis.call('exists', KEYS[1]) == 0 then " +
+            "    redis.call('hset', KEYS[1], ARGV[2], 1); " +
+            "    redis.call('pexpire', KEYS[1], ARGV[1]); " +
+            "    return {1, redis.call('incr', KEYS[2])}; " +
+            "end; " +
+            "return {0, redis.call('pttl', KEYS[1])};";
+
+    /**
+     * 批量获取同一 slot 的多把锁, 全部空闲或已被当前持有者持有时才加锁 (可重入), 锁的格式与 Redisson RLock 相同.
+     * 返回 {1} 或 {0, 被占用的锁的剩余租约时间(毫秒)}
+     */
+    private static final String LOCK_ALL_SCRIPT =
+            "for i = 1, #KEYS do " +
+            "    if redis.call('exists', KEYS[i]) == 1 and redis.call('hexists', KEYS[i], ARGV[2]) == 0 then " +
+            "        return {0, redis.call('pttl', KEYS[i])}; " +
+            "    end; " +
+            "end; " +
+            "for i = 1, #KEYS do " +
+            "    redis.call('hincrby', KEYS[i], ARGV[2], 1); " +
+            "    redis.call('pexpire', KEYS[i], ARGV[1]); " +
+            "end; " +
+            "return {1};";
+
+    /**
+     * 批量释放同一 slot 的多把锁. KEYS 前一半为锁, 后一半为对应的解锁通知频道, 与 RLock 一致地在完全释放后通知等待者
+     */
+    private static final String UNLOCK_ALL_SCRIPT =
+            "local n = #KEYS / 2; " +
+            "for i = 1, n do " +
+            "    if redis.call('hexists', KEYS[i], ARGV[2]) == 1 then " +
+            "        if redis.call('hincrby', KEYS[i], ARGV[2], -1) > 0 then " +
+            "            redis.call('pexpire', KEYS[i], ARGV[1]); " +
+            "        else " +
+            "            redis.call('del', KEYS[i]); " +
+            "            redis.call(ARGV[3], KEYS[n + i], 0); " +
+            "        end; " +
+            "    end; " +
+            "end; " +
+            "return 1;";
+
+    /**
+     * 批量续期同一 slot 中仍由当前持有者持有的锁, 返回续期的锁数量
+     */
+    private static final String RENEW_ALL_SCRIPT =
+            "local renewed = 0; " +
+            "for i = 1, #KEYS do " +
+            "    if redis.call('hexists', KEYS[i], ARGV[2]) == 1 then " +
+            "        redis.call('pexpire', KEYS[i], ARGV[1]); " +
+            "        renewed = renewed + 1; " +
+            "    end; " +
+            "end; " +
+            "return renewed;";
+
+    /**
+     * 隔离令牌与批量方式等待锁释放时的最长重试间隔(毫秒)
+     */
+    private static final long RETRY_INTERVAL = 50;
+
+    /**
+     * 异步方式获取分布式锁的持有者 ID. 使用负数, 不会与线程 ID 重复
+     */
+    private static final AtomicLong OWNER_IDS = new AtomicLong();
+
+    private LocalLockTable localLocks;
+
+    private final LocalAsyncLocks localAsyncLocks = new LocalAsyncLocks();
+
+    private final LocalReadWriteLocks localReadWriteLocks = new LocalReadWriteLocks();
+
+    private final LocalHandoffQueues<Permit> permitHandoffs = new LocalHandoffQueues<>();
+
+    /**
+     * 本地交接租约配置, 未开启时为 null
+     */
+    private RedisLockProperties.Handoff handoff;
+
+    /**
+     * 本地交接租约时间(纳秒)
+     */
+    private long leaseNanos;
+
+    /**
+     * 批量方式的租约时间(毫秒), 与 RLock 看门狗的租约时间相同
+     */
+    private long watchdogTimeout;
+
+    private boolean cluster;
+
+    @Override
+    public void afterPropertiesSet() {
+        localLocks = LocalLockTable.create(properties.getLocalStripes());
+        watchdogTimeout = redisson.getConfig().getLockWatchdogTimeout();
+        cluster = redisson.getConfig().isClusterConfig();
+        RedisLockProperties.Handoff handoff = properties.getHandoff();
+        if (handoff.isEnabled()) {
+            if (handoff.getLeaseTime() < 1) {
+                throw new IllegalArgumentException("the handoff leaseTime cannot be less than 1 !");
+            }
+            if (handoff.getMaxHandoffs() < 0) {
+                throw new IllegalArgumentException("the handoff maxHandoffs cannot be less than 0 !");
+            }
+            this.handoff = handoff;
+            this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(handoff.getLeaseTime());
+        }
+    }
+
+    /**
+     * 上锁并执行代码
+     *
+     * @param key      分布式锁 key
+     * @param time     获取锁等待时间
+     * @param timeUnit 获取锁等待时间单位
+     * @param supplier 需要执行的代码块
+     * @param <T>      生产者返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T lock(String key, long time, TimeUnit timeUnit, Supplier<T> supplier) {
+        return execute(key, timeUnit.toNanos(time), supplier);
+    }
+
+    /**
+     * 上锁并执行代码
+     *
+     * @param key      分布式锁 key
+     * @param supplier 需要执行的代码块
+     * @param <T>      生产者返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T lock(String key, Supplier<T> supplier) {
+        return execute(key, 0, supplier);
+    }
+
+    /**
+     * 上锁并执行代码
+     *
+     * @param key      分布式锁 key
+     * @param function 需要执行的代码块
+     */
+    public void lock(String key, Param0Function function) {
+        execute(key, 0, () -> {
+            function.apply();
+            return null;
+        });
+    }
+
+    /**
+     * 上锁并执行代码
+     *
+     * @param key      分布式锁 key
+     * @param time     获取锁等待时间
+     * @param timeUnit 获取锁等待时间单位
+     * @param function 需要执行的代码块
+     */
+    public void lock(String key, long time, TimeUnit timeUnit, Param0Function function) {
+        execute(key, timeUnit.toNanos(time), () -> {
+            function.apply();
+            return null;
+        });
+    }
+
+    /**
+     * 同时获取多把锁并执行代码. key 排序后依次获取本地锁, 同一 slot 的分布式锁在一个 Lua 脚本中一次获取, 所有 slot 的脚本通过一次管道发送,
+     * 执行结束后同样一次释放. 分布式锁以当前线程为持有者, 与当前线程通过其它方式持有的同一把锁可重入, 持有期间与看门狗一致地定时续期
+     *
+     * @param keys     分布式锁 key, 重复的 key 只获取一次
+     * @param time     获取锁等待时间
+     * @param timeUnit 获取锁等待时间单位
+     * @param supplier 需要执行的代码块
+     * @param <T>      生产者返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T lockAll(Collection<String> keys, long time, TimeUnit timeUnit, Supplier<T> supplier) {
+        return executeAll(keys, timeUnit.toNanos(time), supplier);
+    }
+
+    /**
+     * 同时获取多把锁并执行代码, 无获取锁等待时间, 见 {@link #lockAll(Collection, long, TimeUnit, Supplier)}
+     *
+     * @param keys     分布式锁 key
+     * @param supplier 需要执行的代码块
+     * @param <T>      生产者返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T lockAll(Collection<String> keys, Supplier<T> supplier) {
+        return executeAll(keys, 0, supplier);
+    }
+
+    /**
+     * 同时获取多把锁并执行代码, 无获取锁等待时间
+     *
+     * @param keys     分布式锁 key
+     * @param function 需要执行的代码块
+     */
+    public void lockAll(Collection<String> keys, Param0Function function) {
+        executeAll(keys, 0, () -> {
+            function.apply();
+            return null;
+        });
+    }
+
+    /**
+     * 同时获取多把锁并执行代码
+     *
+     * @param keys     分布式锁 key
+     * @param time     获取锁等待时间
+     * @param timeUnit 获取锁等待时间单位
+     * @param function 需要执行的代码块
+     */
+    public void lockAll(Collection<String> keys, long time, TimeUnit timeUnit, Param0Function function) {
+        executeAll(keys, timeUnit.toNanos(time), () -> {
+            function.apply();
+            return null;
+        });
+    }
+
+    /**
+     * 获取读锁并执行代码. 同一进程内并发的读者共享一次分布式读锁, 当前线程持有同一 key 的写锁时直接执行.
+     * 读写锁的 key 不应与其它方式的锁使用同一 key, 持有读锁的线程不能再获取同一 key 的写锁
+     *
+     * @param key      分布式锁 key
+     * @param time     获取锁等待时间
+     * @param timeUnit 获取锁等待时间单位
+     * @param supplier 需要执行的代码块
+     * @param <T>      生产者返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T readLock(String key, long time, TimeUnit timeUnit, Supplier<T> supplier) {
+        return executeRead(key, timeUnit.toNanos(time), supplier);
+    }
+
+    /**
+     * 获取读锁并执行代码, 无获取锁等待时间
+     *
+     * @param key      分布式锁 key
+     * @param supplier 需要执行的代码块
+     * @param <T>      生产者返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T readLock(String key, Supplier<T> supplier) {
+        return executeRead(key, 0, supplier);
+    }
+
+    /**
+     * 获取读锁并执行代码, 无获取锁等待时间
+     *
+     * @param key      分布式锁 key
+     * @param function 需要执行的代码块
+     */
+    public void readLock(String key, Param0Function function) {
+        executeRead(key, 0, () -> {
+            function.apply();
+            return null;
+        });
+    }
+
+    /**
+     * 获取读锁并执行代码
+     *
+     * @param key      分布式锁 key
+     * @param time     获取锁等待时间
+     * @param timeUnit 获取锁等待时间单位
+     * @param function 需要执行的代码块
+     */
+    public void readLock(String key, long time, TimeUnit timeUnit, Param0Function function) {
+        executeRead(key, timeUnit.toNanos(time), () -> {
+            function.apply();
+            return null;
+        });
+    }
+
+    /**
+     * 获取写锁并执行代码
+     *
+     * @param key      分布式锁 key
+     * @param time     获取锁等待时间
+     * @param timeUnit 获取锁等待时间单位
+     * @param supplier 需要执行的代码块
+     * @param <T>      生产者返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T writeLock(String key, long time, TimeUnit timeUnit, Supplier<T> supplier) {
+        return executeWrite(key, timeUnit.toNanos(time), supplier);
+    }
+
+    /**
+     * 获取写锁并执行代码, 无获取锁等待时间
+     *
+     * @param key      分布式锁 key
+     * @param supplier 需要执行的代码块
+     * @param <T>      生产者返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T writeLock(String key, Supplier<T> supplier) {
+        return executeWrite(key, 0, supplier);
+    }
+
+    /**
+     * 获取写锁并执行代码, 无获取锁等待时间
+     *
+     * @param key      分布式锁 key
+     * @param function 需要执行的代码块
+     */
+    public void writeLock(String key, Param0Function function) {
+        executeWrite(key, 0, () -> {
+            function.apply();
+            return null;
+        });
+    }
+
+    /**
+     * 获取写锁并执行代码
+     *
+     * @param key      分布式锁 key
+     * @param time     获取锁等待时间
+     * @param timeUnit 获取锁等待时间单位
+     * @param function 需要执行的代码块
+     */
+    public void writeLock(String key, long time, TimeUnit timeUnit, Param0Function function) {
+        executeWrite(key, timeUnit.toNanos(time), () -> {
+            function.apply();
+            return null;
+        });
+    }
+
+    /**
+     * 设置信号量的许可数量, 信号量已存在时不修改
+     *
+     * @param key     信号量 key
+     * @param permits 许可数量
+     * @return 设置成功返回 true
+     */
+    public boolean trySetPermits(String key, int permits) {
+        return redisson.getPermitExpirableSemaphore(key).trySetPermits(permits);
+    }
+
+    /**
+     * 获取一个信号量许可并执行代码. 许可有固定租约, 到期后自动归还; 执行结束后有本地线程在等待且租约剩余时间超过一半时, 许可直接交给该线程
+     *
+     * @param key       信号量 key
+     * @param waitTime  获取许可等待时间
+     * @param leaseTime 许可租约时间, 代码块执行时间应小于租约时间的一半
+     * @param timeUnit  时间单位
+     * @param supplier  需要执行的代码块
+     * @param <T>       生产者返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T semaphore(String key, long waitTime, long leaseTime, TimeUnit timeUnit, Supplier<T> supplier) {
+        return executeSemaphore(key, timeUnit.toNanos(waitTime), timeUnit.toMillis(leaseTime), supplier);
+    }
+
+    /**
+     * 获取一个信号量许可并执行代码, 无获取许可等待时间, 见 {@link #semaphore(String, long, long, TimeUnit, Supplier)}
+     *
+     * @param key       信号量 key
+     * @param leaseTime 许可租约时间
+     * @param timeUnit  时间单位
+     * @param supplier  需要执行的代码块
+     * @param <T>       生产者返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T semaphore(String key, long leaseTime, TimeUnit timeUnit, Supplier<T> supplier) {
+        return executeSemaphore(key, 0, timeUnit.toMillis(leaseTime), supplier);
+    }
+
+    /**
+     * 以固定租约上锁并执行代码, 不使用看门狗续约. 代码块收到本次获取锁生成的隔离令牌, 同一 key 的令牌单调递增,
+     * 下游写入时携带令牌, 存储端拒绝令牌小于已记录令牌的写入
+     *
+     * @param key       分布式锁 key
+     * @param waitTime  获取锁等待时间
+     * @param leaseTime 租约时间, 到期后分布式锁自动释放, 代码块执行时间应小于租约时间
+     * @param timeUnit  时间单位
+     * @param function  需要执行的代码块, 参数为隔离令牌
+     * @param <T>       代码块返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T lockFenced(String key, long waitTime, long leaseTime, TimeUnit timeUnit, LongFunction<T> function) {
+        return executeFenced(key, timeUnit.toNanos(waitTime), timeUnit.toMillis(leaseTime), function);
+    }
+
+    /**
+     * 以固定租约上锁并执行代码, 无获取锁等待时间, 见 {@link #lockFenced(String, long, long, TimeUnit, LongFunction)}
+     *
+     * @param key       分布式锁 key
+     * @param leaseTime 租约时间
+     * @param timeUnit  时间单位
+     * @param function  需要执行的代码块, 参数为隔离令牌
+     * @param <T>       代码块返回值泛型
+     * @return 执行的代码块返回值
+     */
+    public <T> T lockFenced(String key, long leaseTime, TimeUnit timeUnit, LongFunction<T> function) {
+        return executeFenced(key, 0, timeUnit.toMillis(leaseTime), function);
+    }
+
+    /**
+     * 异步上锁并执行代码, 不阻塞调用线程. 代码块返回的 CompletionStage 完成后释放锁.
+     * 代码块在获取到锁的 Redisson 响应线程中调用, 只应创建异步任务, 不应阻塞
+     *
+     * @param key      分布式锁 key
+     * @param time     获取锁等待时间
+     * @param timeUnit 获取锁等待时间单位
+     * @param supplier 需要执行的异步代码块
+     * @param <T>      异步代码块返回值泛型
+     * @return 异步代码块完成并释放锁后完成的 Future, 获取锁失败时以 RuntimeException 异常完成
+     */
+    public <T> CompletableFuture<T> lockAsync(String key, long time, TimeUnit timeUnit, Supplier<? extends CompletionStage<T>> supplier) {
+        return executeAsync(key, timeUnit.toNanos(time), supplier);
+    }
+
+    /**
+     * 异步上锁并执行代码, 不阻塞调用线程, 无获取锁等待时间
+     *
+     * @param key      分布式锁 key
+     * @param supplier 需要执行的异步代码块
+     * @param <T>      异步代码块返回值泛型
+     * @return 异步代码块完成并释放锁后完成的 Future
+     */
+    public <T> CompletableFuture<T> lockAsync(String key, Supplier<? extends CompletionStage<T>> supplier) {
+        return executeAsync(key, 0, supplier);
+    }
+
+    /**
+     * 以 Reactor 方式上锁并执行代码. 订阅时开始获取锁, 代码块返回的 Mono 完成后释放锁
+     *
+     * @param key      分布式锁 key
+     * @param time     获取锁等待时间
+     * @param timeUnit 获取锁等待时间单位
+     * @param supplier 需要执行的代码块
+     * @param <T>      代码块返回值泛型
+     */
+    public <T> Mono<T> lockReactive(String key, long time, TimeUnit timeUnit, Supplier<Mono<T>> supplier) {
+        return Mono.defer(() -> Mono.fromFuture(executeAsync(key, timeUnit.toNanos(time), () -> supplier.get().toFuture())));
+    }
+
+    /**
+     * 以 Reactor 方式上锁并执行代码, 无获取锁等待时间
+     *
+     * @param key      分布式锁 key
+     * @param supplier 需要执行的代码块
+     * @param <T>      代码块返回值泛型
+     */
+    public <T> Mono<T> lockReactive(String key, Supplier<Mono<T>> supplier) {
+        return lockReactive(key, 0, TimeUnit.NANOSECONDS, supplier);
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 依次获取本地锁与分布式锁并执行代码, 两者共享获取锁等待时间
+     *
+     * @param key       分布式锁 key
+     * @param waitNanos 获取锁等待时间(纳秒), 0 表示不等待
+     * @param supplier  需要执行的代码块
+     */
+    private <T> T execute(String key, long waitNanos, Supplier<T> supplier) {
+        if (handoff != null) {
+            return executeHandoff(key, waitNanos, supplier);
+        }
+        long start = System.nanoTime();
+        LocalLockTable.LocalLock localLock = localLocks.acquire(key);
+        try {
+            if (!tryLock(localLock, waitNanos)) {
+                throw lockFailed(start, RedisMetrics.SCOPE_LOCAL);
+            }
+            try {
+                RLock lock = redisson.getLock(key);
+                try {
+                    if (!tryLock(lock, waitNanos - (System.nanoTime() - start))) {
+                        throw lockFailed(start, RedisMetrics.SCOPE_REMOTE);
+                    }
+                    metrics.recordLockWait(System.nanoTime() - start, true);
+                    return supplier.get();
+                } finally {
+                    if (lock.isLocked() && lock.isHeldByCurrentThread()) {
+                        lock.unlock();
+                    }
+                }
+            } finally {
+                localLock.unlock();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("get redisson lock failed");
+        } finally {
+            localLocks.release(key, localLock);
+        }
+    }
+
+    /**
+     * 依次获取本地锁与固定租约的分布式锁并执行代码, 两者共享获取锁等待时间. 获取分布式锁与生成隔离令牌在同一个 Lua 脚本中完成,
+     * 释放时只执行一次解锁脚本, 不检查锁状态, 不启动看门狗
+     *
+     * @param key         分布式锁 key
+     * @param waitNanos   获取锁等待时间(纳秒), 0 表示不等待
+     * @param leaseMillis 租约时间(毫秒)
+     * @param function    需要执行的代码块, 参数为隔离令牌
+     */
+    private <T> T executeFenced(String key, long waitNanos, long leaseMillis, LongFunction<T> function) {
+        if (leaseMillis < 1) {
+            throw new IllegalArgumentException("the leaseTime cannot be less than 1 !");
+        }
+        long start = System.nanoTime();
+        LocalLockTable.LocalLock localLock = localLocks.acquire(key);
+        try {
+            if (!tryLock(localLock, waitNanos)) {
+                throw lockFailed(start, RedisMetrics.SCOPE_LOCAL);
+            }
+            try {
+                long ownerId = OWNER_IDS.decrementAndGet();
+                long token = tryLockFenced(key, waitNanos - (System.nanoTime() - start), leaseMillis, ownerId);
+                if (token < 0) {
+                    throw lockFailed(start, RedisMetrics.SCOPE_REMOTE);
+                }
+                metrics.recordLockWait(System.nanoTime() - start, true);
+                try {
+                    return function.apply(token);
+                } finally {
+                    // 租约已过期时释放失败, 不影响代码块的执行结果
+                    redisson.getLock(key).unlockAsync(ownerId).toCompletableFuture().exceptionally(exception -> null).join();
+                }
+            } finally {
+                localLock.unlock();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("get redisson lock failed");
+        } finally {
+            localLocks.release(key, localLock);
+        }
+    }
+
+    /**
+     * 获取固定租约的分布式锁并生成隔离令牌. 锁被其它持有者占用时按指数退避重试, 单次等待不超过锁的剩余租约时间与剩余等待时间
+     *
+     * @return 隔离令牌, 等待超时返回 -1
+     */
+    private long tryLockFenced(String key, long waitNanos, long leaseMillis, long ownerId) throws InterruptedException {
+        RScript script = redisson.getScript(StringCodec.INSTANCE);
+        List<Object> keys = List.of(key, fenceKey(key));
+        String owner = redisson.getId() + ":" + ownerId;
+        long deadline = System.nanoTime() + waitNanos;
+        long interval = 1;
+        while (true) {
+            List<Long> result = script.eval(key, RScript.Mode.READ_WRITE, FENCED_LOCK_SCRIPT, RScript.ReturnType.MULTI, keys, String.valueOf(leaseMillis), owner);
+            if (result.get(0) == 1) {
+                return result.get(1);
+            }
+            if (interval == 1) {
+                metrics.recordLockContention(RedisMetrics.SCOPE_REMOTE);
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return -1;
+            }
+            long ttl = result.get(1);
+            Thread.sleep(Math.max(Math.min(Math.min(interval, remaining), ttl > 0 ? ttl : interval), 1));
+            interval = Math.min(interval * 2, RETRY_INTERVAL);
+        }
+    }
+
+    /**
+     * 隔离令牌计数器的 key, 与锁位于同一个 Redis Cluster slot: 锁的 key 包含 hash tag 时直接追加后缀, 否则以锁的 key 作为 hash tag
+     */
+    static String fenceKey(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                return key + ":fence";
+            }
+        }
+        return "{" + key + "}:fence";
+    }
+
+    /**
+     * 与 RLock 相同的解锁通知频道名称, 与锁位于同一个 Redis Cluster slot
+     */
+    private static String channelName(String key) {
+        return key.contains("{") ? "redisson_lock__channel:" + key : "redisson_lock__channel:{" + key + "}";
+    }
+
+    /**
+     * 获取本地读锁后加入本地读者共享的分布式读锁并执行代码, 两者共享获取锁等待时间
+     *
+     * @param key       分布式锁 key
+     * @param waitNanos 获取锁等待时间(纳秒), 0 表示不等待
+     * @param supplier  需要执行的代码块
+     */
+    private <T> T executeRead(String key, long waitNanos, Supplier<T> supplier) {
+        long start = System.nanoTime();
+        LocalReadWriteLocks.LocalReadWriteLock localLock = localReadWriteLocks.acquire(key);
+        try {
+            if (!tryLock(localLock.readLock(), waitNanos)) {
+                throw lockFailed(start, RedisMetrics.SCOPE_LOCAL);
+            }
+            try {
+                // 当前线程持有写锁时分布式写锁已排斥其它读者, 不需要分布式读锁
+                ReadHold hold = localLock.isWriteLockedByCurrentThread() ? null : joinReadHold(localLock, key, start, waitNanos);
+                metrics.recordLockWait(System.nanoTime() - start, true);
+                try {
+                    return supplier.get();
+                } finally {
+                    if (hold != null) {
+                        leaveReadHold(localLock, hold);
+                    }
+                }
+            } finally {
+                localLock.readLock().unlock();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("get redisson lock failed");
+        } finally {
+            localReadWriteLocks.release(key, localLock);
+        }
+    }
+
+    /**
+     * 加入本地读者共享的分布式读锁. 第一个读者以独有的持有者 ID 获取分布式读锁 (看门狗续约), 其余读者在各自的剩余等待时间内等待其结果.
+     * 附加对象互斥锁只在登记与注销读者时短暂持有, 不跨越 Redis 请求. 第一个读者获取失败 (例如它的等待时间更短) 时, 其余读者在剩余等待时间内重新获取
+     *
+     * @return 加入的分布式读锁, 之后必须调用 {@link #leaveReadHold(LocalReadWriteLocks.LocalReadWriteLock, ReadHold)}
+     */
+    private ReadHold joinReadHold(LocalReadWriteLocks.LocalReadWriteLock localLock, String key, long start, long waitNanos) throws InterruptedException {
+        ReentrantLock attachmentLock = localLock.getAttachmentLock();
+        while (true) {
+            ReadHold hold;
+            boolean first;
+            attachmentLock.lock();
+            try {
+                hold = (ReadHold) localLock.getAttachment();
+                first = hold == null;
+                if (first) {
+                    hold = new ReadHold(redisson.getReadWriteLock(key).readLock(), OWNER_IDS.decrementAndGet());
+                    localLock.setAttachment(hold);
+                }
+                hold.readers++;
+            } finally {
+                attachmentLock.unlock();
+            }
+            long remaining = waitNanos - (System.nanoTime() - start);
+            if (first) {
+                boolean acquired = false;
+                try {
+                    acquired = tryLock(hold.lock, remaining, -1, hold.ownerId);
+                } finally {
+                    if (!acquired) {
+                        abandonReadHold(localLock, hold);
+                    }
+                    hold.acquired.complete(acquired);
+                }
+                if (!acquired) {
+                    throw lockFailed(start, RedisMetrics.SCOPE_REMOTE);
+                }
+                return hold;
+            }
+            Boolean acquired;
+            try {
+                acquired = remaining > 0 ? hold.acquired.get(remaining, TimeUnit.NANOSECONDS) : hold.acquired.getNow(null);
+            } catch (TimeoutException exception) {
+                acquired = null;
+            } catch (ExecutionException exception) {
+                acquired = false;
+            } catch (InterruptedException exception) {
+                leaveReadHold(localLock, hold);
+                throw exception;
+            }
+            if (acquired == null) {
+                leaveReadHold(localLock, hold);
+                throw lockFailed(start, RedisMetrics.SCOPE_REMOTE);
+            }
+            if (acquired) {
+                return hold;
+            }
+        }
+    }
+
+    /**
+     * 第一个读者获取分布式读锁失败, 移除该读锁, 之后的读者重新获取
+     */
+    private void abandonReadHold(LocalReadWriteLocks.LocalReadWriteLock localLock, ReadHold hold) {
+        ReentrantLock attachmentLock = localLock.getAttachmentLock();
+        attachmentLock.lock();
+        try {
+            if (localLock.getAttachment() == hold) {
+                localLock.setAttachment(null);
+            }
+        } finally {
+            attachmentLock.unlock();
+        }
+    }
+
+    /**
+     * 退出本地读者共享的分布式读锁, 最后一个读者在附加对象互斥锁之外释放分布式读锁
+     */
+    private void leaveReadHold(LocalReadWriteLocks.LocalReadWriteLock localLock, ReadHold hold) {
+        ReentrantLock attachmentLock = localLock.getAttachmentLock();
+        boolean last;
+        attachmentLock.lock();
+        try {
+            last = --hold.readers == 0 && hold.acquired.getNow(false);
+            if (last && localLock.getAttachment() == hold) {
+                localLock.setAttachment(null);
+            }
+        } finally {
+            attachmentLock.unlock();
+        }
+        if (last) {
+            hold.lock.unlockAsync(hold.ownerId).toCompletableFuture().exceptionally(exception -> null).join();
+        }
+    }
+
+    /**
+     * 依次获取本地写锁与分布式写锁并执行代码, 两者共享获取锁等待时间
+     *
+     * @param key       分布式锁 key
+     * @param waitNanos 获取锁等待时间(纳秒), 0 表示不等待
+     * @param supplier  需要执行的代码块
+     */
+    private <T> T executeWrite(String key, long waitNanos, Supplier<T> supplier) {
+        long start = System.nanoTime();
+        LocalReadWriteLocks.LocalReadWriteLock localLock = localReadWriteLocks.acquire(key);
+        try {
+            if (!tryLock(localLock.writeLock(), waitNanos)) {
+                throw lockFailed(start, RedisMetrics.SCOPE_LOCAL);
+            }
+            try {
+                RLock lock = redisson.getReadWriteLock(key).writeLock();
+                try {
+                    if (!tryLock(lock, waitNanos - (System.nanoTime() - start))) {
+                        throw lockFailed(start, RedisMetrics.SCOPE_REMOTE);
+                    }
+                    metrics.recordLockWait(System.nanoTime() - start, true);
+                    return supplier.get();
+                } finally {
+                    if (lock.isHeldByCurrentThread()) {
+                        lock.unlock();
+                    }
+                }
+            } finally {
+                localLock.writeLock().unlock();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("get redisson lock failed");
+        } finally {
+            localReadWriteLocks.release(key, localLock);
+        }
+    }
 
     /**
-     * 上锁并执行代码
+     * 获取信号量许可并执行代码, 执行结束后交给本地等待的线程或归还 Redis
      *
-     * @param key      分布式锁 key
-     * @param time     获取锁等待时间
-     * @param timeUnit 获取锁等待时间单位
-     * @param supplier 需要执行的代码块
-     * @param <T>      生产者返回值泛型
-     * @return 执行的代码块返回值
+     * @param key         信号量 key
+     * @param waitNanos   获取许可等待时间(纳秒), 0 表示不等待
+     * @param leaseMillis 许可租约时间(毫秒)
+     * @param supplier    需要执行的代码块
      */
-    public <T> T lock(String key, long time, TimeUnit timeUnit, Supplier<T> supplier) {
-        long t1 = System.currentTimeMillis();
-        return localLock(key, time, timeUnit, () -> {
-            RLock lock = redisson.getLock(key);
+    private <T> T executeSemaphore(String key, long waitNanos, long leaseMillis, Supplier<T> supplier) {
+        if (leaseMillis < 1) {
+            throw new IllegalArgumentException("the leaseTime cannot be less than 1 !");
+        }
+        long start = System.nanoTime();
+        Permit permit;
+        try {
+            permit = acquirePermit(key, waitNanos, leaseMillis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("get redisson lock failed");
+        }
+        if (permit == null) {
+            throw lockFailed(start, RedisMetrics.SCOPE_REMOTE);
+        }
+        metrics.recordLockWait(System.nanoTime() - start, true);
+        try {
+            return supplier.get();
+        } finally {
+            releasePermit(permit);
+        }
+    }
+
+    /**
+     * 获取信号量许可. 先不等待地尝试一次, 失败时同时在本地排队等待交接与向 Redis 等待许可, 先到者生效, 后到的许可交给下一个等待者或归还 Redis
+     *
+     * @return 许可, 等待超时返回 null
+     */
+    private Permit acquirePermit(String key, long waitNanos, long leaseMillis) throws InterruptedException {
+        RPermitExpirableSemaphore semaphore = redisson.getPermitExpirableSemaphore(key);
+        long leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+        // 以发出请求的时间作为租约开始时间, 本地计算的到期时间不晚于 Redis 中的到期时间
+        long requestedAt = System.nanoTime();
+        String permitId = await(semaphore.tryAcquireAsync(0, leaseMillis, TimeUnit.MILLISECONDS));
+        if (permitId != null) {
+            return new Permit(key, semaphore, permitId, requestedAt + leaseNanos, leaseNanos);
+        }
+        metrics.recordLockContention(RedisMetrics.SCOPE_REMOTE);
+        long remaining = waitNanos - (System.nanoTime() - requestedAt);
+        if (remaining <= 0) {
+            return null;
+        }
+        CompletableFuture<Permit> local = permitHandoffs.register(key);
+        try {
+            long remoteRequestedAt = System.nanoTime();
+            semaphore.tryAcquireAsync(TimeUnit.NANOSECONDS.toMillis(remaining), leaseMillis, TimeUnit.MILLISECONDS).whenComplete((id, exception) -> {
+                if (exception != null) {
+                    local.completeExceptionally(exception);
+                } else if (id != null) {
+                    Permit permit = new Permit(key, semaphore, id, remoteRequestedAt + leaseNanos, leaseNanos);
+                    if (!local.complete(permit)) {
+                        releasePermit(permit);
+                    }
+                }
+            });
+            local.completeOnTimeout(null, remaining, TimeUnit.NANOSECONDS);
             try {
-                if (lock.tryLock(System.currentTimeMillis() - t1, timeUnit)) {
-                    return supplier.get();
-                } else {
-                    throw new RuntimeException("get redisson lock failed");
+                return local.get();
+            } catch (ExecutionException exception) {
+                if (exception.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
                 }
-            } catch (InterruptedException e) {
-                throw new RuntimeException("get redisson lock failed");
-            } finally {
-                if (lock.isLocked() && lock.isHeldByCurrentThread()) {
-                    lock.unlock();
+                throw new RuntimeException(exception.getCause());
+            } catch (InterruptedException exception) {
+                // 放弃等待, 已收到的许可交给下一个等待者或归还 Redis
+                if (!local.complete(null)) {
+                    Permit permit = local.getNow(null);
+                    if (permit != null) {
+                        releasePermit(permit);
+                    }
                 }
+                throw exception;
             }
-        });
+        } finally {
+            permitHandoffs.remove(key, local);
+        }
     }
 
     /**
-     * 上锁并执行代码
+     * 许可租约剩余时间超过一半且有本地线程在等待时直接交给该线程, 否则异步归还 Redis
+     */
+    private void releasePermit(Permit permit) {
+        if (permit.isSufficient(System.nanoTime()) && permitHandoffs.offer(permit.key, permit)) {
+            metrics.recordLockHandoff();
+            return;
+        }
+        // 租约已过期时归还失败, 不影响代码块的执行结果
+        permit.semaphore.tryReleaseAsync(permit.permitId);
+    }
+
+    /**
+     * 按本地锁的顺序号依次获取去重后的本地锁 (分段模式下多个 key 可能共享同一个本地锁), 再一次获取所有分布式锁并执行代码, 共享获取锁等待时间
      *
-     * @param key      分布式锁 key
-     * @param supplier 需要执行的代码块
-     * @param <T>      生产者返回值泛型
-     * @return 执行的代码块返回值
+     * @param keys      分布式锁 key
+     * @param waitNanos 获取锁等待时间(纳秒), 0 表示不等待
+     * @param supplier  需要执行的代码块
      */
-    public <T> T lock(String key, Supplier<T> supplier) {
-        return localLock(key, () -> {
-            RLock lock = redisson.getLock(key);
-            try {
-                if (lock.tryLock()) {
-                    return supplier.get();
-                } else {
-                    throw new RuntimeException("get redisson lock failed");
+    private <T> T executeAll(Collection<String> keys, long waitNanos, Supplier<T> supplier) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("the keys cannot be empty !");
+        }
+        long start = System.nanoTime();
+        List<String> sortedKeys = new ArrayList<>(new TreeSet<>(keys));
+        List<LocalLockTable.LocalLock> acquired = new ArrayList<>(sortedKeys.size());
+        for (String key : sortedKeys) {
+            acquired.add(localLocks.acquire(key));
+        }
+        List<LocalLockTable.LocalLock> ordered = LocalLockTable.lockOrder(acquired);
+        int locked = 0;
+        try {
+            while (locked < ordered.size()) {
+                LocalLockTable.LocalLock localLock = ordered.get(locked);
+                if (!tryLock(localLock, waitNanos - (System.nanoTime() - start))) {
+                    throw lockFailed(start, RedisMetrics.SCOPE_LOCAL);
                 }
-            } finally {
-                if (lock.isLocked() && lock.isHeldByCurrentThread()) {
-                    lock.unlock();
+                locked++;
+                // 本地交接租约模式下上一个持有者可能保留了分布式锁, 先释放
+                if (handoff != null && localLock.getHoldCount() == 1) {
+                    releaseLease(localLock);
                 }
             }
-        });
+            MultiLock lock = new MultiLock(sortedKeys);
+            if (!tryLockAll(lock, waitNanos - (System.nanoTime() - start))) {
+                throw lockFailed(start, RedisMetrics.SCOPE_REMOTE);
+            }
+            metrics.recordLockWait(System.nanoTime() - start, true);
+            try {
+                return supplier.get();
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("get redisson lock failed");
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                ordered.get(i).unlock();
+            }
+            for (int i = 0; i < sortedKeys.size(); i++) {
+                localLocks.release(sortedKeys.get(i), acquired.get(i));
+            }
+        }
     }
 
     /**
-     * 上锁并执行代码
+     * 获取所有分布式锁. 有锁被占用时按指数退避重试, 单次等待不超过被占用的锁的剩余租约时间与剩余等待时间
+     */
+    private boolean tryLockAll(MultiLock lock, long waitNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + waitNanos;
+        long interval = 1;
+        while (true) {
+            long ttl = lock.tryLock();
+            if (ttl < 0) {
+                lock.scheduleRenewal();
+                return true;
+            }
+            if (interval == 1) {
+                metrics.recordLockContention(RedisMetrics.SCOPE_REMOTE);
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.max(Math.min(Math.min(interval, remaining), ttl > 0 ? ttl : interval), 1));
+            interval = Math.min(interval * 2, RETRY_INTERVAL);
+        }
+    }
+
+    /**
+     * 本地交接租约模式: 获取本地锁后优先使用上一个持有者交接的租约, 没有可用租约时以本次调用独有的持有者 ID 获取固定租约时间的分布式锁.
+     * 执行结束后有本地线程在等待, 连续交接次数未超过 maxHandoffs 且租约剩余时间超过一半时保留分布式锁, 否则释放
      *
-     * @param key      分布式锁 key
-     * @param function 需要执行的代码块
+     * @param key       分布式锁 key
+     * @param waitNanos 获取锁等待时间(纳秒), 0 表示不等待
+     * @param supplier  需要执行的代码块
      */
-    public void lock(String key, Param0Function function) {
-        localLock(key, () -> {
-            RLock lock = redisson.getLock(key);
+    private <T> T executeHandoff(String key, long waitNanos, Supplier<T> supplier) {
+        long start = System.nanoTime();
+        LocalLockTable.LocalLock localLock = localLocks.acquire(key);
+        try {
+            if (!tryLock(localLock, waitNanos)) {
+                releaseAbandonedLease(localLock);
+                throw lockFailed(start, RedisMetrics.SCOPE_LOCAL);
+            }
             try {
-                if (lock.tryLock()) {
-                    function.apply();
-                } else {
-                    throw new RuntimeException("get redisson lock failed");
+                if (localLock.getHoldCount() > 1) {
+                    return executeReentrant(localLock, key, start, waitNanos, supplier);
                 }
-            } finally {
-                if (lock.isLocked() && lock.isHeldByCurrentThread()) {
-                    lock.unlock();
+                takeLease(localLock, key, start, waitNanos);
+                metrics.recordLockWait(System.nanoTime() - start, true);
+                try {
+                    return supplier.get();
+                } finally {
+                    handoffOrRelease(localLock);
                 }
+            } finally {
+                localLock.unlock();
             }
-        });
+        } catch (InterruptedException e) {
+            throw new RuntimeException("get redisson lock failed");
+        } finally {
+            localLocks.release(key, localLock);
+        }
     }
 
     /**
-     * 上锁并执行代码
-     *
-     * @param key      分布式锁 key
-     * @param time     获取锁等待时间
-     * @param timeUnit 获取锁等待时间单位
-     * @param function 需要执行的代码块
+     * 重入本地锁时执行代码块, 不更换外层调用持有的租约. 同一 key 的租约已不充足时以相同的持有者 ID 续期;
+     * 分段本地锁中共享分段的其它 key 不使用外层租约, 以当前线程为持有者单独获取可重入的分布式锁
      */
-    public void lock(String key, long time, TimeUnit timeUnit, Param0Function function) {
-        long t1 = System.currentTimeMillis();
-        localLock(key, time, timeUnit, () -> {
+    private <T> T executeReentrant(LocalLockTable.LocalLock localLock, String key, long start, long waitNanos, Supplier<T> supplier) throws InterruptedException {
+        Lease lease = (Lease) localLock.getAttachment();
+        if (lease == null || !lease.key.equals(key)) {
             RLock lock = redisson.getLock(key);
             try {
-                if (lock.tryLock(System.currentTimeMillis() - t1, timeUnit)) {
-                    function.apply();
-                } else {
-                    throw new RuntimeException("get redisson lock failed");
+                if (!tryLock(lock, waitNanos - (System.nanoTime() - start))) {
+                    throw lockFailed(start, RedisMetrics.SCOPE_REMOTE);
                 }
-            } catch (InterruptedException e) {
-                throw new RuntimeException("get redisson lock failed");
+                metrics.recordLockWait(System.nanoTime() - start, true);
+                return supplier.get();
             } finally {
                 if (lock.isLocked() && lock.isHeldByCurrentThread()) {
                     lock.unlock();
                 }
             }
-        });
+        }
+        if (!lease.isSufficient(System.nanoTime()) && !renewLease(lease)) {
+            throw lockFailed(start, RedisMetrics.SCOPE_REMOTE);
+        }
+        metrics.recordLockWait(System.nanoTime() - start, true);
+        return supplier.get();
     }
 
-    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * 以租约的持有者 ID 续期分布式锁, 租约已过期被其它持有者获取时返回 false
+     */
+    private boolean renewLease(Lease lease) {
+        long requestedAt = System.nanoTime();
+        Long renewed = redisson.getScript(StringCodec.INSTANCE).eval(lease.key, RScript.Mode.READ_WRITE, RENEW_ALL_SCRIPT, RScript.ReturnType.INTEGER,
+                List.of(lease.key), String.valueOf(handoff.getLeaseTime()), redisson.getId() + ":" + lease.ownerId);
+        if (renewed == null || renewed == 0) {
+            return false;
+        }
+        lease.expireAt = requestedAt + leaseNanos;
+        return true;
+    }
 
     /**
-     * 上锁并执行代码
-     *
-     * @param key      分布式锁 key
-     * @param function 需要执行的代码块
+     * 最外层调用获取本地锁附加的租约, 租约属于其它 key (分段本地锁) 或已不充足时先释放该租约再重新获取分布式锁
      */
-    private void localLock(String key, Param0Function function) {
-        ReentrantLock lock = reentrantLockMap.computeIfAbsent(key, k -> new ReentrantLock());
-        try {
-            if (lock.tryLock()) {
-                function.apply();
-            } else {
-                throw new RuntimeException("get redisson lock failed");
-            }
-        } finally {
-            if (lock.isLocked() && lock.isHeldByCurrentThread()) {
-                lock.unlock();
+    private void takeLease(LocalLockTable.LocalLock localLock, String key, long start, long waitNanos) throws InterruptedException {
+        Lease lease = (Lease) localLock.getAttachment();
+        if (lease != null) {
+            if (lease.key.equals(key) && lease.isSufficient(System.nanoTime())) {
+                metrics.recordLockHandoff();
+                return;
             }
+            releaseLease(localLock);
         }
-        if (!lock.isLocked()) {
-            reentrantLockMap.remove(key);
+        RLock lock = redisson.getLock(key);
+        long ownerId = OWNER_IDS.decrementAndGet();
+        // 以发出请求的时间作为租约开始时间, 本地计算的到期时间不晚于 Redis 中的到期时间
+        long requestedAt = System.nanoTime();
+        if (!tryLock(lock, waitNanos - (requestedAt - start), handoff.getLeaseTime(), ownerId)) {
+            throw lockFailed(start, RedisMetrics.SCOPE_REMOTE);
         }
+        localLock.setAttachment(new Lease(key, lock, ownerId, requestedAt + leaseNanos));
     }
 
     /**
-     * 上锁并执行代码
-     *
-     * @param key      分布式锁 key
-     * @param time     获取锁等待时间
-     * @param timeUnit 获取锁等待时间单位
-     * @param function 需要执行的代码块
+     * 有本地线程在等待且租约充足时保留租约交给下一个持有者, 否则释放分布式锁. 只由最外层调用执行
+     */
+    private void handoffOrRelease(LocalLockTable.LocalLock localLock) {
+        Lease lease = (Lease) localLock.getAttachment();
+        if (lease == null) {
+            return;
+        }
+        if (localLock.hasQueuedThreads() && lease.handoffs < handoff.getMaxHandoffs() && lease.isSufficient(System.nanoTime())) {
+            lease.handoffs++;
+            return;
+        }
+        releaseLease(localLock);
+    }
+
+    /**
+     * 释放本地锁附加的租约
+     */
+    private void releaseLease(LocalLockTable.LocalLock localLock) {
+        Lease lease = (Lease) localLock.getAttachment();
+        if (lease == null) {
+            return;
+        }
+        localLock.setAttachment(null);
+        // 租约已过期时释放失败, 与看门狗模式一致不影响代码块的执行结果
+        lease.lock.unlockAsync(lease.ownerId).toCompletableFuture().exceptionally(exception -> null).join();
+    }
+
+    /**
+     * 等待本地锁超时后, 若锁已空闲但仍附加着交接给本线程的租约, 则释放该租约, 避免分布式锁在租约到期前一直被占用
      */
-    private void localLock(String key, long time, TimeUnit timeUnit, Param0Function function) {
-        ReentrantLock lock = reentrantLockMap.computeIfAbsent(key, k -> new ReentrantLock());
+    private void releaseAbandonedLease(LocalLockTable.LocalLock localLock) {
+        if (!localLock.tryLock()) {
+            return;
+        }
         try {
-            if (lock.tryLock(time, timeUnit)) {
-                function.apply();
-            } else {
-                throw new RuntimeException("get redisson lock failed");
+            Lease lease = (Lease) localLock.getAttachment();
+            if (lease != null && !localLock.hasQueuedThreads()) {
+                localLock.setAttachment(null);
+                lease.lock.unlockAsync(lease.ownerId);
             }
-        } catch (InterruptedException e) {
-            throw new RuntimeException("get redisson lock failed");
         } finally {
-            if (lock.isLocked() && lock.isHeldByCurrentThread()) {
-                lock.unlock();
+            localLock.unlock();
+        }
+    }
+
+    /**
+     * 依次异步获取本地异步锁与分布式锁并执行异步代码块, 两者共享获取锁等待时间. 分布式锁使用本次调用独有的持有者 ID, 可在任意线程释放
+     *
+     * @param key       分布式锁 key
+     * @param waitNanos 获取锁等待时间(纳秒), 0 表示不等待
+     * @param supplier  需要执行的异步代码块
+     */
+    private <T> CompletableFuture<T> executeAsync(String key, long waitNanos, Supplier<? extends CompletionStage<T>> supplier) {
+        long start = System.nanoTime();
+        long ownerId = OWNER_IDS.decrementAndGet();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<Boolean> localLock = localAsyncLocks.acquire(key, waitNanos);
+        if (!localLock.isDone()) {
+            metrics.recordLockContention(RedisMetrics.SCOPE_LOCAL);
+        }
+        localLock.thenAccept(localAcquired -> {
+            if (!localAcquired) {
+                result.completeExceptionally(lockFailed(start, RedisMetrics.SCOPE_LOCAL));
+                return;
+            }
+            RLock lock = redisson.getLock(key);
+            tryLockAsync(lock, waitNanos - (System.nanoTime() - start), ownerId).whenComplete((acquired, exception) -> {
+                if (exception != null || !acquired) {
+                    localAsyncLocks.release(key);
+                    result.completeExceptionally(exception != null ? exception : lockFailed(start, RedisMetrics.SCOPE_REMOTE));
+                    return;
+                }
+                metrics.recordLockWait(System.nanoTime() - start, true);
+                CompletionStage<T> stage;
+                try {
+                    stage = supplier.get();
+                } catch (RuntimeException supplierException) {
+                    stage = CompletableFuture.failedFuture(supplierException);
+                }
+                // 租约已过期等原因导致释放分布式锁失败时与同步方式一致, 不影响代码块的执行结果
+                stage.whenComplete((value, failure) -> lock.unlockAsync(ownerId).whenComplete((v, unlockException) -> {
+                    localAsyncLocks.release(key);
+                    if (failure != null) {
+                        result.completeExceptionally(failure);
+                    } else {
+                        result.complete(value);
+                    }
+                }));
+            });
+        });
+        return result;
+    }
+
+    /**
+     * 异步获取分布式锁. 先不等待地尝试一次, 失败时记录一次分布式竞争后再等待剩余时间
+     */
+    private CompletionStage<Boolean> tryLockAsync(RLock lock, long waitNanos, long ownerId) {
+        return lock.tryLockAsync(0, -1, TimeUnit.MILLISECONDS, ownerId).thenCompose(acquired -> {
+            if (acquired) {
+                return CompletableFuture.completedFuture(true);
             }
-            if (!lock.isLocked()) {
-                reentrantLockMap.remove(key);
+            metrics.recordLockContention(RedisMetrics.SCOPE_REMOTE);
+            if (waitNanos <= 0) {
+                return CompletableFuture.completedFuture(false);
             }
+            return lock.tryLockAsync(TimeUnit.NANOSECONDS.toMillis(waitNanos), -1, TimeUnit.MILLISECONDS, ownerId);
+        });
+    }
+
+    /**
+     * 获取本地锁. 先不等待地尝试一次, 失败时记录一次本地竞争后再等待
+     */
+    private boolean tryLock(Lock lock, long waitNanos) throws InterruptedException {
+        if (lock.tryLock()) {
+            return true;
+        }
+        metrics.recordLockContention(RedisMetrics.SCOPE_LOCAL);
+        return waitNanos > 0 && lock.tryLock(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 获取分布式锁. 先不等待地尝试一次, 失败时记录一次分布式竞争后再等待剩余时间
+     */
+    private boolean tryLock(RLock lock, long waitNanos) throws InterruptedException {
+        if (lock.tryLock()) {
+            return true;
         }
+        metrics.recordLockContention(RedisMetrics.SCOPE_REMOTE);
+        return waitNanos > 0 && lock.tryLock(TimeUnit.NANOSECONDS.toMillis(waitNanos), TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * 以指定的持有者 ID 获取分布式锁. 先不等待地尝试一次, 失败时记录一次分布式竞争后再等待剩余时间
+     *
+     * @param leaseMillis 租约时间(毫秒), -1 表示使用看门狗续约
+     */
+    private boolean tryLock(RLock lock, long waitNanos, long leaseMillis, long ownerId) throws InterruptedException {
+        if (await(lock.tryLockAsync(0, leaseMillis, TimeUnit.MILLISECONDS, ownerId))) {
+            return true;
+        }
+        metrics.recordLockContention(RedisMetrics.SCOPE_REMOTE);
+        return waitNanos > 0 && await(lock.tryLockAsync(TimeUnit.NANOSECONDS.toMillis(waitNanos), leaseMillis, TimeUnit.MILLISECONDS, ownerId));
+    }
 
-    private <T> T localLock(String key, Supplier<T> supplier) {
-        ReentrantLock lock = reentrantLockMap.computeIfAbsent(key, k -> new ReentrantLock());
+    private static <V> V await(RFuture<V> future) throws InterruptedException {
         try {
-            if (lock.tryLock()) {
-                return supplier.get();
-            } else {
-                throw new RuntimeException("get reentrant lock failed");
+            return future.get();
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
             }
-        } finally {
-            if (lock.isLocked() && lock.isHeldByCurrentThread()) {
-                lock.unlock();
+            throw new RuntimeException(exception.getCause());
+        }
+    }
+
+    private RuntimeException lockFailed(long start, String scope) {
+        metrics.recordLockFailure(scope);
+        metrics.recordLockWait(System.nanoTime() - start, false);
+        return new RuntimeException("get redisson lock failed");
+    }
+
+    /**
+     * 本地交接租约模式下持有的分布式锁, 作为本地锁的附加对象在同一进程内的线程之间交接. 只由本地锁的持有者读写
+     */
+    private final class Lease {
+
+        private final String key;
+
+        private final RLock lock;
+
+        private final long ownerId;
+
+        /**
+         * 租约到期时间 (System.nanoTime), 重入时续期
+         */
+        private long expireAt;
+
+        /**
+         * 已连续本地交接的次数
+         */
+        private int handoffs;
+
+        private Lease(String key, RLock lock, long ownerId, long expireAt) {
+            this.key = key;
+            this.lock = lock;
+            this.ownerId = ownerId;
+            this.expireAt = expireAt;
+        }
+
+        /**
+         * 租约剩余时间是否超过租约时间的一半
+         */
+        private boolean isSufficient(long now) {
+            return expireAt - now > leaseNanos / 2;
+        }
+
+    }
+
+    /**
+     * 同一进程内读者共享的分布式读锁, 作为本地读写锁的附加对象. readers 只在持有本地读写锁的附加对象互斥锁时读写
+     */
+    private static final class ReadHold {
+
+        private final RLock lock;
+
+        private final long ownerId;
+
+        /**
+         * 第一个读者获取分布式读锁的结果
+         */
+        private final CompletableFuture<Boolean> acquired = new CompletableFuture<>();
+
+        /**
+         * 共享分布式读锁的本地读者数量 (含重入与等待中的读者)
+         */
+        private int readers;
+
+        private ReadHold(RLock lock, long ownerId) {
+            this.lock = lock;
+            this.ownerId = ownerId;
+        }
+
+    }
+
+    /**
+     * 持有的信号量许可, 可以在同一进程内的线程之间交接
+     */
+    private static final class Permit {
+
+        private final String key;
+
+        private final RPermitExpirableSemaphore semaphore;
+
+        private final String permitId;
+
+        /**
+         * 租约到期时间 (System.nanoTime), 重入时续期
+         */
+        private long expireAt;
+
+        private final long leaseNanos;
+
+        private Permit(String key, RPermitExpirableSemaphore semaphore, String permitId, long expireAt, long leaseNanos) {
+            this.key = key;
+            this.semaphore = semaphore;
+            this.permitId = permitId;
+            this.expireAt = expireAt;
+            this.leaseNanos = leaseNanos;
+        }
+
+        /**
+         * 租约剩余时间是否超过租约时间的一半
+         */
+        private boolean isSufficient(long now) {
+            return expireAt - now > leaseNanos / 2;
+        }
+
+    }
+
+    /**
+     * 批量方式持有的一组分布式锁, 按 Redis Cluster slot 分组 (非集群模式只有一组), 持有者为获取锁的线程
+     */
+    private final class MultiLock {
+
+        /**
+         * 每个 slot 的锁 key
+         */
+        private final List<List<Object>> groups = new ArrayList<>();
+
+        private final String owner = redisson.getId() + ":" + Thread.currentThread().getId();
+
+        private volatile boolean released;
+
+        private MultiLock(List<String> sortedKeys) {
+            if (!cluster) {
+                groups.add(new ArrayList<>(sortedKeys));
+                return;
             }
-            if (!lock.isLocked()) {
-                reentrantLockMap.remove(key);
+            Map<Integer, List<Object>> slots = new TreeMap<>();
+            for (String key : sortedKeys) {
+                slots.computeIfAbsent(RedisMQPartitions.slot(key), slot -> new ArrayList<>()).add(key);
             }
+            groups.addAll(slots.values());
         }
-    }
 
-    private <T> T localLock(String key, long time, TimeUnit timeUnit, Supplier<T> supplier) {
-        ReentrantLock lock = reentrantLockMap.computeIfAbsent(key, k -> new ReentrantLock());
-        try {
-            if (lock.tryLock(time, timeUnit)) {
-                return supplier.get();
-            } else {
-                throw new RuntimeException("get redisson lock failed");
+        /**
+         * 通过一次管道在每个 slot 执行一次加锁脚本, 部分 slot 加锁失败时释放已获取的 slot
+         *
+         * @return 全部获取成功返回 -1, 否则返回被占用的锁的剩余租约时间(毫秒), 未知时返回 0
+         */
+        private long tryLock() {
+            List<?> responses;
+            try {
+                responses = execute(LOCK_ALL_SCRIPT, RScript.ReturnType.MULTI, groups, String.valueOf(watchdogTimeout), owner);
+            } catch (RuntimeException exception) {
+                // 无法确定哪些 slot 已加锁, 全部释放 (未持有的锁不受影响)
+                try {
+                    unlock(groups);
+                } catch (RuntimeException unlockException) {
+                    exception.addSuppressed(unlockException);
+                }
+                throw exception;
             }
-        } catch (InterruptedException e) {
-            throw new RuntimeException("get redisson lock failed");
-        } finally {
-            if (lock.isLocked() && lock.isHeldByCurrentThread()) {
-                lock.unlock();
+            List<List<Object>> locked = new ArrayList<>(groups.size());
+            long ttl = -1;
+            for (int i = 0; i < groups.size(); i++) {
+                List<?> result = (List<?>) responses.get(i);
+                if ((Long) result.get(0) == 1) {
+                    locked.add(groups.get(i));
+                } else {
+                    ttl = Math.max((Long) result.get(1), 0);
+                }
+            }
+            if (ttl >= 0 && !locked.isEmpty()) {
+                unlock(locked);
+            }
+            return ttl;
+        }
+
+        /**
+         * 通过一次管道释放所有 slot 的锁, 并停止续期
+         */
+        private void unlock() {
+            released = true;
+            unlock(groups);
+        }
+
+        private void unlock(List<List<Object>> lockedGroups) {
+            String publishCommand = redisson instanceof Redisson instance
+                    ? instance.getConnectionManager().getSubscribeService().getPublishCommand() : "publish";
+            List<List<Object>> unlockGroups = new ArrayList<>(lockedGroups.size());
+            for (List<Object> group : lockedGroups) {
+                List<Object> keys = new ArrayList<>(group);
+                for (Object key : group) {
+                    keys.add(channelName((String) key));
+                }
+                unlockGroups.add(keys);
+            }
+            execute(UNLOCK_ALL_SCRIPT, RScript.ReturnType.INTEGER, unlockGroups, String.valueOf(watchdogTimeout), owner, publishCommand);
+        }
+
+        /**
+         * 与 RLock 看门狗一致, 每隔租约时间的三分之一续期一次, 直到释放或锁已全部丢失
+         */
+        private void scheduleRenewal() {
+            CompletableFuture.delayedExecutor(watchdogTimeout / 3, TimeUnit.MILLISECONDS).execute(this::renew);
+        }
+
+        private void renew() {
+            if (released) {
+                return;
             }
-            if (!lock.isLocked()) {
-                reentrantLockMap.remove(key);
+            createBatch(RENEW_ALL_SCRIPT, RScript.ReturnType.INTEGER, groups, String.valueOf(watchdogTimeout), owner).executeAsync().whenComplete((result, exception) -> {
+                if (exception != null) {
+                    log.error("Can't update lock expiration. Keys:{}", groups, exception);
+                    return;
+                }
+                long renewed = 0;
+                for (Object response : result.getResponses()) {
+                    renewed += (Long) response;
+                }
+                if (renewed > 0) {
+                    scheduleRenewal();
+                }
+            });
+        }
+
+        private List<?> execute(String script, RScript.ReturnType returnType, List<List<Object>> keyGroups, Object... args) {
+            BatchResult<?> result = createBatch(script, returnType, keyGroups, args).execute();
+            return result.getResponses();
+        }
+
+        private RBatch createBatch(String script, RScript.ReturnType returnType, List<List<Object>> keyGroups, Object... args) {
+            RBatch batch = redisson.createBatch(BatchOptions.defaults());
+            RScriptAsync scriptAsync = batch.getScript(StringCodec.INSTANCE);
+            for (List<Object> keys : keyGroups) {
+                scriptAsync.evalAsync((String) keys.get(0), RScript.Mode.READ_WRITE, script, returnType, keys, args);
             }
+            return batch;
         }
+
     }
 
-}
\ No newline at end of file
+}
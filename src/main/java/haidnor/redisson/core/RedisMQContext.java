@@ -0,0 +1,48 @@
+package haidnor.redisson.core;
+
+import org.slf4j.MDC;
+
+/**
+ * 消费上下文. 消费接口执行期间可通过 {@link #current()} 获取正在消费的消息的信封, 同时信封中的链路追踪 ID 写入 MDC
+ */
+public class RedisMQContext {
+
+    private static final ThreadLocal<RedisMQEnvelope> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 获取当前线程正在消费的消息的信封. 不在消费接口中, 批量消费或消息未包装为信封时返回 null
+     */
+    public static RedisMQEnvelope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 在信封的上下文中执行代码, 执行结束后恢复原上下文
+     *
+     * @param envelope 消息信封
+     * @param runnable 需要执行的代码块
+     */
+    public static void run(RedisMQEnvelope envelope, Runnable runnable) {
+        RedisMQEnvelope previous = CURRENT.get();
+        String previousTraceId = MDC.get(RedisMQEnvelope.TRACE_ID);
+        CURRENT.set(envelope);
+        if (envelope.getTraceId() != null) {
+            MDC.put(RedisMQEnvelope.TRACE_ID, envelope.getTraceId());
+        }
+        try {
+            runnable.run();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+            if (previousTraceId == null) {
+                MDC.remove(RedisMQEnvelope.TRACE_ID);
+            } else {
+                MDC.put(RedisMQEnvelope.TRACE_ID, previousTraceId);
+            }
+        }
+    }
+
+}
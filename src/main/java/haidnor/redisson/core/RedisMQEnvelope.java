@@ -0,0 +1,115 @@
+package haidnor.redisson.core;
+
+import org.slf4j.MDC;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 携带消息头的消息信封.
+ * <p>
+ * 开启 redisson.mq.envelope.enabled 后, 生产者发送的消息自动包装为信封, 记录链路追踪 ID (MDC 中的 traceId), 消息可消费的时间与投递次数.
+ * 信封以二进制消息头 + 队列编解码器编码的消息体写入 Redis, 读取消息头无需反序列化消息体, 见 {@link haidnor.redisson.util.RedisMQEnvelopeCodec}.
+ * 消费者在执行消费接口前拆开信封, 消费接口收到的仍是原消息, 消息头通过 {@link RedisMQContext#current()} 获取
+ */
+public class RedisMQEnvelope {
+
+    /**
+     * 链路追踪 ID 在 MDC 中的 key, 与 Spring Boot Micrometer Tracing 的默认值一致
+     */
+    public static final String TRACE_ID = "traceId";
+
+    private final Object body;
+
+    private final String traceId;
+
+    private final long timestamp;
+
+    private final int attempt;
+
+    private Map<String, String> headers;
+
+    /**
+     * @param body      消息体
+     * @param traceId   链路追踪 ID, 可以为 null
+     * @param timestamp 消息可消费的时间(毫秒时间戳), 普通消息为发送时间, 延迟消息为到期时间
+     * @param attempt   投递次数, 从 1 开始
+     * @param headers   自定义消息头, 可以为 null
+     */
+    public RedisMQEnvelope(Object body, String traceId, long timestamp, int attempt, Map<String, String> headers) {
+        this.body = body;
+        this.traceId = traceId;
+        this.timestamp = timestamp;
+        this.attempt = attempt;
+        this.headers = headers;
+    }
+
+    /**
+     * 包装消息, 记录当前线程 MDC 中的链路追踪 ID 与当前时间
+     *
+     * @param body 消息体
+     */
+    public static RedisMQEnvelope of(Object body) {
+        return of(body, 0);
+    }
+
+    /**
+     * 包装延迟消息, 记录当前线程 MDC 中的链路追踪 ID 与消息到期时间
+     *
+     * @param body        消息体
+     * @param delayMillis 延迟时间(毫秒)
+     */
+    public static RedisMQEnvelope of(Object body, long delayMillis) {
+        return new RedisMQEnvelope(body, MDC.get(TRACE_ID), System.currentTimeMillis() + Math.max(delayMillis, 0), 1, null);
+    }
+
+    /**
+     * 创建重新投递的信封: 投递次数加 1, 可消费时间为 delayMillis 毫秒之后, 保留链路追踪 ID 与自定义消息头
+     *
+     * @param delayMillis 重新投递的延迟时间(毫秒)
+     */
+    public RedisMQEnvelope retry(long delayMillis) {
+        return new RedisMQEnvelope(body, traceId, System.currentTimeMillis() + Math.max(delayMillis, 0), attempt + 1,
+                headers == null ? null : new LinkedHashMap<>(headers));
+    }
+
+    /**
+     * 添加自定义消息头
+     */
+    public RedisMQEnvelope header(String name, String value) {
+        if (headers == null) {
+            headers = new LinkedHashMap<>();
+        }
+        headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * 获取自定义消息头, 不存在时返回 null
+     */
+    public String getHeader(String name) {
+        return headers == null ? null : headers.get(name);
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers == null ? Collections.emptyMap() : Collections.unmodifiableMap(headers);
+    }
+
+    public Object getBody() {
+        return body;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+}
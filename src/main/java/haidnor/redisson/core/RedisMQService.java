@@ -1,16 +1,39 @@
 package haidnor.redisson.core;
 
+import haidnor.redisson.config.RedisMQProperties;
+import haidnor.redisson.metrics.RedisMetrics;
 import haidnor.redisson.util.QueueUtil;
+import haidnor.redisson.util.RedisMQCodecResolver;
+import haidnor.redisson.util.RedisMQEnvelopeCodec;
+import haidnor.redisson.util.RedisMQPartitions;
+import haidnor.redisson.util.RedisMQStreams;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RBatch;
 import org.redisson.api.RBlockingQueue;
-import org.redisson.api.RDelayedQueue;
+import org.redisson.api.RBlockingQueueAsync;
+import org.redisson.api.RDeque;
+import org.redisson.api.RStream;
+import org.redisson.api.RStreamAsync;
 import org.redisson.api.RedissonClient;
-import org.redisson.codec.JsonJacksonCodec;
+import org.redisson.client.RedisException;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Redisson 队列工具类
@@ -18,14 +41,59 @@ import java.util.concurrent.TimeUnit;
  * <a href="https://github.com/redisson/redisson/wiki/7.-distributed-collections/#715-delayed-queue">...</a>
  */
 @Service
-public class RedisMQService {
+public class RedisMQService implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisMQService.class);
+
+    /**
+     * 批量发送时单个管道包含的最大消息数量
+     */
+    private static final int PIPELINE_SIZE = 1000;
 
     @Autowired
     private RedissonClient redisson;
 
-    private final Map<String, RBlockingQueue<Object>> blockingQueueMap = new ConcurrentHashMap<>(16);
+    @Autowired
+    private RedisMQProperties properties;
+
+    @Autowired
+    private RedisMQCodecResolver codecResolver;
+
+    @Autowired
+    private RedisDelayedMessageStore delayedMessageStore;
 
-    private final Map<String, RDelayedQueue<Object>> delayedQueueMap = new ConcurrentHashMap<>(16);
+    @Autowired(required = false)
+    private RedisMetrics metrics = RedisMetrics.NOOP;
+
+    /**
+     * 异步发送消息的合并缓冲区, 未开启时为 null
+     */
+    private CoalescingSender coalescingSender;
+
+    /**
+     * 分区消息队列轮询选择分区的计数器
+     */
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    private final Map<String/*codec name:destination*/, RBlockingQueue<Object>> blockingQueueMap = new ConcurrentHashMap<>(16);
+
+    private final Map<String/*destination*/, RStream<String, byte[]>> streamMap = new ConcurrentHashMap<>(16);
+
+
+    @Override
+    public void afterPropertiesSet() {
+        RedisMQProperties.Coalesce coalesce = properties.getCoalesce();
+        if (coalesce.isEnabled()) {
+            coalescingSender = new CoalescingSender(redisson, coalesce.getInterval(), coalesce.getMaxBatch());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (coalescingSender != null) {
+            coalescingSender.shutdown();
+        }
+    }
 
     /**
      * 发送普通消息到消息队列
@@ -34,33 +102,381 @@ public class RedisMQService {
      * @param msg       任务对象
      */
     public <T> boolean send(String queueName, T msg) {
-        RBlockingQueue<Object> blockingQueue = blockingQueueMap.computeIfAbsent(queueName, k -> {
-            String destination = QueueUtil.modifyQueueName(k);
-            return redisson.getBlockingQueue(destination, JsonJacksonCodec.INSTANCE);
-        });
-        return blockingQueue.offer(msg);
+        return send(queueName, msg, null);
+    }
+
+    /**
+     * 使用指定编解码器发送普通消息到消息队列, 消费者需使用相同的编解码器
+     *
+     * @param queueName 队列名称
+     * @param msg       任务对象
+     * @param codec     编解码器名称, 可选值见 {@link RedisMQCodecResolver}
+     */
+    public <T> boolean send(String queueName, T msg, String codec) {
+        return sendTo(queueName, route(queueName, null), msg, codec);
+    }
+
+    /**
+     * 按分区键发送普通消息到分区消息队列. 相同分区键的消息总是进入同一分区, 以保证其消费顺序. 队列未分区时与 {@link #send(String, Object)} 相同
+     *
+     * @param queueName    队列名称
+     * @param partitionKey 分区键, 例如订单号
+     * @param msg          任务对象
+     */
+    public <T> boolean sendByKey(String queueName, Object partitionKey, T msg) {
+        return sendTo(queueName, route(queueName, partitionKey), msg, null);
+    }
+
+    /**
+     * 发送延迟消息到消息队列. 消息写入延迟消息 ZSET, 到期后由该队列的转移者转移到普通队列, 见 {@link RedisDelayedMessageStore}
+     *
+     * @param queueName 队列名称
+     * @param msg       任务对象
+     * @param delayTime 消息消费延迟时间
+     * @param timeUnit  时间单位
+     * @return 消息 ID, 可用于 {@link #cancel(String, String)} 与 {@link #reschedule(String, String, long, TimeUnit)}
+     */
+    public <T> String send(String queueName, T msg, long delayTime, TimeUnit timeUnit) {
+        return sendDelayed(queueName, msg, delayTime, timeUnit, null);
+    }
+
+    /**
+     * 使用指定编解码器发送延迟消息到消息队列, 消费者需使用相同的编解码器
+     *
+     * @param queueName 队列名称
+     * @param msg       任务对象
+     * @param delayTime 消息消费延迟时间
+     * @param timeUnit  时间单位
+     * @param codec     编解码器名称, 可选值见 {@link RedisMQCodecResolver}
+     * @return 消息 ID
+     */
+    public <T> String send(String queueName, T msg, long delayTime, TimeUnit timeUnit, String codec) {
+        return sendDelayed(queueName, msg, delayTime, timeUnit, codec);
+    }
+
+    /**
+     * 取消尚未到期的延迟消息
+     *
+     * @param queueName 队列名称
+     * @param messageId 发送延迟消息时返回的消息 ID
+     * @return 消息已到期或不存在时返回 false
+     */
+    public boolean cancel(String queueName, String messageId) {
+        return delayedMessageStore.cancel(QueueUtil.modifyQueueName(queueName), messageId);
+    }
+
+    /**
+     * 修改尚未到期的延迟消息的延迟时间, 新的到期时间为当前时间之后 delayTime
+     *
+     * @param queueName 队列名称
+     * @param messageId 发送延迟消息时返回的消息 ID
+     * @param delayTime 新的消息消费延迟时间
+     * @param timeUnit  时间单位
+     * @return 消息已到期或不存在时返回 false
+     */
+    public boolean reschedule(String queueName, String messageId, long delayTime, TimeUnit timeUnit) {
+        return delayedMessageStore.reschedule(QueueUtil.modifyQueueName(queueName), messageId, timeUnit.toMillis(delayTime));
     }
 
     /**
-     * 发送延迟消息到消息队列
+     * 异步发送普通消息到消息队列, 调用线程不等待 Redis 响应.
      * <p>
-     * <a href="https://github.com/redisson/redisson/wiki/7.-distributed-collections#715-delayed-queue">...</a>
+     * 开启合并缓冲区 (redisson.mq.coalesce.enabled) 后, 消息先进入进程内缓冲区, 再与其它消息合并为一次管道写入
      *
      * @param queueName 队列名称
      * @param msg       任务对象
+     * @return 消息写入 Redis 后完成的 Future
+     */
+    public <T> CompletableFuture<Boolean> sendAsync(String queueName, T msg) {
+        return sendAsyncTo(queueName, route(queueName, null), msg);
+    }
+
+    /**
+     * 按分区键异步发送普通消息到分区消息队列, 调用线程不等待 Redis 响应
+     *
+     * @param queueName    队列名称
+     * @param partitionKey 分区键, 例如订单号
+     * @param msg          任务对象
+     * @return 消息写入 Redis 后完成的 Future
+     */
+    public <T> CompletableFuture<Boolean> sendAsyncByKey(String queueName, Object partitionKey, T msg) {
+        return sendAsyncTo(queueName, route(queueName, partitionKey), msg);
+    }
+
+    /**
+     * 异步发送延迟消息到消息队列, 调用线程不等待 Redis 响应
+     *
+     * @param queueName 队列名称
+     * @param msg       任务对象
+     * @param delayTime 消息消费延迟时间
+     * @param timeUnit  时间单位
+     * @return 消息写入 Redis 后返回消息 ID 的 Future
+     */
+    public <T> CompletableFuture<String> sendAsync(String queueName, T msg, long delayTime, TimeUnit timeUnit) {
+        long start = System.nanoTime();
+        long delayMillis = timeUnit.toMillis(delayTime);
+        byte[] payload = RedisMQCodecResolver.encode(codecResolver.resolve(queueName, null), wrap(queueName, null, msg, delayMillis));
+        String id = delayedMessageStore.newId();
+        return recordAsync(queueName, start, delayedMessageStore.scheduleAsync(QueueUtil.modifyQueueName(queueName), id, payload, delayMillis)
+                .toCompletableFuture().thenApply(v -> id));
+    }
+
+    /**
+     * 批量发送普通消息到消息队列. 所有写操作通过 Redisson RBatch 以管道方式发送, 每 {@value #PIPELINE_SIZE} 条消息一次网络往返
+     *
+     * @param queueName 队列名称
+     * @param msgs      任务对象集合
+     * @return 与 msgs 迭代顺序一致的每条消息发送结果
+     */
+    public <T> List<Boolean> sendBatch(String queueName, Collection<T> msgs) {
+        Codec codec = codecResolver.resolve(queueName, null);
+        RedisMQProperties.Stream stream = properties.findStream(queueName);
+        List<Boolean> results = new ArrayList<>(msgs.size());
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(PIPELINE_SIZE);
+        RBatch batch = null;
+        for (T element : msgs) {
+            if (batch == null) {
+                batch = redisson.createBatch(BatchOptions.defaults());
+            }
+            Object msg = wrap(queueName, null, element, 0);
+            String destination = route(queueName, null);
+            if (stream != null) {
+                RStreamAsync<String, byte[]> streamAsync = batch.getStream(RedisMQStreams.key(destination), RedisMQStreams.CODEC);
+                futures.add(streamAsync.addAsync(RedisMQStreams.addArgs(codec, msg, stream)).toCompletableFuture().thenApply(id -> true));
+            } else {
+                RBlockingQueueAsync<Object> blockingQueue = batch.getBlockingQueue(destination, codec);
+                futures.add(blockingQueue.offerAsync(msg).toCompletableFuture());
+            }
+            if (futures.size() == PIPELINE_SIZE) {
+                executeBatch(queueName, batch, futures, results);
+                batch = null;
+            }
+        }
+        if (batch != null) {
+            executeBatch(queueName, batch, futures, results);
+        }
+        return results;
+    }
+
+    /**
+     * 批量发送延迟消息到消息队列. 所有写操作通过 Redisson RBatch 以管道方式发送, 每 {@value #PIPELINE_SIZE} 条消息一次网络往返
+     *
+     * @param queueName 队列名称
+     * @param msgs      任务对象集合
      * @param delayTime 消息消费延迟时间
      * @param timeUnit  时间单位
+     * @return 与 msgs 迭代顺序一致的每条消息发送结果
+     */
+    public <T> List<Boolean> sendBatch(String queueName, Collection<T> msgs, long delayTime, TimeUnit timeUnit) {
+        String destination = QueueUtil.modifyQueueName(queueName);
+        Codec codec = codecResolver.resolve(queueName, null);
+        long delayMillis = timeUnit.toMillis(delayTime);
+        List<Boolean> results = new ArrayList<>(msgs.size());
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(PIPELINE_SIZE);
+        RBatch batch = null;
+        for (T msg : msgs) {
+            if (batch == null) {
+                batch = redisson.createBatch(BatchOptions.defaults());
+            }
+            byte[] payload = RedisMQCodecResolver.encode(codec, wrap(queueName, null, msg, delayMillis));
+            futures.add(delayedMessageStore.schedule(batch, destination, delayedMessageStore.newId(), payload, delayMillis).toCompletableFuture().thenApply(v -> true));
+            if (futures.size() == PIPELINE_SIZE) {
+                executeBatch(queueName, batch, futures, results);
+                batch = null;
+            }
+        }
+        if (batch != null) {
+            executeBatch(queueName, batch, futures, results);
+        }
+        return results;
+    }
+
+    /**
+     * 将死信队列中的全部消息重新投递到消息队列, 见 {@link #redrive(String, String, int)}
+     *
+     * @param deadLetter 死信队列名称
+     * @param queueName  队列名称
+     * @return 重新投递的消息数量
+     */
+    public int redrive(String deadLetter, String queueName) {
+        return redrive(deadLetter, queueName, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 将死信队列中的消息按原顺序重新投递到消息队列, 信封消息的投递次数重置为 1.
+     * 每次从死信队列取出最多 {@value #PIPELINE_SIZE} 条消息, 以管道方式写入消息队列, 消息不经过反序列化. 写入失败时取出的消息放回死信队列头部
+     *
+     * @param deadLetter 死信队列名称
+     * @param queueName  队列名称, 需与死信队列使用相同的编解码器
+     * @param limit      最多重新投递的消息数量
+     * @return 重新投递的消息数量
+     */
+    public int redrive(String deadLetter, String queueName, int limit) {
+        RDeque<byte[]> deadLetterQueue = redisson.getDeque(QueueUtil.modifyQueueName(deadLetter), ByteArrayCodec.INSTANCE);
+        RedisMQProperties.Stream stream = properties.findStream(queueName);
+        // 编解码器不支持信封时消息不是信封格式, 不按魔数修改消息头, 避免误改以魔数开头的二进制消息
+        boolean envelope = codecResolver.isEnvelopeSupported(queueName, codecResolver.getCodecName(queueName, null));
+        int count = 0;
+        while (count < limit) {
+            List<byte[]> payloads = deadLetterQueue.poll(Math.min(PIPELINE_SIZE, limit - count));
+            if (payloads.isEmpty()) {
+                break;
+            }
+            long start = System.nanoTime();
+            long now = System.currentTimeMillis();
+            RBatch batch = redisson.createBatch(BatchOptions.defaults());
+            for (byte[] payload : payloads) {
+                if (envelope) {
+                    RedisMQEnvelopeCodec.resetAttempt(payload, now);
+                }
+                String destination = route(queueName, null);
+                if (stream != null) {
+                    RStreamAsync<String, byte[]> streamAsync = batch.getStream(RedisMQStreams.key(destination), RedisMQStreams.CODEC);
+                    streamAsync.addAsync(RedisMQStreams.addArgs(payload, stream));
+                } else {
+                    batch.getQueue(destination, ByteArrayCodec.INSTANCE).addAsync(payload);
+                }
+            }
+            try {
+                batch.execute();
+            } catch (RedisException exception) {
+                metrics.recordSend(queueName, payloads.size(), System.nanoTime() - start, false);
+                List<byte[]> reversed = new ArrayList<>(payloads);
+                Collections.reverse(reversed);
+                deadLetterQueue.addFirst(reversed.toArray(new byte[0][]));
+                throw exception;
+            }
+            metrics.recordSend(queueName, payloads.size(), System.nanoTime() - start, true);
+            count += payloads.size();
+        }
+        if (count > 0) {
+            log.info("RedisMQ redrive {} messages from dead letter queue {} to {}", count, deadLetter, queueName);
+        }
+        return count;
+    }
+
+    private boolean sendTo(String queueName, String destination, Object element, String codec) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Object msg = wrap(queueName, codec, element, 0);
+            RedisMQProperties.Stream stream = properties.findStream(queueName);
+            if (stream != null) {
+                getStream(destination).add(RedisMQStreams.addArgs(codecResolver.resolve(queueName, codec), msg, stream));
+                success = true;
+            } else {
+                success = getBlockingQueue(queueName, destination, codec).offer(msg);
+            }
+            return success;
+        } finally {
+            metrics.recordSend(queueName, 1, System.nanoTime() - start, success);
+        }
+    }
+
+    private CompletableFuture<Boolean> sendAsyncTo(String queueName, String destination, Object element) {
+        long start = System.nanoTime();
+        Object msg = wrap(queueName, null, element, 0);
+        RedisMQProperties.Stream stream = properties.findStream(queueName);
+        if (coalescingSender != null) {
+            return recordAsync(queueName, start, coalescingSender.send(destination, codecResolver.resolve(queueName, null), stream, msg));
+        }
+        if (stream != null) {
+            return recordAsync(queueName, start, getStream(destination).addAsync(RedisMQStreams.addArgs(codecResolver.resolve(queueName, null), msg, stream)).toCompletableFuture().thenApply(id -> true));
+        }
+        return recordAsync(queueName, start, getBlockingQueue(queueName, destination, null).offerAsync(msg).toCompletableFuture());
+    }
+
+    /**
+     * 队列开启消息信封 (redisson.mq.envelope.enabled 或 redisson.mq.destinations.[队列名称].envelope) 时将消息包装为信封.
+     * 已是信封的消息原样发送, 队列的编解码器不支持信封时抛出异常
+     *
+     * @param queueName   队列名称
+     * @param codec       显式指定的 codec 名称, 为空时使用队列或全局配置
+     * @param msg         任务对象
+     * @param delayMillis 延迟时间(毫秒), 普通消息为 0
+     */
+    private Object wrap(String queueName, String codec, Object msg, long delayMillis) {
+        if (msg instanceof RedisMQEnvelope) {
+            if (!codecResolver.isEnvelopeSupported(queueName, codecResolver.getCodecName(queueName, codec))) {
+                throw new IllegalArgumentException("the queue [" + queueName + "] codec does not support message envelope, enable redisson.mq.envelope.enabled !");
+            }
+            return msg;
+        }
+        if (!properties.isEnvelopeEnabled(queueName)) {
+            return msg;
+        }
+        return RedisMQEnvelope.of(msg, delayMillis);
+    }
+
+    /**
+     * 开启指标采集时在异步发送完成后记录发送耗时, 未开启时直接返回原 Future
+     */
+    private <R> CompletableFuture<R> recordAsync(String queueName, long start, CompletableFuture<R> future) {
+        if (!metrics.isEnabled()) {
+            return future;
+        }
+        return future.whenComplete((result, exception) -> metrics.recordSend(queueName, 1, System.nanoTime() - start, exception == null && !Boolean.FALSE.equals(result)));
+    }
+
+    /**
+     * 选择消息写入的队列 (分区) 的 Redis key. 队列分区时, 指定分区键则按分区键选择, 否则轮询选择
+     *
+     * @param queueName    队列名称
+     * @param partitionKey 分区键, 可以为 null
+     */
+    private String route(String queueName, Object partitionKey) {
+        String destination = QueueUtil.modifyQueueName(queueName);
+        int partitions = properties.getPartitions(queueName);
+        if (partitions == 1) {
+            return destination;
+        }
+        if (partitionKey != null) {
+            return RedisMQPartitions.select(destination, partitions, partitionKey);
+        }
+        List<String> keys = RedisMQPartitions.keys(destination, partitions);
+        return keys.get(Math.floorMod(roundRobin.getAndIncrement(), keys.size()));
+    }
+
+    private RBlockingQueue<Object> getBlockingQueue(String queueName, String destination, String codec) {
+        String codecName = codecResolver.getCodecName(queueName, codec);
+        return blockingQueueMap.computeIfAbsent(codecName + ":" + destination, k -> redisson.getBlockingQueue(destination, codecResolver.resolve(queueName, codecName)));
+    }
+
+    private RStream<String, byte[]> getStream(String destination) {
+        return streamMap.computeIfAbsent(destination, k -> redisson.getStream(RedisMQStreams.key(destination), RedisMQStreams.CODEC));
+    }
+
+    private String sendDelayed(String queueName, Object msg, long delayTime, TimeUnit timeUnit, String codec) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            long delayMillis = timeUnit.toMillis(delayTime);
+            byte[] payload = RedisMQCodecResolver.encode(codecResolver.resolve(queueName, codec), wrap(queueName, codec, msg, delayMillis));
+            String id = delayedMessageStore.schedule(QueueUtil.modifyQueueName(queueName), payload, delayMillis);
+            success = true;
+            return id;
+        } finally {
+            metrics.recordSend(queueName, 1, System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * 执行管道批处理, 并按顺序收集每条消息的发送结果
      */
-    public <T> void send(String queueName, T msg, long delayTime, TimeUnit timeUnit) {
-        RDelayedQueue<Object> delayedQueue = delayedQueueMap.computeIfAbsent(queueName, s -> {
-            String destination = QueueUtil.modifyQueueName(queueName);
-            RBlockingQueue<Object> blockingQueue = redisson.getBlockingQueue(destination, JsonJacksonCodec.INSTANCE);
-            RDelayedQueue<Object> queue = redisson.getDelayedQueue(blockingQueue);
-            // 生产者无需做转移队列数据的任务
-            queue.destroy();
-            return queue;
-        });
-        delayedQueue.offer(msg, delayTime, timeUnit);
+    private void executeBatch(String queueName, RBatch batch, List<CompletableFuture<Boolean>> futures, List<Boolean> results) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            batch.execute();
+            success = true;
+        } catch (RedisException exception) {
+            log.error("RedisMQ send batch exception", exception);
+        }
+        metrics.recordSend(queueName, futures.size(), System.nanoTime() - start, success);
+        for (CompletableFuture<Boolean> future : futures) {
+            results.add(!future.isCompletedExceptionally() && Boolean.TRUE.equals(future.getNow(false)));
+        }
+        futures.clear();
     }
 
 }
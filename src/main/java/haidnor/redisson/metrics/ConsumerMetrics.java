@@ -0,0 +1,48 @@
+package haidnor.redisson.metrics;
+
+/**
+ * 单个队列的消费指标, 由 {@link RedisMetrics#consumer} 在注册监听器时创建
+ */
+public interface ConsumerMetrics {
+
+    ConsumerMetrics NOOP = new ConsumerMetrics() {
+    };
+
+    /**
+     * 是否开启指标采集
+     */
+    default boolean isEnabled() {
+        return false;
+    }
+
+    /**
+     * 记录一次消费
+     *
+     * @param messages 本次消费的消息数量, 批量消费时为整批消息数量
+     * @param nanos    消费接口执行耗时(纳秒)
+     * @param success  是否消费成功
+     */
+    default void recordConsume(int messages, long nanos, boolean success) {
+    }
+
+    /**
+     * 记录消息从可消费 (发送或到期) 到开始消费的延迟, 只有信封消息携带可消费时间
+     *
+     * @param millis 延迟时间(毫秒), 包含各节点之间的时钟偏差
+     */
+    default void recordLag(long millis) {
+    }
+
+    /**
+     * 记录一次获取并发消费许可的等待时间(纳秒)
+     */
+    default void recordPermitWait(long nanos) {
+    }
+
+    /**
+     * 更新采样的队列积压消息数量
+     */
+    default void setDepth(long depth) {
+    }
+
+}
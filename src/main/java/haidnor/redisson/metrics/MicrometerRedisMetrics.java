@@ -0,0 +1,190 @@
+package haidnor.redisson.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * 基于 Micrometer 的监控指标采集. 每个队列, 限流器的 Meter 在第一次使用时创建并缓存, 之后只有一次 ConcurrentHashMap 查找.
+ * <ul>
+ *     <li>redisson.mq.send: 发送耗时, 标签 destination, result</li>
+ *     <li>redisson.mq.send.messages: 发送消息数量, 标签 destination</li>
+ *     <li>redisson.mq.consume: 消费接口执行耗时 (含直方图), 标签 destination, result</li>
+ *     <li>redisson.mq.consume.messages: 消费消息数量, 标签 destination, result</li>
+ *     <li>redisson.mq.consume.in.flight, redisson.mq.consume.concurrency: 正在消费的消息数量与并发消费许可数量, 标签 destination</li>
+ *     <li>redisson.mq.consume.permit.wait: 获取并发消费许可的等待时间, 标签 destination</li>
+ *     <li>redisson.mq.consume.lag: 信封消息从可消费到开始消费的延迟, 标签 destination</li>
+ *     <li>redisson.mq.queue.depth: 采样的队列积压消息数量, 标签 destination</li>
+ *     <li>redisson.lock.wait: 获取锁的等待时间, 标签 result</li>
+ *     <li>redisson.lock.contention, redisson.lock.failures: 锁竞争与获取锁失败次数, 标签 scope (local, remote)</li>
+ *     <li>redisson.lock.handoffs: 分布式锁在本地线程之间直接交接的次数</li>
+ *     <li>redisson.rate.limiter.requests: 限流器判定次数, 标签 name, result (permitted, rejected)</li>
+ * </ul>
+ */
+public class MicrometerRedisMetrics implements RedisMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Map<String/*queue name*/, SendMeters> sendMeters = new ConcurrentHashMap<>();
+
+    private final Map<String/*rate limiter name*/, Counter[]> rateLimiterCounters = new ConcurrentHashMap<>();
+
+    private final Timer lockAcquired;
+
+    private final Timer lockFailed;
+
+    private final Counter localContention;
+
+    private final Counter remoteContention;
+
+    private final Counter localFailure;
+
+    private final Counter remoteFailure;
+
+    private final Counter handoffs;
+
+    public MicrometerRedisMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.lockAcquired = Timer.builder("redisson.lock.wait").tag("result", "acquired").register(registry);
+        this.lockFailed = Timer.builder("redisson.lock.wait").tag("result", "failed").register(registry);
+        this.localContention = Counter.builder("redisson.lock.contention").tag("scope", SCOPE_LOCAL).register(registry);
+        this.remoteContention = Counter.builder("redisson.lock.contention").tag("scope", SCOPE_REMOTE).register(registry);
+        this.localFailure = Counter.builder("redisson.lock.failures").tag("scope", SCOPE_LOCAL).register(registry);
+        this.remoteFailure = Counter.builder("redisson.lock.failures").tag("scope", SCOPE_REMOTE).register(registry);
+        this.handoffs = Counter.builder("redisson.lock.handoffs").register(registry);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void recordSend(String queueName, int messages, long nanos, boolean success) {
+        SendMeters meters = sendMeters.get(queueName);
+        if (meters == null) {
+            meters = sendMeters.computeIfAbsent(queueName, SendMeters::new);
+        }
+        (success ? meters.success : meters.failure).record(nanos, TimeUnit.NANOSECONDS);
+        meters.messages.increment(messages);
+    }
+
+    @Override
+    public ConsumerMetrics consumer(String queueName, IntSupplier inFlight, IntSupplier concurrency) {
+        return new MicrometerConsumerMetrics(queueName, inFlight, concurrency);
+    }
+
+    @Override
+    public void recordLockWait(long nanos, boolean acquired) {
+        (acquired ? lockAcquired : lockFailed).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordLockContention(String scope) {
+        (SCOPE_LOCAL.equals(scope) ? localContention : remoteContention).increment();
+    }
+
+    @Override
+    public void recordLockFailure(String scope) {
+        (SCOPE_LOCAL.equals(scope) ? localFailure : remoteFailure).increment();
+    }
+
+    @Override
+    public void recordLockHandoff() {
+        handoffs.increment();
+    }
+
+    @Override
+    public void recordRateLimit(String name, boolean permitted) {
+        Counter[] counters = rateLimiterCounters.get(name);
+        if (counters == null) {
+            counters = rateLimiterCounters.computeIfAbsent(name, key -> new Counter[]{
+                    Counter.builder("redisson.rate.limiter.requests").tag("name", key).tag("result", "permitted").register(registry),
+                    Counter.builder("redisson.rate.limiter.requests").tag("name", key).tag("result", "rejected").register(registry)
+            });
+        }
+        counters[permitted ? 0 : 1].increment();
+    }
+
+    private class SendMeters {
+
+        private final Timer success;
+
+        private final Timer failure;
+
+        private final Counter messages;
+
+        private SendMeters(String queueName) {
+            this.success = Timer.builder("redisson.mq.send").tag("destination", queueName).tag("result", "success").register(registry);
+            this.failure = Timer.builder("redisson.mq.send").tag("destination", queueName).tag("result", "failure").register(registry);
+            this.messages = Counter.builder("redisson.mq.send.messages").tag("destination", queueName).register(registry);
+        }
+
+    }
+
+    private class MicrometerConsumerMetrics implements ConsumerMetrics {
+
+        private final Timer success;
+
+        private final Timer failure;
+
+        private final Counter successMessages;
+
+        private final Counter failureMessages;
+
+        private final Timer permitWait;
+
+        private final Timer lag;
+
+        private final AtomicLong depth = new AtomicLong();
+
+        private MicrometerConsumerMetrics(String queueName, IntSupplier inFlight, IntSupplier concurrency) {
+            this.success = Timer.builder("redisson.mq.consume").tag("destination", queueName).tag("result", "success")
+                    .publishPercentileHistogram().register(registry);
+            this.failure = Timer.builder("redisson.mq.consume").tag("destination", queueName).tag("result", "failure")
+                    .publishPercentileHistogram().register(registry);
+            this.successMessages = Counter.builder("redisson.mq.consume.messages").tag("destination", queueName).tag("result", "success").register(registry);
+            this.failureMessages = Counter.builder("redisson.mq.consume.messages").tag("destination", queueName).tag("result", "failure").register(registry);
+            this.permitWait = Timer.builder("redisson.mq.consume.permit.wait").tag("destination", queueName).register(registry);
+            this.lag = Timer.builder("redisson.mq.consume.lag").tag("destination", queueName).publishPercentileHistogram().register(registry);
+            Gauge.builder("redisson.mq.consume.in.flight", inFlight::getAsInt).tag("destination", queueName).register(registry);
+            Gauge.builder("redisson.mq.consume.concurrency", concurrency::getAsInt).tag("destination", queueName).register(registry);
+            Gauge.builder("redisson.mq.queue.depth", depth::get).tag("destination", queueName).register(registry);
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public void recordConsume(int messages, long nanos, boolean success) {
+            (success ? this.success : failure).record(nanos, TimeUnit.NANOSECONDS);
+            (success ? successMessages : failureMessages).increment(messages);
+        }
+
+        @Override
+        public void recordLag(long millis) {
+            lag.record(Math.max(millis, 0), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void recordPermitWait(long nanos) {
+            permitWait.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void setDepth(long depth) {
+            this.depth.set(depth);
+        }
+
+    }
+
+}
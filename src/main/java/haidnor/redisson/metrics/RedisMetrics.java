@@ -0,0 +1,93 @@
+package haidnor.redisson.metrics;
+
+import java.util.function.IntSupplier;
+
+/**
+ * 监控指标采集接口.
+ * <p>
+ * 容器中存在 MeterRegistry 时由 {@link RedisMetricsAutoConfiguration} 注册 Micrometer 实现, 否则使用不做任何处理的 {@link #NOOP}.
+ * 所有方法位于发送, 消费与上锁的热点路径上, 实现类需预先创建并缓存 Meter, 避免每次调用时查找或注册
+ */
+public interface RedisMetrics {
+
+    /**
+     * 本地锁 (同一进程内的线程)
+     */
+    String SCOPE_LOCAL = "local";
+
+    /**
+     * 分布式锁 (其它节点)
+     */
+    String SCOPE_REMOTE = "remote";
+
+    RedisMetrics NOOP = new RedisMetrics() {
+    };
+
+    /**
+     * 是否开启指标采集. 未开启时调用方可以跳过计时等额外开销
+     */
+    default boolean isEnabled() {
+        return false;
+    }
+
+    /**
+     * 记录一次发送
+     *
+     * @param queueName 队列名称
+     * @param messages  本次发送的消息数量
+     * @param nanos     发送耗时(纳秒)
+     * @param success   是否发送成功
+     */
+    default void recordSend(String queueName, int messages, long nanos, boolean success) {
+    }
+
+    /**
+     * 获取队列的消费指标, 注册监听器时调用一次
+     *
+     * @param queueName   队列名称
+     * @param inFlight    正在消费的消息数量
+     * @param concurrency 当前并发消费许可数量
+     */
+    default ConsumerMetrics consumer(String queueName, IntSupplier inFlight, IntSupplier concurrency) {
+        return ConsumerMetrics.NOOP;
+    }
+
+    /**
+     * 记录一次获取锁的等待时间
+     *
+     * @param nanos    等待时间(纳秒), 包含本地锁与分布式锁
+     * @param acquired 是否获取成功
+     */
+    default void recordLockWait(long nanos, boolean acquired) {
+    }
+
+    /**
+     * 记录一次锁竞争: 锁已被其它线程 ({@link #SCOPE_LOCAL}) 或其它节点 ({@link #SCOPE_REMOTE}) 持有
+     */
+    default void recordLockContention(String scope) {
+    }
+
+    /**
+     * 记录一次获取锁失败
+     *
+     * @param scope 失败的位置, {@link #SCOPE_LOCAL} 或 {@link #SCOPE_REMOTE}
+     */
+    default void recordLockFailure(String scope) {
+    }
+
+    /**
+     * 记录一次分布式锁在同一进程内的线程之间直接交接, 没有访问 Redis
+     */
+    default void recordLockHandoff() {
+    }
+
+    /**
+     * 记录一次限流器判定
+     *
+     * @param name      限流器名称
+     * @param permitted 是否放行
+     */
+    default void recordRateLimit(String name, boolean permitted) {
+    }
+
+}
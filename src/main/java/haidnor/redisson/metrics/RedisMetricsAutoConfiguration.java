@@ -0,0 +1,27 @@
+package haidnor.redisson.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * 容器中存在 MeterRegistry 时注册基于 Micrometer 的 {@link RedisMetrics}, 否则各组件使用 {@link RedisMetrics#NOOP}
+ */
+@AutoConfiguration(afterName = {
+        "org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration",
+        "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration"
+})
+@ConditionalOnClass(MeterRegistry.class)
+@ConditionalOnBean(MeterRegistry.class)
+public class RedisMetricsAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean(RedisMetrics.class)
+    public RedisMetrics micrometerRedisMetrics(MeterRegistry registry) {
+        return new MicrometerRedisMetrics(registry);
+    }
+
+}
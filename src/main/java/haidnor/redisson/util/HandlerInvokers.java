@@ -0,0 +1,80 @@
+package haidnor.redisson.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ClassUtils;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.Consumer;
+
+/**
+ * 消息监听方法调用器.
+ * <p>
+ * 注册监听器时通过 LambdaMetafactory 将 bean 与监听方法绑定为 {@link Consumer}, 消费消息时直接调用, 避免 Method.invoke 的反射开销与异常包装.
+ * 无法生成时回退为反射调用. 两种方式下监听方法抛出的异常均原样抛出
+ */
+public class HandlerInvokers {
+
+    private static final Logger log = LoggerFactory.getLogger(HandlerInvokers.class);
+
+    /**
+     * 创建监听方法调用器
+     *
+     * @param bean   监听器 bean
+     * @param method 监听方法, 应只包含一个参数
+     */
+    public static Consumer<Object> create(Object bean, Method method) {
+        if (method.getParameterCount() != 1) {
+            // 与原反射调用方式一致, 不阻止启动, 每次消费时调用失败
+            log.warn("Redis message queue listener method should have exactly one parameter, every invocation will fail. Method:{}", method);
+            return createReflective(bean, method);
+        }
+        try {
+            return createLambda(bean, method);
+        } catch (Throwable throwable) {
+            log.debug("Create lambda invoker failed, fall back to reflection. Method:{}", method, throwable);
+            return createReflective(bean, method);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Consumer<Object> createLambda(Object bean, Method method) throws Throwable {
+        Class<?> declaringClass = method.getDeclaringClass();
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(declaringClass, MethodHandles.lookup());
+        MethodHandle target = lookup.unreflect(method);
+        Class<?> parameterType = ClassUtils.resolvePrimitiveIfNecessary(method.getParameterTypes()[0]);
+        CallSite callSite = LambdaMetafactory.metafactory(
+                lookup,
+                "accept",
+                MethodType.methodType(Consumer.class, declaringClass),
+                MethodType.methodType(void.class, Object.class),
+                target,
+                MethodType.methodType(void.class, parameterType));
+        return (Consumer<Object>) callSite.getTarget().invoke(bean);
+    }
+
+    private static Consumer<Object> createReflective(Object bean, Method method) {
+        method.setAccessible(true);
+        return msg -> {
+            try {
+                method.invoke(bean, msg);
+            } catch (InvocationTargetException exception) {
+                throw HandlerInvokers.<RuntimeException>sneakyThrow(exception.getTargetException());
+            } catch (IllegalAccessException exception) {
+                throw new IllegalStateException(exception);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> E sneakyThrow(Throwable throwable) throws E {
+        throw (E) throwable;
+    }
+
+}
@@ -0,0 +1,105 @@
+package haidnor.redisson.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分布式锁 key 对应的本地异步锁. 锁不属于任何线程, 等待者以 Future 的形式按先后顺序排队, 释放锁时直接交给下一个等待者, 不阻塞任何线程.
+ * <p>
+ * 每个 key 的状态只在 ConcurrentHashMap 的桶锁内修改, Future 在桶锁之外完成, 回调中可以再次获取或释放本地异步锁.
+ * 没有持有者与等待者的 key 立即从表中移除
+ */
+public class LocalAsyncLocks {
+
+    private final ConcurrentHashMap<String/*lock key*/, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 获取 key 的本地异步锁
+     *
+     * @param key       分布式锁 key
+     * @param waitNanos 获取锁等待时间(纳秒), 0 表示不等待
+     * @return 获取到锁后以 true 完成, 等待超时后以 false 完成. 以 true 完成时之后必须调用 {@link #release(String)}
+     */
+    public CompletableFuture<Boolean> acquire(String key, long waitNanos) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        boolean[] acquired = new boolean[1];
+        entries.compute(key, (k, entry) -> {
+            if (entry == null) {
+                entry = new Entry();
+            }
+            if (!entry.held) {
+                entry.held = true;
+                acquired[0] = true;
+            } else if (waitNanos > 0) {
+                entry.waiters.add(future);
+            }
+            return entry;
+        });
+        if (acquired[0]) {
+            future.complete(true);
+        } else if (waitNanos > 0) {
+            future.completeOnTimeout(false, waitNanos, TimeUnit.NANOSECONDS);
+            future.thenAccept(result -> {
+                if (!result) {
+                    removeWaiter(key, future);
+                }
+            });
+        } else {
+            future.complete(false);
+        }
+        return future;
+    }
+
+    /**
+     * 释放 key 的本地异步锁, 有等待者时直接交给最早的等待者
+     *
+     * @param key 分布式锁 key
+     */
+    public void release(String key) {
+        while (true) {
+            AtomicReference<CompletableFuture<Boolean>> next = new AtomicReference<>();
+            entries.computeIfPresent(key, (k, entry) -> {
+                next.set(entry.waiters.poll());
+                if (next.get() != null) {
+                    return entry;
+                }
+                entry.held = false;
+                return null;
+            });
+            CompletableFuture<Boolean> waiter = next.get();
+            // 等待者已超时则继续交给下一个等待者
+            if (waiter == null || waiter.complete(true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 当前表中的 key 数量
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private void removeWaiter(String key, CompletableFuture<Boolean> future) {
+        entries.computeIfPresent(key, (k, entry) -> {
+            entry.waiters.remove(future);
+            return entry.held || !entry.waiters.isEmpty() ? entry : null;
+        });
+    }
+
+    /**
+     * 本地异步锁状态, 只在 ConcurrentHashMap 的桶锁内读写
+     */
+    private static class Entry {
+
+        private boolean held;
+
+        private final ArrayDeque<CompletableFuture<Boolean>> waiters = new ArrayDeque<>(2);
+
+    }
+
+}
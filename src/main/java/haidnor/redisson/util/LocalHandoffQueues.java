@@ -0,0 +1,82 @@
+package haidnor.redisson.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 按 key 排队等待本地交接的等待者. 释放资源 (例如信号量许可) 的线程先尝试直接交给同一进程内最早的等待者, 没有等待者时再归还 Redis.
+ * <p>
+ * 每个 key 的队列只在 ConcurrentHashMap 的桶锁内修改, Future 在桶锁之外完成. 没有等待者的 key 立即从表中移除
+ *
+ * @param <V> 交接的资源类型
+ */
+public class LocalHandoffQueues<V> {
+
+    private final ConcurrentHashMap<String/*key*/, ArrayDeque<CompletableFuture<V>>> queues = new ConcurrentHashMap<>();
+
+    /**
+     * 登记一个等待者. 之后必须调用 {@link #remove(String, CompletableFuture)}, 无论是否收到资源
+     *
+     * @param key 资源 key
+     * @return 收到交接的资源后完成的 Future
+     */
+    public CompletableFuture<V> register(String key) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        queues.compute(key, (k, queue) -> {
+            if (queue == null) {
+                queue = new ArrayDeque<>(2);
+            }
+            queue.add(future);
+            return queue;
+        });
+        return future;
+    }
+
+    /**
+     * 移除等待者
+     *
+     * @param key    资源 key
+     * @param future {@link #register(String)} 返回的 Future
+     */
+    public void remove(String key, CompletableFuture<V> future) {
+        queues.computeIfPresent(key, (k, queue) -> {
+            queue.remove(future);
+            return queue.isEmpty() ? null : queue;
+        });
+    }
+
+    /**
+     * 将资源交给最早的仍在等待的等待者
+     *
+     * @param key   资源 key
+     * @param value 交接的资源
+     * @return 有等待者收下资源时返回 true
+     */
+    public boolean offer(String key, V value) {
+        while (true) {
+            AtomicReference<CompletableFuture<V>> next = new AtomicReference<>();
+            queues.computeIfPresent(key, (k, queue) -> {
+                next.set(queue.poll());
+                return queue.isEmpty() ? null : queue;
+            });
+            CompletableFuture<V> waiter = next.get();
+            if (waiter == null) {
+                return false;
+            }
+            // 等待者已超时则继续交给下一个等待者
+            if (waiter.complete(value)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 当前有等待者的 key 数量
+     */
+    public int size() {
+        return queues.size();
+    }
+
+}
@@ -0,0 +1,205 @@
+package haidnor.redisson.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * 分布式锁 key 对应的本地锁表. 同一进程内获取同一 key 的线程总是得到同一个本地锁实例.
+ * <ul>
+ *     <li>{@link #refCounted()}: 每个 key 一个本地锁, 记录正在使用的线程数量, 最后一个线程释放后才从表中移除.
+ *     key 仍被使用时不会被移除, 因此不会出现两个线程持有同一 key 的不同本地锁; 热点 key 的本地锁一直复用, 只有 key 第一次使用时创建对象</li>
+ *     <li>{@link #striped(int)}: 固定数量的本地锁, key 按哈希值映射, 获取与释放都不创建对象也不修改表.
+ *     不同 key 可能映射到同一个本地锁而在本地互相等待, 嵌套获取多个 key 时可能因分段顺序相反而死锁</li>
+ * </ul>
+ */
+public abstract class LocalLockTable {
+
+    /**
+     * 创建本地锁表
+     *
+     * @param stripes 分段数量, 小于 1 时使用引用计数本地锁表
+     */
+    public static LocalLockTable create(int stripes) {
+        return stripes > 0 ? striped(stripes) : refCounted();
+    }
+
+    /**
+     * 创建引用计数本地锁表
+     */
+    public static LocalLockTable refCounted() {
+        return new RefCounted();
+    }
+
+    /**
+     * 创建分段本地锁表
+     *
+     * @param stripes 分段数量, 向上取整为 2 的幂
+     */
+    public static LocalLockTable striped(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("the stripes cannot be less than 1 !");
+        }
+        return new Striped(stripes);
+    }
+
+    /**
+     * 获取 key 对应的本地锁并登记使用, 之后必须调用 {@link #release(String, LocalLock)}, 无论是否成功加锁
+     *
+     * @param key 分布式锁 key
+     */
+    public abstract LocalLock acquire(String key);
+
+    /**
+     * 登记不再使用 key 对应的本地锁. 调用前当前线程需已释放 (或未获取到) 该本地锁
+     *
+     * @param key  分布式锁 key
+     * @param lock {@link #acquire(String)} 返回的本地锁
+     */
+    public abstract void release(String key, LocalLock lock);
+
+    /**
+     * 当前表中的本地锁数量
+     */
+    public abstract int size();
+
+    /**
+     * 同时持有多个本地锁时的加锁顺序: 去除重复的实例 (例如分段模式下映射到同一分段的 key) 后按 {@link LocalLock#getOrder()} 排序.
+     * 所有线程按此顺序加锁时不会互相死锁, 与 key 的顺序及分段映射无关
+     *
+     * @param locks {@link #acquire(String)} 返回的本地锁
+     */
+    public static List<LocalLock> lockOrder(Collection<LocalLock> locks) {
+        Set<LocalLock> distinct = Collections.newSetFromMap(new IdentityHashMap<>(locks.size()));
+        List<LocalLock> ordered = new ArrayList<>(locks.size());
+        for (LocalLock lock : locks) {
+            if (distinct.add(lock)) {
+                ordered.add(lock);
+            }
+        }
+        ordered.sort(Comparator.comparingLong(LocalLock::getOrder));
+        return ordered;
+    }
+
+    private static class RefCounted extends LocalLockTable {
+
+        /**
+         * 不捕获变量的 lambda 只创建一次, 在 ConcurrentHashMap 的桶锁内修改引用计数
+         */
+        private static final BiFunction<String, Entry, Entry> RETAIN = (key, entry) -> {
+            if (entry == null) {
+                entry = new Entry();
+            }
+            entry.refs++;
+            return entry;
+        };
+
+        private static final BiFunction<String, Entry, Entry> RELEASE = (key, entry) -> --entry.refs == 0 ? null : entry;
+
+        private final ConcurrentHashMap<String/*lock key*/, Entry> entries = new ConcurrentHashMap<>();
+
+        @Override
+        public LocalLock acquire(String key) {
+            return entries.compute(key, RETAIN);
+        }
+
+        @Override
+        public void release(String key, LocalLock lock) {
+            entries.computeIfPresent(key, RELEASE);
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+    }
+
+    /**
+     * 本地锁, 可以附加一个对象 (例如持有的分布式锁租约) 随本地锁交给下一个持有者
+     */
+    public static class LocalLock extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        private final long order = SEQUENCE.incrementAndGet();
+
+        private transient Object attachment;
+
+        /**
+         * 本地锁创建时分配的全局唯一顺序号, 同时获取多个本地锁时按此顺序加锁
+         */
+        public long getOrder() {
+            return order;
+        }
+
+        /**
+         * 获取附加的对象, 只应由本地锁的持有者调用
+         */
+        public Object getAttachment() {
+            return attachment;
+        }
+
+        /**
+         * 设置附加的对象, 只应由本地锁的持有者调用. 本地锁的获取与释放保证附加对象对下一个持有者可见
+         */
+        public void setAttachment(Object attachment) {
+            this.attachment = attachment;
+        }
+
+    }
+
+    /**
+     * 带引用计数的本地锁. refs 只在 ConcurrentHashMap 的桶锁内读写
+     */
+    private static class Entry extends LocalLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient int refs;
+
+    }
+
+    private static class Striped extends LocalLockTable {
+
+        private final LocalLock[] locks;
+
+        private final int mask;
+
+        private Striped(int stripes) {
+            int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+            this.locks = new LocalLock[size];
+            this.mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                locks[i] = new LocalLock();
+            }
+        }
+
+        @Override
+        public LocalLock acquire(String key) {
+            int hash = key.hashCode();
+            return locks[(hash ^ (hash >>> 16)) & mask];
+        }
+
+        @Override
+        public void release(String key, LocalLock lock) {
+        }
+
+        @Override
+        public int size() {
+            return locks.length;
+        }
+
+    }
+
+}
@@ -0,0 +1,94 @@
+package haidnor.redisson.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+
+/**
+ * 分布式读写锁 key 对应的本地读写锁表. 每个 key 一个本地读写锁, 记录正在使用的线程数量, 最后一个线程释放后才从表中移除,
+ * key 仍被使用时不会被移除, 同一进程内获取同一 key 的线程总是得到同一个本地读写锁实例
+ */
+public class LocalReadWriteLocks {
+
+    /**
+     * 不捕获变量的 lambda 只创建一次, 在 ConcurrentHashMap 的桶锁内修改引用计数
+     */
+    private static final BiFunction<String, Entry, Entry> RETAIN = (key, entry) -> {
+        if (entry == null) {
+            entry = new Entry();
+        }
+        entry.refs++;
+        return entry;
+    };
+
+    private static final BiFunction<String, Entry, Entry> RELEASE = (key, entry) -> --entry.refs == 0 ? null : entry;
+
+    private final ConcurrentHashMap<String/*lock key*/, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 获取 key 对应的本地读写锁并登记使用, 之后必须调用 {@link #release(String, LocalReadWriteLock)}, 无论是否成功加锁
+     *
+     * @param key 分布式锁 key
+     */
+    public LocalReadWriteLock acquire(String key) {
+        return entries.compute(key, RETAIN);
+    }
+
+    /**
+     * 登记不再使用 key 对应的本地读写锁. 调用前当前线程需已释放 (或未获取到) 该本地读写锁
+     *
+     * @param key  分布式锁 key
+     * @param lock {@link #acquire(String)} 返回的本地读写锁
+     */
+    public void release(String key, LocalReadWriteLock lock) {
+        entries.computeIfPresent(key, RELEASE);
+    }
+
+    /**
+     * 当前表中的本地读写锁数量
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 本地读写锁, 可以附加一个对象 (例如本地读者共享的分布式读锁). 持有本地读锁的线程可能有多个, 附加对象只应在持有 {@link #getAttachmentLock()} 时读写
+     */
+    public static class LocalReadWriteLock extends ReentrantReadWriteLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ReentrantLock attachmentLock = new ReentrantLock();
+
+        private transient Object attachment;
+
+        /**
+         * 保护附加对象的互斥锁
+         */
+        public ReentrantLock getAttachmentLock() {
+            return attachmentLock;
+        }
+
+        public Object getAttachment() {
+            return attachment;
+        }
+
+        public void setAttachment(Object attachment) {
+            this.attachment = attachment;
+        }
+
+    }
+
+    /**
+     * 带引用计数的本地读写锁. refs 只在 ConcurrentHashMap 的桶锁内读写
+     */
+    private static class Entry extends LocalReadWriteLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient int refs;
+
+    }
+
+}
@@ -0,0 +1,200 @@
+package haidnor.redisson.util;
+
+import org.redisson.api.RRateLimiter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Redis 限流器的本地令牌桶. 每次从 Redis 限流器批量租用 chunk 个许可作为本地令牌, 本地令牌以 CAS 扣减, 不加锁也不访问 Redis.
+ * <ul>
+ *     <li>剩余令牌不超过 chunk 的一半时异步租用下一批, 在本地令牌用完之前补充</li>
+ *     <li>令牌在租用后的一个速率时间间隔内有效, 与 Redis 限流器的时间窗口一致, 过期的令牌作废.
+ *     补充后上一批未用完的令牌保留原有的过期时间并优先使用, 不会并入新的一批而延长有效期</li>
+ *     <li>本地没有令牌时同步向 Redis 限流器获取 1 个许可, 因此不会拒绝 Redis 限流器仍会放行的请求</li>
+ *     <li>批量租用失败 (剩余许可不足 chunk) 后, 在平均产生 chunk 个许可的时间内不再尝试租用</li>
+ * </ul>
+ * chunk 越大访问 Redis 越少, 但各节点租用后未用完而作废的令牌越多, 全局放行数量与 Redis 限流器的偏差越大
+ */
+public class LocalTokenBucket {
+
+    private final RRateLimiter rateLimiter;
+
+    private final long chunk;
+
+    /**
+     * 令牌有效时间(纳秒), 等于限流器的速率时间间隔
+     */
+    private final long intervalNanos;
+
+    /**
+     * 批量租用失败后的等待时间(纳秒)
+     */
+    private final long retryNanos;
+
+    /**
+     * 纳秒时钟, 默认 System.nanoTime
+     */
+    private final LongSupplier nanoClock;
+
+    private final AtomicReference<Slice> slice = new AtomicReference<>();
+
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    /**
+     * 下一次允许批量租用的时间 (nanoClock), 只在 refilling 为 true 时写入
+     */
+    private volatile long refillAfter;
+
+    /**
+     * @param rateLimiter   已设置速率的 Redis 限流器
+     * @param rate          单位时间内的限流次数
+     * @param intervalNanos 速率时间间隔(纳秒)
+     * @param ratio         每次租用的许可数量占 rate 的比例, 取值 (0, 1]
+     */
+    public LocalTokenBucket(RRateLimiter rateLimiter, long rate, long intervalNanos, double ratio) {
+        this(rateLimiter, rate, intervalNanos, ratio, System::nanoTime);
+    }
+
+    /**
+     * @param rateLimiter   已设置速率的 Redis 限流器
+     * @param rate          单位时间内的限流次数
+     * @param intervalNanos 速率时间间隔(纳秒)
+     * @param ratio         每次租用的许可数量占 rate 的比例, 取值 (0, 1]
+     * @param nanoClock     计算令牌过期时间使用的纳秒时钟, 语义与 System.nanoTime 相同
+     */
+    public LocalTokenBucket(RRateLimiter rateLimiter, long rate, long intervalNanos, double ratio, LongSupplier nanoClock) {
+        if (ratio <= 0 || ratio > 1) {
+            throw new IllegalArgumentException("the localRatio must be greater than 0 and not greater than 1 !");
+        }
+        this.rateLimiter = rateLimiter;
+        this.chunk = Math.max(1, (long) (rate * ratio));
+        this.intervalNanos = intervalNanos;
+        this.retryNanos = Math.max(1, (long) (intervalNanos * ((double) chunk / rate)));
+        this.nanoClock = nanoClock;
+        this.refillAfter = nanoClock.getAsLong();
+    }
+
+    /**
+     * 获取 1 个许可. 优先使用本地令牌, 本地没有令牌时同步访问 Redis 限流器
+     */
+    public boolean tryAcquire() {
+        Slice current = slice.get();
+        if (current != null) {
+            long now = nanoClock.getAsLong();
+            Slice previous = current.previous;
+            if (previous != null && previous.take(now) >= 0) {
+                return true;
+            }
+            long remaining = current.take(now);
+            if (remaining >= 0) {
+                if (remaining <= chunk / 2) {
+                    refill();
+                }
+                return true;
+            }
+        }
+        refill();
+        return rateLimiter.tryAcquire(1);
+    }
+
+    /**
+     * 本地剩余的有效令牌数量
+     */
+    public long available() {
+        Slice current = slice.get();
+        if (current == null) {
+            return 0;
+        }
+        long now = nanoClock.getAsLong();
+        Slice previous = current.previous;
+        return current.available(now) + (previous == null ? 0 : previous.available(now));
+    }
+
+    /**
+     * 每次批量租用的许可数量
+     */
+    public long getChunk() {
+        return chunk;
+    }
+
+    /**
+     * 没有正在进行的租用且未处于失败等待时间内时, 异步租用 chunk 个许可
+     */
+    private void refill() {
+        if (nanoClock.getAsLong() - refillAfter < 0 || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+        long requestedAt = nanoClock.getAsLong();
+        rateLimiter.tryAcquireAsync(chunk).whenComplete((acquired, exception) -> {
+            if (exception == null && acquired) {
+                // 以发出请求的时间计算有效期, 不晚于 Redis 限流器的时间窗口. 上一批令牌保留自己的有效期, 更早的批次作废
+                Slice previous = slice.get();
+                if (previous != null) {
+                    Slice older = previous.previous;
+                    previous.previous = null;
+                    if (older != null) {
+                        older.remaining.set(0);
+                    }
+                    if (requestedAt - previous.expireAt >= 0) {
+                        previous = null;
+                    }
+                }
+                slice.set(new Slice(chunk, requestedAt + intervalNanos, previous));
+            } else {
+                refillAfter = nanoClock.getAsLong() + retryNanos;
+            }
+            refilling.set(false);
+        });
+    }
+
+    /**
+     * 一批租用的令牌
+     */
+    private static final class Slice {
+
+        private final AtomicLong remaining;
+
+        /**
+         * 过期时间 (nanoClock)
+         */
+        private final long expireAt;
+
+        /**
+         * 上一批租用的令牌, 未过期前优先使用. 只在 refilling 为 true 时写入
+         */
+        private volatile Slice previous;
+
+        private Slice(long remaining, long expireAt, Slice previous) {
+            this.remaining = new AtomicLong(remaining);
+            this.expireAt = expireAt;
+            this.previous = previous;
+        }
+
+        /**
+         * 扣减 1 个令牌
+         *
+         * @return 扣减后剩余的令牌数量, 已过期或没有令牌时返回 -1
+         */
+        private long take(long now) {
+            if (now - expireAt >= 0) {
+                return -1;
+            }
+            long current;
+            while ((current = remaining.get()) > 0) {
+                if (remaining.compareAndSet(current, current - 1)) {
+                    return current - 1;
+                }
+            }
+            return -1;
+        }
+
+        private long available(long now) {
+            return now - expireAt < 0 ? remaining.get() : 0;
+        }
+
+    }
+
+}
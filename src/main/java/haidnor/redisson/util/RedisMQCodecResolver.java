@@ -0,0 +1,208 @@
+package haidnor.redisson.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import haidnor.redisson.config.RedisMQProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.redisson.client.codec.Codec;
+import org.redisson.codec.CborJacksonCodec;
+import org.redisson.codec.JsonJacksonCodec;
+import org.redisson.codec.Kryo5Codec;
+import org.redisson.codec.LZ4Codec;
+import org.redisson.codec.SmileJacksonCodec;
+import org.redisson.codec.SnappyCodecV2;
+import org.redisson.codec.TypedJsonJacksonCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 消息队列编解码器解析.
+ * <p>
+ * codec 名称可以是内置别名 (json, typed-json, kryo, smile, cbor, lz4, snappy), Codec 类型的 Spring Bean 名称, 或包含无参构造方法的 Codec 全限定类名.
+ * 未指定 codec 时依次使用 redisson.mq.destinations.[队列名称].codec 与 redisson.mq.codec 配置值.
+ * JSON 编解码器 (json, typed-json) 的编码结果总是以 JSON 文本开头, 不会与信封魔数混淆, 因此总是以 {@link RedisMQEnvelopeCodec} 包装, 普通消息的编码结果不变, 同时支持读写消息信封;
+ * 其它编解码器 (例如 kryo, cbor, 压缩编解码器与自定义编解码器) 编码的二进制消息可能以魔数开头, 只有队列开启消息信封 ({@link RedisMQProperties#isEnvelopeEnabled(String)}) 时才包装
+ */
+@Component
+public class RedisMQCodecResolver {
+
+    public static final String JSON = "json";
+
+    /**
+     * 不携带类型信息的 JSON. 生产者不写入 @class 元数据, 消费者按监听方法的参数类型反序列化
+     */
+    public static final String TYPED_JSON = "typed-json";
+
+    public static final String KRYO = "kryo";
+
+    public static final String SMILE = "smile";
+
+    public static final String CBOR = "cbor";
+
+    /**
+     * LZ4 压缩的 JSON
+     */
+    public static final String LZ4 = "lz4";
+
+    /**
+     * Snappy 压缩的 JSON
+     */
+    public static final String SNAPPY = "snappy";
+
+    /**
+     * typed-json 使用的 ObjectMapper. 忽略未知属性, 以兼容消息结构演进及携带 @class 元数据的旧消息
+     */
+    private static final ObjectMapper TYPED_OBJECT_MAPPER = JsonMapper.builder()
+            .findAndAddModules()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .serializationInclusion(JsonInclude.Include.NON_NULL)
+            .build();
+
+    private final Map<String/*codec name*/, Codec> codecMap = new ConcurrentHashMap<>();
+
+    private final Map<String/*codec name*/, Codec> envelopeCodecMap = new ConcurrentHashMap<>();
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private RedisMQProperties properties;
+
+    /**
+     * 解析队列使用的编解码器
+     *
+     * @param queueName 队列名称
+     * @param codecName 显式指定的 codec 名称, 为空时使用队列或全局配置
+     */
+    public Codec resolve(String queueName, String codecName) {
+        String name = getCodecName(queueName, codecName);
+        return resolve(name, isEnvelopeSupported(queueName, name));
+    }
+
+    /**
+     * 解析消费者使用的编解码器. typed-json 编解码器直接反序列化为消息类型
+     *
+     * @param queueName   队列名称
+     * @param codecName   显式指定的 codec 名称, 为空时使用队列或全局配置
+     * @param messageType 监听方法的消息参数类型
+     */
+    public Codec resolve(String queueName, String codecName, Type messageType) {
+        String name = getCodecName(queueName, codecName);
+        if (TYPED_JSON.equals(name)) {
+            return new RedisMQEnvelopeCodec(new TypedJsonJacksonCodec(new TypeReference<>() {
+                @Override
+                public Type getType() {
+                    return messageType;
+                }
+            }, TYPED_OBJECT_MAPPER));
+        }
+        return resolve(name, isEnvelopeSupported(queueName, name));
+    }
+
+    /**
+     * 队列的编解码器是否支持读写消息信封. JSON 编解码器总是支持, 其它编解码器需要队列开启消息信封
+     *
+     * @param queueName 队列名称
+     * @param codecName 队列实际使用的 codec 名称, 见 {@link #getCodecName(String, String)}
+     */
+    public boolean isEnvelopeSupported(String queueName, String codecName) {
+        return JSON.equals(codecName) || TYPED_JSON.equals(codecName) || properties.isEnvelopeEnabled(queueName);
+    }
+
+    /**
+     * 获取队列实际使用的 codec 名称
+     *
+     * @param queueName 队列名称
+     * @param codecName 显式指定的 codec 名称, 为空时使用队列或全局配置
+     */
+    public String getCodecName(String queueName, String codecName) {
+        if (codecName != null && !codecName.isEmpty()) {
+            return codecName;
+        }
+        RedisMQProperties.Destination destination = properties.getDestinations().get(queueName);
+        if (destination != null && destination.getCodec() != null && !destination.getCodec().isEmpty()) {
+            return destination.getCodec();
+        }
+        return properties.getCodec();
+    }
+
+    /**
+     * 按名称解析编解码器
+     *
+     * @param codecName codec 名称
+     * @param envelope  是否以 {@link RedisMQEnvelopeCodec} 包装
+     */
+    public Codec resolve(String codecName, boolean envelope) {
+        Codec codec = codecMap.computeIfAbsent(codecName, this::createCodec);
+        if (!envelope) {
+            return codec;
+        }
+        return envelopeCodecMap.computeIfAbsent(codecName, name -> new RedisMQEnvelopeCodec(codec));
+    }
+
+    /**
+     * 使用编解码器将消息编码为字节, 用于在 Lua 脚本中原样写入 Redis 的场景
+     *
+     * @param codec 队列使用的编解码器
+     * @param msg   任务对象
+     */
+    public static byte[] encode(Codec codec, Object msg) {
+        ByteBuf buf;
+        try {
+            buf = codec.getValueEncoder().encode(msg);
+        } catch (IOException exception) {
+            throw new IllegalArgumentException("encode redis message queue message exception", exception);
+        }
+        try {
+            return ByteBufUtil.getBytes(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private Codec createCodec(String codecName) {
+        try {
+            switch (codecName) {
+                case JSON:
+                    return JsonJacksonCodec.INSTANCE;
+                case TYPED_JSON:
+                    return new TypedJsonJacksonCodec(Object.class, TYPED_OBJECT_MAPPER);
+                case KRYO:
+                    return new Kryo5Codec();
+                case SMILE:
+                    return new SmileJacksonCodec();
+                case CBOR:
+                    return new CborJacksonCodec();
+                case LZ4:
+                    return new LZ4Codec(JsonJacksonCodec.INSTANCE);
+                case SNAPPY:
+                    return new SnappyCodecV2(JsonJacksonCodec.INSTANCE);
+                default:
+                    break;
+            }
+        } catch (NoClassDefFoundError error) {
+            throw new IllegalStateException("codec [" + codecName + "] requires an optional dependency which is not on the classpath", error);
+        }
+        if (applicationContext.containsBean(codecName)) {
+            return applicationContext.getBean(codecName, Codec.class);
+        }
+        try {
+            Class<?> codecClass = ClassUtils.forName(codecName, applicationContext.getClassLoader());
+            return (Codec) codecClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException exception) {
+            throw new IllegalArgumentException("unknown redis message queue codec [" + codecName + "]", exception);
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package haidnor.redisson.util;
+
+import haidnor.redisson.core.RedisMQEnvelope;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.handler.State;
+import org.redisson.client.protocol.Decoder;
+import org.redisson.client.protocol.Encoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 支持消息信封的编解码器, 包装队列使用的编解码器.
+ * <p>
+ * 信封编码格式: 魔数(4) 版本(1) 消息头长度(2) 消息头 消息体. 消息头依次为 时间戳(8) 投递次数(4) 链路追踪 ID 自定义消息头数量(2) 及各消息头的名称与值,
+ * 字符串均为 长度(2) + UTF-8 字节, 长度 0xFFFF 表示 null. 消息体为被包装的编解码器编码后的字节.
+ * 读取时按消息头长度跳过当前版本不认识的字段, 以兼容之后版本新增的消息头.
+ * <p>
+ * 不以魔数开头的消息直接交由被包装的编解码器解码, 因此同一队列中可以同时存在信封消息与普通消息, 消费者可先于生产者升级
+ */
+public class RedisMQEnvelopeCodec implements Codec {
+
+    /**
+     * 魔数 0xF0 'R' 'M' 'Q'. JSON 文本不会以 0xF0 开头; 二进制编解码器的消息可能以魔数开头, 只有开启消息信封的队列才包装二进制编解码器
+     */
+    static final int MAGIC = 0xF0524D51;
+
+    static final byte VERSION = 1;
+
+    private static final int NULL_LENGTH = 0xFFFF;
+
+    private final Codec codec;
+
+    private final Encoder encoder;
+
+    private final Decoder<Object> decoder;
+
+    /**
+     * @param codec 被包装的编解码器
+     */
+    public RedisMQEnvelopeCodec(Codec codec) {
+        this.codec = codec;
+        this.encoder = this::encode;
+        this.decoder = this::decode;
+    }
+
+    /**
+     * 被包装的编解码器
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public Decoder<Object> getValueDecoder() {
+        return decoder;
+    }
+
+    @Override
+    public Encoder getValueEncoder() {
+        return encoder;
+    }
+
+    @Override
+    public Decoder<Object> getMapValueDecoder() {
+        return codec.getMapValueDecoder();
+    }
+
+    @Override
+    public Encoder getMapValueEncoder() {
+        return codec.getMapValueEncoder();
+    }
+
+    @Override
+    public Decoder<Object> getMapKeyDecoder() {
+        return codec.getMapKeyDecoder();
+    }
+
+    @Override
+    public Encoder getMapKeyEncoder() {
+        return codec.getMapKeyEncoder();
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return codec.getClassLoader();
+    }
+
+    private ByteBuf encode(Object value) throws IOException {
+        if (!(value instanceof RedisMQEnvelope envelope)) {
+            return codec.getValueEncoder().encode(value);
+        }
+        ByteBuf body = codec.getValueEncoder().encode(envelope.getBody());
+        ByteBuf header = ByteBufAllocator.DEFAULT.buffer(64);
+        try {
+            header.writeInt(MAGIC);
+            header.writeByte(VERSION);
+            int lengthIndex = header.writerIndex();
+            header.writeShort(0);
+            header.writeLong(envelope.getTimestamp());
+            header.writeInt(envelope.getAttempt());
+            writeString(header, envelope.getTraceId());
+            Map<String, String> headers = envelope.getHeaders();
+            header.writeShort(headers.size());
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                writeString(header, entry.getKey());
+                writeString(header, entry.getValue());
+            }
+            int headerLength = header.writerIndex() - lengthIndex - 2;
+            if (headerLength > 0xFFFF) {
+                throw new IOException("redis message queue envelope headers are too large");
+            }
+            header.setShort(lengthIndex, headerLength);
+        } catch (IOException | RuntimeException exception) {
+            header.release();
+            body.release();
+            throw exception;
+        }
+        return Unpooled.wrappedBuffer(header, body);
+    }
+
+    private Object decode(ByteBuf buf, State state) throws IOException {
+        if (!isEnvelope(buf)) {
+            return codec.getValueDecoder().decode(buf, state);
+        }
+        buf.skipBytes(5);
+        int headerLength = buf.readUnsignedShort();
+        int headerEnd = buf.readerIndex() + headerLength;
+        long timestamp = buf.readLong();
+        int attempt = buf.readInt();
+        String traceId = readString(buf);
+        int count = buf.readUnsignedShort();
+        Map<String, String> headers = null;
+        if (count > 0) {
+            headers = new LinkedHashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                headers.put(readString(buf), readString(buf));
+            }
+        }
+        buf.readerIndex(headerEnd);
+        Object body = codec.getValueDecoder().decode(buf, state);
+        return new RedisMQEnvelope(body, traceId, timestamp, attempt, headers);
+    }
+
+    /**
+     * 将编码后的信封消息的投递次数重置为 1, 可消费时间修改为 timestamp. 直接修改消息头中固定位置的字段, 不反序列化消息体
+     *
+     * @param payload   编码后的消息
+     * @param timestamp 新的可消费时间(毫秒时间戳)
+     * @return 消息不是信封格式时返回 false, 不做修改
+     */
+    public static boolean resetAttempt(byte[] payload, long timestamp) {
+        ByteBuf buf = Unpooled.wrappedBuffer(payload);
+        if (!isEnvelope(buf) || buf.getByte(4) != VERSION || payload.length < 19) {
+            return false;
+        }
+        buf.setLong(7, timestamp);
+        buf.setInt(15, 1);
+        return true;
+    }
+
+    /**
+     * 判断消息是否为信封格式, 只读取魔数不移动读指针
+     */
+    static boolean isEnvelope(ByteBuf buf) {
+        return buf.readableBytes() >= 7 && buf.getInt(buf.readerIndex()) == MAGIC;
+    }
+
+    private static void writeString(ByteBuf buf, String value) throws IOException {
+        if (value == null) {
+            buf.writeShort(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= NULL_LENGTH) {
+            throw new IOException("redis message queue envelope header is too long");
+        }
+        buf.writeShort(bytes.length);
+        buf.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuf buf) {
+        int length = buf.readUnsignedShort();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        String value = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return value;
+    }
+
+}
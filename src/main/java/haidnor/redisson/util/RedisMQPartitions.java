@@ -0,0 +1,93 @@
+package haidnor.redisson.util;
+
+import org.redisson.connection.CRC16;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分区消息队列的 Redis key 计算.
+ * <p>
+ * 第 0 个分区沿用原队列名称, 其余分区依次尝试 队列名称#1, 队列名称#2 ... 并跳过与已选分区位于同一 Redis Cluster slot 的名称,
+ * 使各分区分布在不同的 slot 上. 计算结果只取决于队列名称与分区数, 且分区数增加时已有分区的 key 不变
+ */
+public class RedisMQPartitions {
+
+    private static final int SLOT_NUM = 16384;
+
+    /**
+     * 每个分区最多尝试的候选名称数量. 队列名称包含 hash tag 时所有候选名称位于同一 slot, 超过后不再要求 slot 不同
+     */
+    private static final int MAX_CANDIDATES_PER_PARTITION = 64;
+
+    private static final Map<String/*destination#partitions*/, List<String>> KEYS_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 获取队列所有分区的 Redis key
+     *
+     * @param destination 修饰后的队列名称
+     * @param partitions  分区数量
+     */
+    public static List<String> keys(String destination, int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("the partitions cannot be less than 1 !");
+        }
+        if (partitions == 1) {
+            return Collections.singletonList(destination);
+        }
+        return KEYS_CACHE.computeIfAbsent(destination + "#" + partitions, k -> computeKeys(destination, partitions));
+    }
+
+    /**
+     * 按分区键选择分区, 相同分区键的消息总是进入同一分区, 以保证分区内的消息顺序.
+     * 分区按 String.valueOf(partitionKey) 的 CRC16 选择, 不依赖 hashCode, 因此不同 JVM 与重启后结果一致;
+     * 分区键的 toString 需要稳定地反映业务键 (例如 String, Long, 枚举)
+     *
+     * @param destination  修饰后的队列名称
+     * @param partitions   分区数量
+     * @param partitionKey 分区键
+     */
+    public static String select(String destination, int partitions, Object partitionKey) {
+        List<String> keys = keys(destination, partitions);
+        if (keys.size() == 1) {
+            return keys.get(0);
+        }
+        return keys.get(CRC16.crc16(String.valueOf(partitionKey).getBytes(StandardCharsets.UTF_8)) % keys.size());
+    }
+
+    private static List<String> computeKeys(String destination, int partitions) {
+        List<String> keys = new ArrayList<>(partitions);
+        Set<Integer> slots = new HashSet<>();
+        keys.add(destination);
+        slots.add(slot(destination));
+        int maxCandidates = partitions * MAX_CANDIDATES_PER_PARTITION;
+        for (int candidate = 1; keys.size() < partitions; candidate++) {
+            String key = destination + "#" + candidate;
+            if (slots.add(slot(key)) || candidate > maxCandidates) {
+                keys.add(key);
+            }
+        }
+        return Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * 计算 key 所在的 Redis Cluster slot, 与 Redis 一致地支持 hash tag
+     */
+    public static int slot(String key) {
+        int start = key.indexOf('{');
+        if (start != -1) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                key = key.substring(start + 1, end);
+            }
+        }
+        return CRC16.crc16(key.getBytes(StandardCharsets.UTF_8)) % SLOT_NUM;
+    }
+
+}
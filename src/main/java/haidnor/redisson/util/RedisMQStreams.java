@@ -0,0 +1,62 @@
+package haidnor.redisson.util;
+
+import haidnor.redisson.config.RedisMQProperties;
+import org.redisson.api.stream.StreamAddArgs;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.codec.CompositeCodec;
+
+/**
+ * 基于 Redis Stream 传输的消息队列公共方法.
+ * <p>
+ * 每条消息为只包含 {@value #FIELD} 一个字段的 Stream 条目, 字段值为队列编解码器编码后的字节. 消费者先读取原始字节, 再在消费线程中解码,
+ * 单条无法解码的消息不会导致整批读取失败
+ */
+public class RedisMQStreams {
+
+    /**
+     * Stream 条目中存放消息的字段名
+     */
+    public static final String FIELD = "payload";
+
+    /**
+     * Stream 读写使用的编解码器, 字段名为字符串, 字段值为原始字节
+     */
+    public static final Codec CODEC = new CompositeCodec(StringCodec.INSTANCE, ByteArrayCodec.INSTANCE, ByteArrayCodec.INSTANCE);
+
+    /**
+     * 获取 Stream 的 Redis key. 与 List 传输使用不同的 key, 避免切换传输方式时出现 WRONGTYPE 错误
+     *
+     * @param destination 修饰后的队列名称
+     */
+    public static String key(String destination) {
+        return destination + ":stream";
+    }
+
+    /**
+     * 创建 XADD 参数, 按配置以 MAXLEN ~ 近似裁剪
+     *
+     * @param codec  队列使用的编解码器
+     * @param msg    任务对象
+     * @param stream Stream 配置
+     */
+    public static StreamAddArgs<String, byte[]> addArgs(Codec codec, Object msg, RedisMQProperties.Stream stream) {
+        return addArgs(RedisMQCodecResolver.encode(codec, msg), stream);
+    }
+
+    /**
+     * 使用编码后的消息创建 XADD 参数, 按配置以 MAXLEN ~ 近似裁剪
+     *
+     * @param payload 队列编解码器编码后的消息
+     * @param stream  Stream 配置
+     */
+    public static StreamAddArgs<String, byte[]> addArgs(byte[] payload, RedisMQProperties.Stream stream) {
+        StreamAddArgs<String, byte[]> args = StreamAddArgs.entry(FIELD, payload);
+        if (stream.getMaxLen() > 0) {
+            return args.trimNonStrict().maxLen(stream.getMaxLen()).noLimit();
+        }
+        return args;
+    }
+
+}
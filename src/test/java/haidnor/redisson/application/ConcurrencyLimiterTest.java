@@ -0,0 +1,96 @@
+package haidnor.redisson.application;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 自适应并发许可 AIMD 调整测试, 与被测类位于同一个包以访问包内可见的方法, 无需连接 Redis
+ */
+public class ConcurrencyLimiterTest {
+
+    private static ConcurrencyLimiter newLimiter(int initialLimit) {
+        return new ConcurrencyLimiter(initialLimit, 2, 16, 2.0, 0.5, List.of(TimeoutException.class), null);
+    }
+
+    /**
+     * 获取 count 个许可, 之后以 latencyMillis 的耗时逐个归还, 归还最后一个许可时结束采样窗口
+     */
+    private static void runWindow(ConcurrencyLimiter limiter, int count, long latencyMillis, Throwable failure) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            limiter.acquire();
+        }
+        long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        for (int i = 0; i < count; i++) {
+            limiter.release(start, failure);
+        }
+    }
+
+    @Test
+    public void test_increase() {
+        ConcurrencyLimiter limiter = newLimiter(8);
+        Assertions.assertEquals(9, limiter.nextLimit(8, false, true));
+        Assertions.assertEquals(8, limiter.nextLimit(8, false, false));
+    }
+
+    @Test
+    public void test_decrease() {
+        ConcurrencyLimiter limiter = newLimiter(8);
+        Assertions.assertEquals(4, limiter.nextLimit(8, true, true));
+        Assertions.assertEquals(4, limiter.nextLimit(8, true, false));
+    }
+
+    @Test
+    public void test_floor() {
+        ConcurrencyLimiter limiter = newLimiter(8);
+        Assertions.assertEquals(2, limiter.nextLimit(3, true, false));
+        Assertions.assertEquals(2, limiter.nextLimit(2, true, false));
+        Assertions.assertEquals(2, newLimiter(1).getLimit());
+    }
+
+    @Test
+    public void test_ceiling() {
+        ConcurrencyLimiter limiter = newLimiter(8);
+        Assertions.assertEquals(16, limiter.nextLimit(15, false, true));
+        Assertions.assertEquals(16, limiter.nextLimit(16, false, true));
+        Assertions.assertEquals(16, newLimiter(100).getLimit());
+    }
+
+    @Test
+    public void test_businessExceptionKeepsLimit() throws InterruptedException {
+        ConcurrencyLimiter limiter = newLimiter(10);
+        runWindow(limiter, 10, 1, new IllegalArgumentException("invalid order"));
+        Assertions.assertEquals(10, limiter.getLimit());
+        Assertions.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void test_timeoutExceptionDecreases() throws InterruptedException {
+        ConcurrencyLimiter limiter = newLimiter(10);
+        runWindow(limiter, 10, 1, new CompletionException(new TimeoutException()));
+        Assertions.assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    public void test_latencyDecreases() throws InterruptedException {
+        ConcurrencyLimiter limiter = newLimiter(10);
+        runWindow(limiter, 10, 1, null);
+        Assertions.assertEquals(10, limiter.getLimit());
+        // 窗口平均耗时超过基准耗时的 tolerance 倍
+        runWindow(limiter, 10, 100, null);
+        Assertions.assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    public void test_fixedLimitIgnoresFailures() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4);
+        runWindow(limiter, 4, 100, new TimeoutException());
+        Assertions.assertEquals(4, limiter.getLimit());
+        Assertions.assertFalse(limiter.isOverload(new TimeoutException()));
+    }
+
+}
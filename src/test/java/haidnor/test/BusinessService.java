@@ -1,9 +1,12 @@
 package haidnor.test;
 
+import haidnor.redisson.annotation.RedisLocked;
 import haidnor.redisson.core.RedisLock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 @Service
@@ -52,4 +55,30 @@ public class BusinessService {
         System.out.println(result);
     }
 
+    /**
+     * 异步上锁, 不阻塞调用线程, 代码块返回的 CompletableFuture 完成后释放锁
+     */
+    public CompletableFuture<String> demo5() {
+        return redisLock.lockAsync("LOCK_KEY", 1, TimeUnit.SECONDS, () -> CompletableFuture.supplyAsync(() -> {
+            // 此处省略业务代码......
+            return "返回值";
+        }));
+    }
+
+    /**
+     * Reactor 方式上锁, 代码块返回的 Mono 完成后释放锁
+     */
+    public Mono<String> demo6() {
+        return redisLock.lockReactive("LOCK_KEY", 1, TimeUnit.SECONDS, () -> Mono.just("返回值"));
+    }
+
+    /**
+     * 注解方式上锁, key 由方法参数计算
+     */
+    @RedisLocked(key = "'order:' + #orderId", waitTime = 1, timeUnit = TimeUnit.SECONDS)
+    public String demo7(String orderId) {
+        // 此处省略业务代码......
+        return "返回值";
+    }
+
 }
@@ -0,0 +1,74 @@
+package haidnor.test;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.jupiter.api.Test;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.handler.State;
+import org.redisson.codec.CborJacksonCodec;
+import org.redisson.codec.JsonJacksonCodec;
+import org.redisson.codec.Kryo5Codec;
+import org.redisson.codec.LZ4Codec;
+import org.redisson.codec.SmileJacksonCodec;
+import org.redisson.codec.SnappyCodecV2;
+import org.redisson.codec.TypedJsonJacksonCodec;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 对比消息队列可选编解码器对 Message 类消息的编码体积与编解码吞吐量, 无需连接 Redis
+ */
+public class CodecBenchmarkTest {
+
+    private static final int WARMUP = 20000;
+
+    private static final int ITERATIONS = 100000;
+
+    @Test
+    public void test_codecs() throws Exception {
+        Map<String, Codec> codecs = new LinkedHashMap<>();
+        codecs.put("json", JsonJacksonCodec.INSTANCE);
+        codecs.put("typed-json", new TypedJsonJacksonCodec(Message.class));
+        codecs.put("kryo", new Kryo5Codec());
+        codecs.put("smile", new SmileJacksonCodec());
+        codecs.put("cbor", new CborJacksonCodec());
+        codecs.put("lz4", new LZ4Codec(JsonJacksonCodec.INSTANCE));
+        codecs.put("snappy", new SnappyCodecV2(JsonJacksonCodec.INSTANCE));
+
+        Message msg = new Message("ID_01", "这是一条普通消息, 用于对比不同编解码器的编码体积与吞吐量");
+        for (Map.Entry<String, Codec> entry : codecs.entrySet()) {
+            benchmark(entry.getKey(), entry.getValue(), msg);
+        }
+    }
+
+    private void benchmark(String name, Codec codec, Object msg) throws Exception {
+        ByteBuf encoded = codec.getValueEncoder().encode(msg);
+        int size = encoded.readableBytes();
+        encoded.release();
+
+        for (int i = 0; i < WARMUP; i++) {
+            roundTrip(codec, msg);
+        }
+        long encodeCost = 0;
+        long decodeCost = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long t1 = System.nanoTime();
+            ByteBuf buf = codec.getValueEncoder().encode(msg);
+            long t2 = System.nanoTime();
+            codec.getValueDecoder().decode(buf, new State());
+            long t3 = System.nanoTime();
+            buf.release();
+            encodeCost += t2 - t1;
+            decodeCost += t3 - t2;
+        }
+        System.out.printf("%-10s size: %4d bytes, encode: %8d ops/s, decode: %8d ops/s%n",
+                name, size, ITERATIONS * 1_000_000_000L / encodeCost, ITERATIONS * 1_000_000_000L / decodeCost);
+    }
+
+    private void roundTrip(Codec codec, Object msg) throws Exception {
+        ByteBuf buf = codec.getValueEncoder().encode(msg);
+        codec.getValueDecoder().decode(buf, new State());
+        buf.release();
+    }
+
+}
@@ -0,0 +1,143 @@
+package haidnor.test;
+
+import haidnor.redisson.config.RedisMQProperties;
+import haidnor.redisson.core.RedisMQContext;
+import haidnor.redisson.core.RedisMQEnvelope;
+import haidnor.redisson.util.RedisMQCodecResolver;
+import haidnor.redisson.util.RedisMQEnvelopeCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.handler.State;
+import org.redisson.codec.JsonJacksonCodec;
+import org.slf4j.MDC;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 消息信封编解码测试, 无需连接 Redis
+ */
+public class EnvelopeCodecTest {
+
+    private final Codec codec = new RedisMQEnvelopeCodec(JsonJacksonCodec.INSTANCE);
+
+    @Test
+    public void test_roundTrip() throws Exception {
+        MDC.put(RedisMQEnvelope.TRACE_ID, "4bf92f3577b34da6a3ce929d0e0e4736");
+        RedisMQEnvelope envelope;
+        try {
+            envelope = RedisMQEnvelope.of(new HashMap<>(Map.of("orderId", 10086)), 1000).header("tenant", "t1");
+        } finally {
+            MDC.remove(RedisMQEnvelope.TRACE_ID);
+        }
+        Object decoded = decode(RedisMQCodecResolver.encode(codec, envelope));
+
+        Assertions.assertInstanceOf(RedisMQEnvelope.class, decoded);
+        RedisMQEnvelope result = (RedisMQEnvelope) decoded;
+        Assertions.assertEquals(Map.of("orderId", 10086), result.getBody());
+        Assertions.assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", result.getTraceId());
+        Assertions.assertEquals(envelope.getTimestamp(), result.getTimestamp());
+        Assertions.assertEquals(1, result.getAttempt());
+        Assertions.assertEquals("t1", result.getHeader("tenant"));
+    }
+
+    @Test
+    public void test_plainMessageUnchanged() throws Exception {
+        byte[] plain = RedisMQCodecResolver.encode(JsonJacksonCodec.INSTANCE, "hello");
+        Assertions.assertArrayEquals(plain, RedisMQCodecResolver.encode(codec, "hello"));
+        Assertions.assertEquals("hello", decode(plain));
+    }
+
+    @Test
+    public void test_skipUnknownHeaders() throws Exception {
+        byte[] bytes = RedisMQCodecResolver.encode(codec, new RedisMQEnvelope("hello", null, 1L, 3, null));
+        // 模拟之后版本在消息头末尾新增的 4 字节字段
+        int headerLength = ((bytes[5] & 0xFF) << 8) | (bytes[6] & 0xFF);
+        int headerEnd = 7 + headerLength;
+        byte[] extended = new byte[bytes.length + 4];
+        System.arraycopy(bytes, 0, extended, 0, headerEnd);
+        System.arraycopy(bytes, headerEnd, extended, headerEnd + 4, bytes.length - headerEnd);
+        extended[5] = (byte) ((headerLength + 4) >> 8);
+        extended[6] = (byte) (headerLength + 4);
+
+        RedisMQEnvelope result = (RedisMQEnvelope) decode(extended);
+        Assertions.assertEquals("hello", result.getBody());
+        Assertions.assertNull(result.getTraceId());
+        Assertions.assertEquals(3, result.getAttempt());
+        Assertions.assertFalse(Arrays.equals(bytes, extended));
+    }
+
+    @Test
+    public void test_retry() throws Exception {
+        RedisMQEnvelope envelope = new RedisMQEnvelope("hello", "trace-1", 1L, 1, null).header("tenant", "t1");
+        RedisMQEnvelope retry = envelope.retry(5000);
+        Assertions.assertEquals(2, retry.getAttempt());
+        Assertions.assertEquals("trace-1", retry.getTraceId());
+        Assertions.assertEquals("t1", retry.getHeader("tenant"));
+        Assertions.assertTrue(retry.getTimestamp() >= System.currentTimeMillis() + 4000);
+
+        RedisMQEnvelope decoded = (RedisMQEnvelope) decode(RedisMQCodecResolver.encode(codec, retry));
+        Assertions.assertEquals(2, decoded.getAttempt());
+    }
+
+    @Test
+    public void test_resetAttempt() throws Exception {
+        byte[] bytes = RedisMQCodecResolver.encode(codec, new RedisMQEnvelope("hello", "trace-1", 1L, 5, null).header("tenant", "t1"));
+        Assertions.assertTrue(RedisMQEnvelopeCodec.resetAttempt(bytes, 100L));
+
+        RedisMQEnvelope result = (RedisMQEnvelope) decode(bytes);
+        Assertions.assertEquals(1, result.getAttempt());
+        Assertions.assertEquals(100L, result.getTimestamp());
+        Assertions.assertEquals("trace-1", result.getTraceId());
+        Assertions.assertEquals("t1", result.getHeader("tenant"));
+        Assertions.assertEquals("hello", result.getBody());
+
+        Assertions.assertFalse(RedisMQEnvelopeCodec.resetAttempt(RedisMQCodecResolver.encode(codec, "hello"), 100L));
+    }
+
+    @Test
+    public void test_context() {
+        RedisMQEnvelope envelope = new RedisMQEnvelope("hello", "trace-1", 1L, 1, null);
+        RedisMQContext.run(envelope, () -> {
+            Assertions.assertSame(envelope, RedisMQContext.current());
+            Assertions.assertEquals("trace-1", MDC.get(RedisMQEnvelope.TRACE_ID));
+        });
+        Assertions.assertNull(RedisMQContext.current());
+        Assertions.assertNull(MDC.get(RedisMQEnvelope.TRACE_ID));
+    }
+
+    @Test
+    public void test_binaryCodecWrappedOnlyWhenEnabled() {
+        RedisMQProperties properties = new RedisMQProperties();
+        RedisMQProperties.Destination destination = new RedisMQProperties.Destination();
+        destination.setEnvelope(true);
+        properties.getDestinations().put("enveloped_queue", destination);
+        RedisMQCodecResolver resolver = new RedisMQCodecResolver();
+        ReflectionTestUtils.setField(resolver, "properties", properties);
+
+        Assertions.assertInstanceOf(RedisMQEnvelopeCodec.class, resolver.resolve("plain_queue", RedisMQCodecResolver.JSON));
+        Assertions.assertInstanceOf(RedisMQEnvelopeCodec.class, resolver.resolve("plain_queue", RedisMQCodecResolver.TYPED_JSON, String.class));
+        Assertions.assertFalse(resolver.resolve("plain_queue", RedisMQCodecResolver.CBOR) instanceof RedisMQEnvelopeCodec);
+        Assertions.assertInstanceOf(RedisMQEnvelopeCodec.class, resolver.resolve("enveloped_queue", RedisMQCodecResolver.CBOR));
+
+        properties.getEnvelope().setEnabled(true);
+        Assertions.assertInstanceOf(RedisMQEnvelopeCodec.class, resolver.resolve("plain_queue", RedisMQCodecResolver.CBOR));
+        destination.setEnvelope(false);
+        Assertions.assertFalse(resolver.resolve("enveloped_queue", RedisMQCodecResolver.CBOR) instanceof RedisMQEnvelopeCodec);
+    }
+
+    private Object decode(byte[] bytes) throws Exception {
+        ByteBuf buf = Unpooled.wrappedBuffer(bytes);
+        try {
+            return codec.getValueDecoder().decode(buf, new State());
+        } finally {
+            buf.release();
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package haidnor.test;
+
+import haidnor.redisson.util.HandlerInvokers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.function.Consumer;
+
+/**
+ * 对比 Method.invoke 反射调用与 HandlerInvokers 生成的调用器分发单条消息的开销, 无需连接 Redis
+ */
+public class HandlerInvokerBenchmarkTest {
+
+    private static final int WARMUP = 1_000_000;
+
+    private static final int ITERATIONS = 10_000_000;
+
+    @Test
+    public void test_dispatch() throws Throwable {
+        Handler handler = new Handler();
+        Method method = Handler.class.getMethod("handle", Message.class);
+        Consumer<Object> invoker = HandlerInvokers.create(handler, method);
+        Message msg = new Message("ID_01", "content");
+        Assertions.assertTrue(invoker.getClass().getName().contains("$$Lambda"), "invoker should be generated by LambdaMetafactory");
+
+        for (int i = 0; i < WARMUP; i++) {
+            method.invoke(handler, msg);
+            invoker.accept(msg);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            method.invoke(handler, msg);
+        }
+        long t2 = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            invoker.accept(msg);
+        }
+        long t3 = System.nanoTime();
+        System.out.printf("Method.invoke: %.2f ns/msg, HandlerInvokers: %.2f ns/msg%n",
+                (t2 - t1) / (double) ITERATIONS, (t3 - t2) / (double) ITERATIONS);
+        Assertions.assertEquals(2L * (WARMUP + ITERATIONS), handler.count);
+    }
+
+    @Test
+    public void test_exceptionNotWrapped() throws Exception {
+        Method method = Handler.class.getMethod("fail", Message.class);
+        Consumer<Object> invoker = HandlerInvokers.create(new Handler(), method);
+        Assertions.assertThrows(IllegalStateException.class, () -> invoker.accept(new Message()));
+    }
+
+    @Test
+    public void test_wrongParameterCount() throws Exception {
+        // 与反射调用方式一致, 创建时不失败, 每次调用时失败
+        Method method = Handler.class.getMethod("handleTwo", Message.class, String.class);
+        Consumer<Object> invoker = HandlerInvokers.create(new Handler(), method);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> invoker.accept(new Message()));
+    }
+
+    public static class Handler {
+
+        private long count;
+
+        public void handle(Message msg) {
+            count++;
+        }
+
+        public void fail(Message msg) {
+            throw new IllegalStateException("consume failed");
+        }
+
+        public void handleTwo(Message msg, String tag) {
+        }
+    }
+
+}
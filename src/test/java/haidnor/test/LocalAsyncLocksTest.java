@@ -0,0 +1,67 @@
+package haidnor.test;
+
+import haidnor.redisson.util.LocalAsyncLocks;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地异步锁测试, 无需连接 Redis
+ */
+public class LocalAsyncLocksTest {
+
+    @Test
+    public void test_handoffInOrder() throws Exception {
+        LocalAsyncLocks locks = new LocalAsyncLocks();
+        Assertions.assertTrue(locks.acquire("key", 0).get());
+        Assertions.assertFalse(locks.acquire("key", 0).get());
+
+        List<Integer> order = new ArrayList<>();
+        List<CompletableFuture<Boolean>> waiters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int index = i;
+            CompletableFuture<Boolean> waiter = locks.acquire("key", TimeUnit.SECONDS.toNanos(10));
+            waiter.thenAccept(acquired -> order.add(index));
+            waiters.add(waiter);
+        }
+        Assertions.assertFalse(waiters.get(0).isDone());
+        for (int i = 0; i < 4; i++) {
+            locks.release("key");
+        }
+        Assertions.assertEquals(List.of(0, 1, 2), order);
+        Assertions.assertEquals(0, locks.size());
+    }
+
+    @Test
+    public void test_timeout() throws Exception {
+        LocalAsyncLocks locks = new LocalAsyncLocks();
+        Assertions.assertTrue(locks.acquire("key", 0).get());
+        CompletableFuture<Boolean> expired = locks.acquire("key", TimeUnit.MILLISECONDS.toNanos(20));
+        CompletableFuture<Boolean> waiting = locks.acquire("key", TimeUnit.SECONDS.toNanos(10));
+        Assertions.assertFalse(expired.get());
+
+        // 已超时的等待者被跳过, 锁直接交给下一个等待者
+        locks.release("key");
+        Assertions.assertTrue(waiting.get(1, TimeUnit.SECONDS));
+        locks.release("key");
+        Assertions.assertEquals(0, locks.size());
+    }
+
+    @Test
+    public void test_reacquireInCallback() throws Exception {
+        LocalAsyncLocks locks = new LocalAsyncLocks();
+        Assertions.assertTrue(locks.acquire("key", 0).get());
+        CompletableFuture<Boolean> nested = new CompletableFuture<>();
+        locks.acquire("key", TimeUnit.SECONDS.toNanos(10)).thenAccept(acquired -> {
+            locks.release("key");
+            locks.acquire("key", 0).thenAccept(nested::complete);
+        });
+        locks.release("key");
+        Assertions.assertTrue(nested.get(1, TimeUnit.SECONDS));
+    }
+
+}
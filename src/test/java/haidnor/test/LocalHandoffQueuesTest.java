@@ -0,0 +1,44 @@
+package haidnor.test;
+
+import haidnor.redisson.util.LocalHandoffQueues;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地交接队列测试, 无需连接 Redis
+ */
+public class LocalHandoffQueuesTest {
+
+    @Test
+    public void test_offerInOrder() throws Exception {
+        LocalHandoffQueues<String> queues = new LocalHandoffQueues<>();
+        Assertions.assertFalse(queues.offer("key", "permit-0"));
+
+        CompletableFuture<String> first = queues.register("key");
+        CompletableFuture<String> second = queues.register("key");
+        Assertions.assertTrue(queues.offer("key", "permit-1"));
+        Assertions.assertEquals("permit-1", first.get(1, TimeUnit.SECONDS));
+        Assertions.assertFalse(second.isDone());
+
+        queues.remove("key", first);
+        queues.remove("key", second);
+        Assertions.assertEquals(0, queues.size());
+        Assertions.assertFalse(queues.offer("key", "permit-2"));
+    }
+
+    @Test
+    public void test_skipCompletedWaiters() throws Exception {
+        LocalHandoffQueues<String> queues = new LocalHandoffQueues<>();
+        CompletableFuture<String> expired = queues.register("key");
+        CompletableFuture<String> waiting = queues.register("key");
+        // 已超时的等待者被跳过, 直接交给下一个等待者
+        expired.complete(null);
+        Assertions.assertTrue(queues.offer("key", "permit"));
+        Assertions.assertEquals("permit", waiting.get(1, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, queues.size());
+    }
+
+}
@@ -0,0 +1,217 @@
+package haidnor.test;
+
+import haidnor.redisson.util.LocalLockTable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对比原 computeIfAbsent + remove 方式, 引用计数与分段本地锁表在多 key 与热点 key 场景下获取释放本地锁的开销, 无需连接 Redis
+ */
+public class LocalLockTableBenchmarkTest {
+
+    private static final int THREADS = 8;
+
+    private static final int WARMUP = 200_000;
+
+    private static final int ITERATIONS = 2_000_000;
+
+    private static final String[] KEYS = new String[10_000];
+
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            KEYS[i] = "order:lock:" + i;
+        }
+    }
+
+    @Test
+    public void test_manyKeys() throws Exception {
+        benchmark("many keys", false);
+    }
+
+    @Test
+    public void test_hotKey() throws Exception {
+        benchmark("hot key", true);
+    }
+
+    @Test
+    public void test_mutualExclusion() throws Exception {
+        for (LocalLockTable table : List.of(LocalLockTable.refCounted(), LocalLockTable.striped(16))) {
+            long[] counter = new long[1];
+            run(table, true, ITERATIONS / THREADS, () -> counter[0]++);
+            Assertions.assertEquals(ITERATIONS / THREADS * THREADS, counter[0]);
+        }
+        LocalLockTable refCounted = LocalLockTable.refCounted();
+        run(refCounted, false, ITERATIONS / THREADS, () -> {
+        });
+        Assertions.assertEquals(0, refCounted.size(), "unused local locks should be removed");
+    }
+
+    @Test
+    public void test_stripes() {
+        Assertions.assertEquals(1, LocalLockTable.striped(1).size());
+        Assertions.assertEquals(16, LocalLockTable.striped(16).size());
+        Assertions.assertEquals(32, LocalLockTable.striped(17).size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LocalLockTable.striped(0));
+    }
+
+    /**
+     * 分段模式下按 key 排序后两组 key 映射到的分段顺序相反, 按 lockOrder 加锁不会互相死锁, 映射到同一分段的本地锁只加锁一次
+     */
+    @Test
+    public void test_lockOrderWithCollidingKeys() throws Exception {
+        LocalLockTable table = LocalLockTable.striped(2);
+        // forward 按 key 排序后先 A 段后 B 段, backward 按 key 排序后先 B 段后 A 段
+        List<String> forward = null;
+        List<String> backward = null;
+        LocalLockTable.LocalLock stripeA = table.acquire(KEYS[0]);
+        for (int i = 1; i < KEYS.length && (forward == null || backward == null); i++) {
+            for (int j = 0; j < i && (forward == null || backward == null); j++) {
+                String low = KEYS[i].compareTo(KEYS[j]) < 0 ? KEYS[i] : KEYS[j];
+                String high = low == KEYS[i] ? KEYS[j] : KEYS[i];
+                if (table.acquire(low) == table.acquire(high)) {
+                    continue;
+                }
+                if (table.acquire(low) == stripeA) {
+                    forward = forward == null ? List.of(low, high) : forward;
+                } else {
+                    backward = backward == null ? List.of(low, high) : backward;
+                }
+            }
+        }
+        Assertions.assertNotNull(forward);
+        Assertions.assertNotNull(backward);
+        Assertions.assertEquals(1, LocalLockTable.lockOrder(List.of(table.acquire(forward.get(0)), table.acquire(backward.get(1)), stripeA)).size());
+
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (List<String> keys : List.of(forward, backward)) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    List<LocalLockTable.LocalLock> acquired = new ArrayList<>();
+                    for (String key : keys) {
+                        acquired.add(table.acquire(key));
+                    }
+                    List<LocalLockTable.LocalLock> ordered = LocalLockTable.lockOrder(acquired);
+                    int locked = 0;
+                    try {
+                        while (locked < ordered.size() && ordered.get(locked).tryLock(1, TimeUnit.SECONDS)) {
+                            locked++;
+                        }
+                        if (locked < ordered.size()) {
+                            failures.incrementAndGet();
+                            return;
+                        }
+                    } catch (InterruptedException exception) {
+                        return;
+                    } finally {
+                        for (int j = locked - 1; j >= 0; j--) {
+                            ordered.get(j).unlock();
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(0, failures.get(), "local locks taken in lockOrder should never deadlock");
+    }
+
+    private void benchmark(String workload, boolean hotKey) throws Exception {
+        LocalLockTable legacy = new ComputeIfAbsentTable();
+        LocalLockTable refCounted = LocalLockTable.refCounted();
+        LocalLockTable striped = LocalLockTable.striped(1024);
+        for (LocalLockTable table : List.of(legacy, refCounted, striped)) {
+            run(table, hotKey, WARMUP, () -> {
+            });
+        }
+        long legacyNanos = run(legacy, hotKey, ITERATIONS / THREADS, () -> {
+        });
+        long refCountedNanos = run(refCounted, hotKey, ITERATIONS / THREADS, () -> {
+        });
+        long stripedNanos = run(striped, hotKey, ITERATIONS / THREADS, () -> {
+        });
+        System.out.printf("%s, %d threads: computeIfAbsent + remove: %.1f ns/op, refCounted: %.1f ns/op, striped: %.1f ns/op%n", workload, THREADS,
+                legacyNanos / (double) ITERATIONS, refCountedNanos / (double) ITERATIONS, stripedNanos / (double) ITERATIONS);
+        Assertions.assertEquals(0, refCounted.size());
+    }
+
+    /**
+     * 多个线程并发获取本地锁执行 action, 返回总耗时(纳秒)
+     *
+     * @param hotKey 所有线程使用同一个 key, 否则每次使用不同的 key
+     */
+    private long run(LocalLockTable table, boolean hotKey, int iterations, Runnable action) throws Exception {
+        CountDownLatch ready = new CountDownLatch(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            int offset = t * 997;
+            Thread thread = new Thread(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException exception) {
+                    return;
+                }
+                for (int i = 0; i < iterations; i++) {
+                    String key = hotKey ? KEYS[0] : KEYS[(offset + i) % KEYS.length];
+                    LocalLockTable.LocalLock lock = table.acquire(key);
+                    lock.lock();
+                    try {
+                        action.run();
+                    } finally {
+                        lock.unlock();
+                        table.release(key, lock);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * 原 RedisLock 的本地锁管理方式: 每次 computeIfAbsent, 释放后未被锁定则移除
+     */
+    private static class ComputeIfAbsentTable extends LocalLockTable {
+
+        private final Map<String, LocalLock> locks = new ConcurrentHashMap<>();
+
+        @Override
+        public LocalLock acquire(String key) {
+            return locks.computeIfAbsent(key, k -> new LocalLock());
+        }
+
+        @Override
+        public void release(String key, LocalLock lock) {
+            if (!lock.isLocked()) {
+                locks.remove(key);
+            }
+        }
+
+        @Override
+        public int size() {
+            return locks.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,44 @@
+package haidnor.test;
+
+import haidnor.redisson.util.LocalReadWriteLocks;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地读写锁表测试, 无需连接 Redis
+ */
+public class LocalReadWriteLocksTest {
+
+    @Test
+    public void test_sharedInstance() throws Exception {
+        LocalReadWriteLocks locks = new LocalReadWriteLocks();
+        LocalReadWriteLocks.LocalReadWriteLock lock = locks.acquire("key");
+        lock.readLock().lock();
+
+        // 其它线程获取到同一个本地读写锁, 可以同时持有读锁, 不能获取写锁
+        boolean[] result = new boolean[2];
+        CountDownLatch done = new CountDownLatch(1);
+        new Thread(() -> {
+            LocalReadWriteLocks.LocalReadWriteLock other = locks.acquire("key");
+            result[0] = other == lock && other.readLock().tryLock();
+            if (result[0]) {
+                other.readLock().unlock();
+            }
+            result[1] = other.writeLock().tryLock();
+            locks.release("key", other);
+            done.countDown();
+        }).start();
+        Assertions.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(result[0]);
+        Assertions.assertFalse(result[1]);
+
+        lock.readLock().unlock();
+        locks.release("key", lock);
+        Assertions.assertEquals(0, locks.size());
+        Assertions.assertNotSame(lock, locks.acquire("key"));
+    }
+
+}
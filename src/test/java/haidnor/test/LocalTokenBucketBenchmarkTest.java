@@ -0,0 +1,159 @@
+package haidnor.test;
+
+import haidnor.redisson.util.LocalTokenBucket;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RRateLimiter;
+import org.redisson.misc.CompletableFutureWrapper;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 对比每次调用同步访问 Redis 限流器与本地令牌桶的单次调用开销, 以模拟往返延迟的限流器代替 Redis, 无需连接 Redis
+ */
+public class LocalTokenBucketBenchmarkTest {
+
+    /**
+     * 模拟的 Redis 往返延迟(纳秒)
+     */
+    private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    private static final int SYNC_ITERATIONS = 2_000;
+
+    private static final int LOCAL_ITERATIONS = 1_000_000;
+
+    @Test
+    public void test_overhead() throws Exception {
+        FakeRateLimiter limiter = new FakeRateLimiter(Long.MAX_VALUE);
+        RRateLimiter rateLimiter = limiter.proxy();
+        long t1 = System.nanoTime();
+        for (int i = 0; i < SYNC_ITERATIONS; i++) {
+            Assertions.assertTrue(rateLimiter.tryAcquire(1));
+        }
+        long syncNanos = System.nanoTime() - t1;
+
+        LocalTokenBucket bucket = new LocalTokenBucket(rateLimiter, 10_000_000, TimeUnit.SECONDS.toNanos(1), 0.05);
+        // 第一次调用同步访问 Redis 并触发异步租用
+        Assertions.assertTrue(bucket.tryAcquire());
+        while (bucket.available() == 0) {
+            Thread.sleep(1);
+        }
+        long calls = limiter.calls.get();
+        long t2 = System.nanoTime();
+        for (int i = 0; i < LOCAL_ITERATIONS; i++) {
+            Assertions.assertTrue(bucket.tryAcquire());
+        }
+        long localNanos = System.nanoTime() - t2;
+        long redisCalls = limiter.calls.get() - calls;
+        System.out.printf("sync Redis: %.1f us/call, local bucket (chunk %d): %.1f ns/call, Redis calls per 1000 acquires: %.3f%n",
+                syncNanos / 1000.0 / SYNC_ITERATIONS, bucket.getChunk(), localNanos / (double) LOCAL_ITERATIONS, redisCalls * 1000.0 / LOCAL_ITERATIONS);
+        Assertions.assertTrue(redisCalls < LOCAL_ITERATIONS / 1000, "most calls should be served locally");
+    }
+
+    @Test
+    public void test_neverExceedGlobalPermits() throws Exception {
+        long permits = 5_000;
+        FakeRateLimiter limiter = new FakeRateLimiter(permits);
+        AtomicLong granted = new AtomicLong();
+        List<CompletableFuture<Void>> nodes = new ArrayList<>();
+        // 4 个节点各自租用本地令牌
+        for (int n = 0; n < 4; n++) {
+            LocalTokenBucket bucket = new LocalTokenBucket(limiter.proxy(), permits, TimeUnit.SECONDS.toNanos(60), 0.1);
+            nodes.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 3_000; i++) {
+                    if (bucket.tryAcquire()) {
+                        granted.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        CompletableFuture.allOf(nodes.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        Assertions.assertTrue(granted.get() <= permits);
+        Assertions.assertTrue(granted.get() >= permits - 4 * 500, "leased but unused permits should be bounded by one chunk per node");
+    }
+
+    @Test
+    public void test_leftoverTokensKeepTheirExpiry() {
+        // 限流器同步完成租用, 由手动推进的时钟决定令牌过期, 结果与调度和耗时无关
+        AtomicLong clock = new AtomicLong();
+        LocalTokenBucket bucket = new LocalTokenBucket(new FakeRateLimiter(Long.MAX_VALUE, 0).proxy(), 10, 600, 1, clock::get);
+        Assertions.assertTrue(bucket.tryAcquire());
+        Assertions.assertEquals(10, bucket.available());
+        clock.set(200);
+        // 剩余 5 个令牌时租用下一批, 上一批剩余的令牌保留原有的过期时间
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertTrue(bucket.tryAcquire());
+        }
+        Assertions.assertEquals(15, bucket.available());
+        clock.set(599);
+        Assertions.assertEquals(15, bucket.available());
+        clock.set(600);
+        Assertions.assertEquals(10, bucket.available(), "leftover tokens should expire with their own slice");
+        Assertions.assertTrue(bucket.tryAcquire());
+        Assertions.assertEquals(9, bucket.available());
+        clock.set(800);
+        Assertions.assertEquals(0, bucket.available());
+    }
+
+    @Test
+    public void test_invalidRatio() {
+        RRateLimiter rateLimiter = new FakeRateLimiter(1).proxy();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new LocalTokenBucket(rateLimiter, 100, 1, 0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new LocalTokenBucket(rateLimiter, 100, 1, 1.5));
+    }
+
+    /**
+     * 模拟 Redis 限流器: 共有 permits 个许可, 不随时间恢复, 每次访问有 roundTripNanos 的延迟. 延迟为 0 时异步租用同步完成
+     */
+    private static class FakeRateLimiter {
+
+        private final AtomicLong available;
+
+        private final AtomicLong calls = new AtomicLong();
+
+        private final long roundTripNanos;
+
+        private FakeRateLimiter(long permits) {
+            this(permits, ROUND_TRIP_NANOS);
+        }
+
+        private FakeRateLimiter(long permits, long roundTripNanos) {
+            this.available = new AtomicLong(permits);
+            this.roundTripNanos = roundTripNanos;
+        }
+
+        private boolean acquire(long permits) {
+            calls.incrementAndGet();
+            if (roundTripNanos > 0) {
+                LockSupport.parkNanos(roundTripNanos);
+            }
+            while (true) {
+                long current = available.get();
+                if (current < permits) {
+                    return false;
+                }
+                if (available.compareAndSet(current, current - permits)) {
+                    return true;
+                }
+            }
+        }
+
+        private RRateLimiter proxy() {
+            return (RRateLimiter) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{RRateLimiter.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "tryAcquire" -> acquire((Long) args[0]);
+                case "tryAcquireAsync" -> new CompletableFutureWrapper<>(roundTripNanos > 0
+                        ? CompletableFuture.supplyAsync(() -> acquire((Long) args[0]))
+                        : CompletableFuture.completedFuture(acquire((Long) args[0])));
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+        }
+
+    }
+
+}
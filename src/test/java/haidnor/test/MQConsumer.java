@@ -5,6 +5,7 @@ import haidnor.redisson.annotation.RedisMQListener;
 import haidnor.redisson.annotation.RedisMQHandler;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -24,6 +25,22 @@ public class MQConsumer {
         System.out.println(msg);
     }
 
+    /**
+     * 普通消息队列批量消息监听器. 每次最多拉取 100 条消息, 以 List 形式一次性投递
+     */
+    @RedisMQHandler(destination = "batch_msg_queue", batchSize = 100, maxWait = 20)
+    public void batchMsgConsumer(List<Message> msgList) {
+        System.out.println(msgList.size());
+    }
+
+    /**
+     * 可靠消息队列消息监听器. 抛出异常时消息重新入队
+     */
+    @RedisMQHandler(destination = "reliable_msg_queue", reliable = true)
+    public void reliableMsgConsumer(Message msg) {
+        System.out.println(msg);
+    }
+
     /**
      * 延迟消息队列消息监听器
      */
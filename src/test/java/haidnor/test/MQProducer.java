@@ -4,6 +4,8 @@ import haidnor.redisson.core.RedisMQService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -36,4 +38,17 @@ public class MQProducer {
         redisMQService.send("delay_msg_queue", msg, 1, TimeUnit.SECONDS);
     }
 
+    /**
+     * 向 redis 消息队列中批量发送消息. 所有消息通过管道发送, 返回每条消息的发送结果
+     */
+    public void sendBatchMsg() {
+        List<Message> msgList = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            msgList.add(new Message("ID_" + i, "这是一条批量消息"));
+        }
+
+        List<Boolean> results = redisMQService.sendBatch("batch_msg_queue", msgList);
+        System.out.println(results);
+    }
+
 }
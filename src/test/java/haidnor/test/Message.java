@@ -6,6 +6,9 @@ public class Message {
 
     private String content;
 
+    public Message() {
+    }
+
     public Message(String msgId, String content) {
         this.msgId = msgId;
         this.content = content;
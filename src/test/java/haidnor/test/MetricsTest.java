@@ -0,0 +1,70 @@
+package haidnor.test;
+
+import haidnor.redisson.metrics.ConsumerMetrics;
+import haidnor.redisson.metrics.MicrometerRedisMetrics;
+import haidnor.redisson.metrics.RedisMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micrometer 指标采集测试, 无需连接 Redis
+ */
+public class MetricsTest {
+
+    @Test
+    public void test_send() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisMetrics metrics = new MicrometerRedisMetrics(registry);
+        metrics.recordSend("order_queue", 1, TimeUnit.MILLISECONDS.toNanos(2), true);
+        metrics.recordSend("order_queue", 100, TimeUnit.MILLISECONDS.toNanos(5), true);
+        metrics.recordSend("order_queue", 1, TimeUnit.MILLISECONDS.toNanos(1), false);
+
+        Assertions.assertEquals(2, registry.get("redisson.mq.send").tag("destination", "order_queue").tag("result", "success").timer().count());
+        Assertions.assertEquals(1, registry.get("redisson.mq.send").tag("result", "failure").timer().count());
+        Assertions.assertEquals(102, registry.get("redisson.mq.send.messages").counter().count());
+    }
+
+    @Test
+    public void test_consumer() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AtomicInteger inFlight = new AtomicInteger(3);
+        ConsumerMetrics metrics = new MicrometerRedisMetrics(registry).consumer("order_queue", inFlight::get, () -> 8);
+        metrics.recordConsume(10, TimeUnit.MILLISECONDS.toNanos(20), true);
+        metrics.recordPermitWait(TimeUnit.MILLISECONDS.toNanos(1));
+        metrics.setDepth(42);
+
+        Assertions.assertEquals(1, registry.get("redisson.mq.consume").tag("result", "success").timer().count());
+        Assertions.assertEquals(10, registry.get("redisson.mq.consume.messages").tag("result", "success").counter().count());
+        Assertions.assertEquals(1, registry.get("redisson.mq.consume.permit.wait").timer().count());
+        Assertions.assertEquals(3, registry.get("redisson.mq.consume.in.flight").gauge().value());
+        Assertions.assertEquals(8, registry.get("redisson.mq.consume.concurrency").gauge().value());
+        Assertions.assertEquals(42, registry.get("redisson.mq.queue.depth").gauge().value());
+        inFlight.set(0);
+        Assertions.assertEquals(0, registry.get("redisson.mq.consume.in.flight").gauge().value());
+    }
+
+    @Test
+    public void test_lockAndRateLimiter() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisMetrics metrics = new MicrometerRedisMetrics(registry);
+        metrics.recordLockContention(RedisMetrics.SCOPE_LOCAL);
+        metrics.recordLockContention(RedisMetrics.SCOPE_REMOTE);
+        metrics.recordLockFailure(RedisMetrics.SCOPE_REMOTE);
+        metrics.recordLockWait(TimeUnit.MILLISECONDS.toNanos(3), true);
+        metrics.recordRateLimit("api", true);
+        metrics.recordRateLimit("api", false);
+        metrics.recordRateLimit("api", false);
+
+        Assertions.assertEquals(1, registry.get("redisson.lock.contention").tag("scope", "local").counter().count());
+        Assertions.assertEquals(1, registry.get("redisson.lock.failures").tag("scope", "remote").counter().count());
+        Assertions.assertEquals(0, registry.get("redisson.lock.failures").tag("scope", "local").counter().count());
+        Assertions.assertEquals(1, registry.get("redisson.lock.wait").tag("result", "acquired").timer().count());
+        Assertions.assertEquals(1, registry.get("redisson.rate.limiter.requests").tag("name", "api").tag("result", "permitted").counter().count());
+        Assertions.assertEquals(2, registry.get("redisson.rate.limiter.requests").tag("name", "api").tag("result", "rejected").counter().count());
+    }
+
+}
@@ -0,0 +1,74 @@
+package haidnor.test;
+
+import haidnor.redisson.core.RedisDelayedMessageStore;
+import haidnor.redisson.util.RedisMQPartitions;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redisson.connection.CRC16;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 分区消息队列 key 计算测试, 无需连接 Redis
+ */
+public class PartitionsTest {
+
+    @Test
+    public void test_distinctSlots() {
+        List<String> keys = RedisMQPartitions.keys("order_queue", 64);
+        Assertions.assertEquals(64, keys.size());
+        Assertions.assertEquals("order_queue", keys.get(0));
+        Set<Integer> slots = new HashSet<>();
+        for (String key : keys) {
+            slots.add(CRC16.crc16(key.getBytes(StandardCharsets.UTF_8)) % 16384);
+        }
+        Assertions.assertEquals(64, slots.size());
+    }
+
+    @Test
+    public void test_stableWhenPartitionsGrow() {
+        List<String> small = RedisMQPartitions.keys("order_queue", 4);
+        List<String> large = RedisMQPartitions.keys("order_queue", 16);
+        Assertions.assertEquals(small, large.subList(0, 4));
+    }
+
+    @Test
+    public void test_selectByKey() {
+        String first = RedisMQPartitions.select("order_queue", 8, "order-10086");
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertEquals(first, RedisMQPartitions.select("order_queue", 8, "order-10086"));
+        }
+        Assertions.assertEquals("order_queue", RedisMQPartitions.keys("order_queue", 1).get(0));
+    }
+
+    @Test
+    public void test_selectByStableHash() {
+        List<String> keys = RedisMQPartitions.keys("order_queue", 8);
+        for (long orderNo = 0; orderNo < 1000; orderNo++) {
+            int index = CRC16.crc16(String.valueOf(orderNo).getBytes(StandardCharsets.UTF_8)) % 8;
+            Assertions.assertEquals(keys.get(index), RedisMQPartitions.select("order_queue", 8, orderNo));
+        }
+        Assertions.assertEquals(RedisMQPartitions.select("order_queue", 8, "NEW"), RedisMQPartitions.select("order_queue", 8, Thread.State.NEW));
+    }
+
+    @Test
+    public void test_hashTagFallback() {
+        List<String> keys = RedisMQPartitions.keys("{order}_queue", 4);
+        Assertions.assertEquals(4, new HashSet<>(keys).size());
+    }
+
+    @Test
+    public void test_delayedKeysShareQueueSlot() {
+        String destination = "order_queue#3";
+        int slot = RedisMQPartitions.slot(destination);
+        Assertions.assertEquals(slot, RedisMQPartitions.slot(RedisDelayedMessageStore.delayedKey(destination)));
+        Assertions.assertEquals(slot, RedisMQPartitions.slot(RedisDelayedMessageStore.payloadsKey(destination)));
+        RedisDelayedMessageStore.checkDestination(destination);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RedisDelayedMessageStore.checkDestination("{order}_queue"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RedisDelayedMessageStore.checkDestination("order}_queue"));
+    }
+
+}
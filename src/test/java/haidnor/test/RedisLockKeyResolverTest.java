@@ -0,0 +1,83 @@
+package haidnor.test;
+
+import haidnor.redisson.aop.RedisLockKeyResolver;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+
+/**
+ * 对比 @RedisLocked 的 key 表达式直接拼接与 SpEL 求值的开销, 无需连接 Redis
+ */
+public class RedisLockKeyResolverTest {
+
+    private static final int WARMUP = 200_000;
+
+    private static final int ITERATIONS = 2_000_000;
+
+    private final Method method;
+
+    public RedisLockKeyResolverTest() throws NoSuchMethodException {
+        method = OrderService.class.getMethod("pay", Message.class, String.class);
+    }
+
+    @Test
+    public void test_resolve() {
+        Message msg = new Message("ID_01", "content");
+        Object[] args = {msg, "t1"};
+        Assertions.assertEquals("t1", resolve("#tenant", args));
+        Assertions.assertEquals("order:ID_01:t1", resolve("'order:' + #p0.msgId + ':' + #a1", args));
+        Assertions.assertEquals("order:t1", resolve("'order:' + #tenant", args));
+        Assertions.assertEquals("a+b:t1", resolve("'a+b:' + #p1", args));
+        Assertions.assertEquals("ORDER_LOCK", resolve("'ORDER_LOCK'", args));
+        Assertions.assertEquals("ID_01", resolve("#msg.msgId", args));
+        Assertions.assertEquals("T1", resolve("#tenant.toUpperCase()", args));
+        Assertions.assertEquals("it's:t1", resolve("'it''s:' + #tenant", args));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> resolve("#tenant", new Object[]{msg, null}));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> resolve("'order:' + #tenant", new Object[]{msg, null}));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> resolve("#tenant + ':' + #a0", new Object[]{null, "t1"}));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RedisLockKeyResolver.compile(method, " "));
+    }
+
+    @Test
+    public void test_benchmark() {
+        Object[] args = {new Message("ID_01", "content"), "t1"};
+        RedisLockKeyResolver concat = RedisLockKeyResolver.compile(method, "'order:' + #tenant + ':' + #a1");
+        RedisLockKeyResolver spel = RedisLockKeyResolver.compile(method, "'order:' + #tenant + ':' + #msg.msgId");
+        RedisLockKeyResolver uncached = null;
+        for (int i = 0; i < WARMUP; i++) {
+            concat.resolve(this, args);
+            spel.resolve(this, args);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            concat.resolve(this, args);
+        }
+        long t2 = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            spel.resolve(this, args);
+        }
+        long t3 = System.nanoTime();
+        // 每次调用重新解析表达式
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            uncached = RedisLockKeyResolver.compile(method, "'order:' + #tenant + ':' + #msg.msgId");
+            uncached.resolve(this, args);
+        }
+        long t4 = System.nanoTime();
+        System.out.printf("concat: %.1f ns/op, cached SpEL: %.1f ns/op, parse per call: %.1f ns/op%n",
+                (t2 - t1) / (double) ITERATIONS, (t3 - t2) / (double) ITERATIONS, (t4 - t3) / (double) (ITERATIONS / 10));
+        Assertions.assertEquals("order:t1:ID_01", uncached.resolve(this, args));
+    }
+
+    private String resolve(String expression, Object[] args) {
+        return RedisLockKeyResolver.compile(method, expression).resolve(this, args);
+    }
+
+    public static class OrderService {
+
+        public void pay(Message msg, String tenant) {
+        }
+
+    }
+
+}
@@ -1,17 +1,33 @@
 package haidnor.test;
 
 import haidnor.SpringBootTestMainApplication;
+import haidnor.redisson.core.RedisDelayedMessageStore;
 import haidnor.redisson.core.RedisLock;
 import haidnor.redisson.core.RedisMQService;
+import haidnor.redisson.util.QueueUtil;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.redisson.api.RBlockingQueue;
 import org.redisson.api.RKeys;
 import org.redisson.api.RScoredSortedSet;
+import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
+import org.redisson.api.redisnode.RedisNode;
+import org.redisson.api.redisnode.RedisNodes;
+import org.redisson.api.redisnode.RedisSingle;
+import org.redisson.codec.JsonJacksonCodec;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 @SpringBootTest(classes = {SpringBootTestMainApplication.class})
@@ -26,6 +42,9 @@ public class RedissonTest {
     @Autowired
     private RedisMQService redisMQService;
 
+    @Autowired
+    private RedisDelayedMessageStore delayedMessageStore;
+
     @Test
     public void test_12131() throws Exception {
         /**
@@ -71,6 +90,324 @@ public class RedissonTest {
         }
     }
 
+    @Test
+    public void test_sendBatch() throws Exception {
+        List<Object> msgs = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            msgs.add("message_" + i);
+        }
+        long t1 = System.currentTimeMillis();
+        redisMQService.sendBatch("test_batch_queue", msgs);
+        long t2 = System.currentTimeMillis();
+        redisMQService.sendBatch("test_batch_queue", msgs, 10, TimeUnit.SECONDS);
+        long t3 = System.currentTimeMillis();
+        System.out.printf("sendBatch: %d ms, delayed sendBatch: %d ms%n", t2 - t1, t3 - t2);
+    }
+
+    @Test
+    public void test_sendAsync() throws Exception {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        long t1 = System.nanoTime();
+        for (int i = 0; i < 10000; i++) {
+            futures.add(redisMQService.sendAsync("test_async_queue", "message_" + i));
+        }
+        long t2 = System.nanoTime();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        long t3 = System.nanoTime();
+        System.out.printf("caller blocked: %d us, all acknowledged: %d ms%n", (t2 - t1) / 1000, (t3 - t1) / 1_000_000);
+    }
+
+    /**
+     * 对比逐条 take() 与 take() + drainTo() 批量拉取的消费吞吐量
+     */
+    @Test
+    public void test_batchDrainThroughput() throws Exception {
+        int total = 20000;
+        RBlockingQueue<Object> queue = redisson.getBlockingQueue("benchmark_batch_queue", JsonJacksonCodec.INSTANCE);
+        queue.delete();
+
+        queue.addAll(Collections.nCopies(total, "message"));
+        long t1 = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            queue.take();
+        }
+        long takeCost = System.nanoTime() - t1;
+
+        queue.addAll(Collections.nCopies(total, "message"));
+        long t2 = System.nanoTime();
+        int received = 0;
+        while (received < total) {
+            List<Object> batch = new ArrayList<>(100);
+            batch.add(queue.take());
+            queue.drainTo(batch, 99);
+            received += batch.size();
+        }
+        long drainCost = System.nanoTime() - t2;
+
+        System.out.printf("take: %d msg/s, take + drainTo(100): %d msg/s%n",
+                total * 1_000_000_000L / takeCost, total * 1_000_000_000L / drainCost);
+    }
+
+    /**
+     * 延迟消息转移吞吐量: 写入 100 万条已到期的延迟消息, 统计转移者批量转移到普通队列的速度
+     */
+    @Test
+    public void test_delayedMoverThroughput() throws Exception {
+        int total = 1_000_000;
+        String queueName = "benchmark_delay_queue";
+        String destination = QueueUtil.modifyQueueName(queueName);
+        redisson.getKeys().delete(destination, RedisDelayedMessageStore.delayedKey(destination), RedisDelayedMessageStore.payloadsKey(destination));
+
+        List<Object> msgs = new ArrayList<>(10000);
+        for (int i = 0; i < 10000; i++) {
+            msgs.add("message_" + i);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < total / msgs.size(); i++) {
+            redisMQService.sendBatch(queueName, msgs, 0, TimeUnit.MILLISECONDS);
+        }
+        long scheduleCost = System.nanoTime() - t1;
+
+        long t2 = System.nanoTime();
+        long moved = 0;
+        long[] result;
+        do {
+            result = delayedMessageStore.move(destination, 1000);
+            moved += result[0];
+        } while (result[0] == 1000);
+        long moveCost = System.nanoTime() - t2;
+
+        Assertions.assertEquals(total, moved);
+        Assertions.assertEquals(total, redisson.getBlockingQueue(destination).size());
+        System.out.printf("schedule: %d msg/s, move: %d msg/s%n",
+                total * 1_000_000_000L / scheduleCost, total * 1_000_000_000L / moveCost);
+        redisson.getKeys().delete(destination);
+    }
+
+    /**
+     * 订单超时场景: 写入大量延迟消息后取消其中绝大部分, 统计取消耗时并验证只剩未取消的消息
+     */
+    @Test
+    public void test_cancelDelayed() throws Exception {
+        int total = 100_000;
+        String queueName = "benchmark_cancel_queue";
+        String destination = QueueUtil.modifyQueueName(queueName);
+        redisson.getKeys().delete(RedisDelayedMessageStore.delayedKey(destination), RedisDelayedMessageStore.payloadsKey(destination));
+
+        List<CompletableFuture<String>> futures = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            futures.add(redisMQService.sendAsync(queueName, "order_" + i, 30, TimeUnit.MINUTES));
+        }
+        List<String> ids = new ArrayList<>(total);
+        for (CompletableFuture<String> future : futures) {
+            ids.add(future.join());
+        }
+
+        long t1 = System.nanoTime();
+        int cancelled = 0;
+        for (int i = 0; i < total; i++) {
+            if (i % 10 != 0 && redisMQService.cancel(queueName, ids.get(i))) {
+                cancelled++;
+            }
+        }
+        long cancelCost = System.nanoTime() - t1;
+
+        Assertions.assertTrue(redisMQService.reschedule(queueName, ids.get(0), 1, TimeUnit.HOURS));
+        Assertions.assertFalse(redisMQService.cancel(queueName, ids.get(1)));
+        Assertions.assertEquals(total - cancelled, redisson.getScoredSortedSet(RedisDelayedMessageStore.delayedKey(destination)).size());
+        System.out.printf("cancel: %d msg/s%n", cancelled * 1_000_000_000L / cancelCost);
+        redisson.getKeys().delete(RedisDelayedMessageStore.delayedKey(destination), RedisDelayedMessageStore.payloadsKey(destination));
+    }
+
+    @Test
+    public void test_lockAsync() throws Exception {
+        int total = 100;
+        int[] counter = new int[1];
+        List<CompletableFuture<Integer>> futures = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            // 代码块在其它线程中完成, 由该线程释放锁
+            futures.add(redisLock.lockAsync("LOCK_ASYNC_KEY", 10, TimeUnit.SECONDS,
+                    () -> CompletableFuture.supplyAsync(() -> ++counter[0])));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+        Assertions.assertEquals(total, counter[0]);
+        Assertions.assertFalse(redisson.getLock("LOCK_ASYNC_KEY").isLocked());
+
+        Integer value = redisLock.lockReactive("LOCK_ASYNC_KEY", 1, TimeUnit.SECONDS, () -> Mono.just(1)).block();
+        Assertions.assertEquals(1, value);
+    }
+
+    @Test
+    public void test_readWriteLock() throws Exception {
+        String key = "CONFIG_RW_LOCK";
+        int readers = 50;
+        CountDownLatch inside = new CountDownLatch(readers);
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        List<CompletableFuture<Void>> futures = new ArrayList<>(readers);
+        for (int i = 0; i < readers; i++) {
+            futures.add(CompletableFuture.runAsync(() -> redisLock.readLock(key, 10, TimeUnit.SECONDS, () -> {
+                // 所有读者同时持有读锁
+                inside.countDown();
+                try {
+                    Assertions.assertTrue(inside.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }), executor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+        Assertions.assertFalse(redisson.getReadWriteLock(key).readLock().isLocked());
+
+        String value = redisLock.writeLock(key, () -> redisLock.readLock(key, () -> "downgrade"));
+        Assertions.assertEquals("downgrade", value);
+        Assertions.assertFalse(redisson.getReadWriteLock(key).writeLock().isLocked());
+    }
+
+    @Test
+    public void test_readLockWaiterDeadline() throws Exception {
+        String key = "CONFIG_RW_LOCK_DEADLINE";
+        RLock writeLock = redisson.getReadWriteLock(key).writeLock();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // 其它节点持有分布式写锁, 第一个本地读者在 Redis 上等待
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            writeLock.lock();
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                writeLock.unlock();
+            }
+        }, executor);
+        Assertions.assertTrue(locked.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> redisLock.readLock(key, 10, TimeUnit.SECONDS, () -> "first"), executor);
+        Thread.sleep(200);
+
+        // 其余读者按自己的等待时间失败, 不随第一个读者等待
+        long start = System.nanoTime();
+        Assertions.assertThrows(RuntimeException.class, () -> redisLock.readLock(key, 100, TimeUnit.MILLISECONDS, () -> "second"));
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        release.countDown();
+        writer.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals("first", first.get(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        Assertions.assertFalse(redisson.getReadWriteLock(key).readLock().isLocked());
+    }
+
+    @Test
+    public void test_semaphore() throws Exception {
+        String key = "ORDER_SEMAPHORE";
+        redisson.getKeys().delete(key);
+        Assertions.assertTrue(redisLock.trySetPermits(key, 2));
+        int[] running = new int[1];
+        int[] maxRunning = new int[1];
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(CompletableFuture.runAsync(() -> redisLock.semaphore(key, 10, 30, TimeUnit.SECONDS, () -> {
+                synchronized (running) {
+                    maxRunning[0] = Math.max(maxRunning[0], ++running[0]);
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                synchronized (running) {
+                    running[0]--;
+                }
+                return null;
+            })));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        Assertions.assertTrue(maxRunning[0] <= 2);
+        // 许可异步归还
+        Thread.sleep(100);
+        Assertions.assertEquals(2, redisson.getPermitExpirableSemaphore(key).availablePermits());
+    }
+
+    /**
+     * 对比看门狗方式 lock() 与隔离令牌方式 lockFenced() 的上锁吞吐量与每次上锁执行的 Redis 命令数量 (INFO stats total_commands_processed)
+     */
+    @Test
+    public void test_fencedLockBenchmark() throws Exception {
+        int total = 10000;
+        String key = "benchmark_fenced_lock";
+        redisson.getKeys().delete(key, "{" + key + "}:fence");
+        RedisSingle redisNode = redisson.getRedisNodes(RedisNodes.SINGLE);
+
+        long commands = totalCommands(redisNode);
+        long t1 = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            redisLock.lock(key, () -> {
+            });
+        }
+        long lockCost = System.nanoTime() - t1;
+        long lockCommands = totalCommands(redisNode) - commands - 1;
+
+        commands = totalCommands(redisNode);
+        long lastToken = 0;
+        long t2 = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long token = redisLock.lockFenced(key, 10, TimeUnit.SECONDS, fencingToken -> fencingToken);
+            Assertions.assertTrue(token > lastToken, "fencing token should be monotonically increasing");
+            lastToken = token;
+        }
+        long fencedCost = System.nanoTime() - t2;
+        long fencedCommands = totalCommands(redisNode) - commands - 1;
+
+        Assertions.assertFalse(redisson.getLock(key).isLocked());
+        System.out.printf("lock: %d locks/s, %.2f commands/lock; lockFenced: %d locks/s, %.2f commands/lock%n",
+                total * 1_000_000_000L / lockCost, lockCommands / (double) total,
+                total * 1_000_000_000L / fencedCost, fencedCommands / (double) total);
+        redisson.getKeys().delete("{" + key + "}:fence");
+    }
+
+    @Test
+    public void test_lockAll() throws Exception {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            keys.add("account_lock_" + i);
+        }
+        redisLock.lockAll(keys, () -> {
+            for (String key : keys) {
+                Assertions.assertTrue(redisson.getLock(key).isHeldByCurrentThread());
+            }
+            // 当前线程持有的锁可重入
+            redisLock.lock(keys.get(0), () -> {
+            });
+            Assertions.assertTrue(redisson.getLock(keys.get(0)).isHeldByCurrentThread());
+        });
+        for (String key : keys) {
+            Assertions.assertFalse(redisson.getLock(key).isLocked());
+        }
+
+        // 两个线程以相反的顺序批量上锁, 不会死锁
+        List<String> reversed = new ArrayList<>(keys);
+        Collections.reverse(reversed);
+        long[] counter = new long[1];
+        CompletableFuture<Void> f1 = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < 200; i++) {
+                redisLock.lockAll(keys, 10, TimeUnit.SECONDS, () -> counter[0]++);
+            }
+        });
+        CompletableFuture<Void> f2 = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < 200; i++) {
+                redisLock.lockAll(reversed, 10, TimeUnit.SECONDS, () -> counter[0]++);
+            }
+        });
+        CompletableFuture.allOf(f1, f2).get(60, TimeUnit.SECONDS);
+        Assertions.assertEquals(400, counter[0]);
+    }
+
+    private long totalCommands(RedisSingle redisNode) {
+        return Long.parseLong(redisNode.getInstance().info(RedisNode.InfoSection.STATS).get("total_commands_processed"));
+    }
+
     @Test
     public void test_delayedQueue() throws Exception {
         HashMap<Object, Object> msg = new HashMap<>();
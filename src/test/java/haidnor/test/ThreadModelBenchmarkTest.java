@@ -0,0 +1,104 @@
+package haidnor.test;
+
+import haidnor.redisson.util.VirtualThreads;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 对比平台线程与虚拟线程两种监听器线程模型在大量队列下的内存占用与线程切换开销.
+ * <p>
+ * 每个监听器以阻塞在本地队列 take() 上模拟阻塞在 Redis BLPOP 上的监听器线程, 无需连接 Redis
+ */
+public class ThreadModelBenchmarkTest {
+
+    private static final int QUEUE_NUM = 200;
+
+    private static final int LISTENER_NUM = 2;
+
+    private static final int HANDOFF_NUM = 20000;
+
+    @Test
+    public void test_platformThreads() throws Exception {
+        benchmark("platform", Thread::new);
+    }
+
+    @Test
+    public void test_virtualThreads() throws Exception {
+        Assumptions.assumeTrue(VirtualThreads.isSupported(), "virtual threads require JDK 21");
+        benchmark("virtual", VirtualThreads.factory("benchmark-"));
+    }
+
+    private void benchmark(String mode, ThreadFactory threadFactory) throws Exception {
+        // 内存占用: 为每个队列启动 LISTENER_NUM 个阻塞在 take() 上的监听器
+        long before = usedMemory();
+        List<BlockingQueue<Object>> queues = new ArrayList<>(QUEUE_NUM);
+        List<Thread> listeners = new ArrayList<>(QUEUE_NUM * LISTENER_NUM);
+        CountDownLatch started = new CountDownLatch(QUEUE_NUM * LISTENER_NUM);
+        for (int i = 0; i < QUEUE_NUM; i++) {
+            BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+            queues.add(queue);
+            for (int j = 0; j < LISTENER_NUM; j++) {
+                Thread listener = threadFactory.newThread(() -> {
+                    started.countDown();
+                    try {
+                        queue.take();
+                    } catch (InterruptedException ignored) {
+                    }
+                });
+                listener.start();
+                listeners.add(listener);
+            }
+        }
+        started.await();
+        long after = usedMemory();
+        // 平台线程栈分配在堆外, 以存活的平台线程数衡量, 虚拟线程只占用少量 carrier 线程
+        int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        // 线程切换开销: 两个线程通过 SynchronousQueue 往返传递消息
+        SynchronousQueue<Object> ping = new SynchronousQueue<>();
+        SynchronousQueue<Object> pong = new SynchronousQueue<>();
+        Thread echo = threadFactory.newThread(() -> {
+            try {
+                for (int i = 0; i < HANDOFF_NUM; i++) {
+                    pong.put(ping.take());
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+        echo.start();
+        Object msg = new Object();
+        long t1 = System.nanoTime();
+        for (int i = 0; i < HANDOFF_NUM; i++) {
+            ping.put(msg);
+            pong.take();
+        }
+        long handoffCost = (System.nanoTime() - t1) / (HANDOFF_NUM * 2L);
+        echo.join();
+
+        for (Thread listener : listeners) {
+            listener.interrupt();
+        }
+        for (Thread listener : listeners) {
+            listener.join();
+        }
+        System.out.printf("%s threads: %d listeners, live platform threads %d, heap delta %d KB, handoff %d ns%n",
+                mode, listeners.size(), platformThreads, (after - before) / 1024, handoffCost);
+    }
+
+    private long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        Thread.sleep(100);
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}